@@ -1,16 +1,102 @@
 import javax.swing.*;
+import javax.swing.border.Border;
 import javax.swing.border.EmptyBorder;
 import javax.swing.border.LineBorder;
+import javax.swing.table.AbstractTableModel;
 import javax.swing.table.DefaultTableCellRenderer;
-import javax.swing.table.DefaultTableModel;
 import javax.swing.table.JTableHeader;
 import java.awt.*;
+import java.awt.datatransfer.StringSelection;
 import java.awt.event.*;
 import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
 import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.NumberFormat;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+import javax.crypto.Mac;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
 
 public class BankManagementSystem extends JFrame {
 
@@ -40,6 +126,7 @@ public class BankManagementSystem extends JFrame {
     private CardLayout cardLayout;
     private JPanel mainPanel;
     private BankService bankService;
+    private AsyncBankService asyncBank;
     private User currentUser;
 
     // --- Panels ---
@@ -48,12 +135,18 @@ public class BankManagementSystem extends JFrame {
     private DashboardPanel dashboardPanel;
 
     public BankManagementSystem() {
+        this(null);
+    }
+
+    // A null service opens the durable ledger; DashboardSoak and EdtLatencyCheck pass their own
+    BankManagementSystem(BankService service) {
         setTitle("Osryn Sovereign Bank - Cyber Enterprise");
         setSize(1280, 850);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         setLocationRelativeTo(null);
         
-        bankService = new BankService();
+        bankService = service != null ? service : openBankService();
+        asyncBank = new AsyncBankService(bankService);
 
         cardLayout = new CardLayout();
         mainPanel = new JPanel(cardLayout);
@@ -71,6 +164,7 @@ public class BankManagementSystem extends JFrame {
     // --- Navigation Methods ---
 
     public void showLogin() {
+        if (dashboardPanel != null) dashboardPanel.release();
         currentUser = null;
         cardLayout.show(mainPanel, "LOGIN");
     }
@@ -79,28 +173,69 @@ public class BankManagementSystem extends JFrame {
         cardLayout.show(mainPanel, "SIGNUP");
     }
 
-    public void login(String username, String password) {
-        User user = bankService.authenticate(username, password);
-        if (user != null) {
-            currentUser = user;
-            dashboardPanel = new DashboardPanel(this, currentUser);
+    public void login(String username, String password, JComponent... controls) {
+        runBanking(() -> asyncBank.authenticate(username, password), user -> {
+            if (user != null) {
+                showDashboard(user);
+            } else {
+                showToast("Invalid Credentials", true);
+            }
+        }, "Invalid Credentials", controls);
+    }
+
+    // One dashboard serves every session: it is built on the first login and rebound after that
+    void showDashboard(User user) {
+        currentUser = user;
+        if (dashboardPanel == null) {
+            dashboardPanel = new DashboardPanel(this);
             mainPanel.add(dashboardPanel, "DASHBOARD");
-            cardLayout.show(mainPanel, "DASHBOARD");
-        } else {
-            showToast("Invalid Credentials", true);
         }
+        dashboardPanel.bind(user);
+        cardLayout.show(mainPanel, "DASHBOARD");
     }
 
-    public void register(String name, String username, String password, String email, String phone) {
-        User newUser = bankService.createAccount(name, username, password, email, phone);
-        if (newUser != null) {
-            JOptionPane.showMessageDialog(this, 
-                "Identity Verified. Access Granted.\nAccount ID: " + newUser.getAccountId(), 
-                "System Notification", JOptionPane.INFORMATION_MESSAGE);
-            showLogin();
-        } else {
-            showToast("Username Unavailable", true);
+    public void register(String name, String username, String password, String email, String phone,
+                         User.AccountType type, JComponent... controls) {
+        runBanking(() -> asyncBank.createAccount(name, username, password, email, phone, type), newUser -> {
+            if (newUser != null) {
+                JOptionPane.showMessageDialog(this, 
+                    "Identity Verified. Access Granted.\nAccount ID: " + newUser.getAccountId(), 
+                    "System Notification", JOptionPane.INFORMATION_MESSAGE);
+                showLogin();
+            } else {
+                showToast("Username Unavailable", true);
+            }
+        }, "Username Unavailable", controls);
+    }
+
+    // Runs a banking call off the EDT. The controls stay disabled while it is in flight and the
+    // result (or failureMessage) is delivered back on the EDT.
+    <T> void runBanking(Supplier<CompletableFuture<T>> call, Consumer<T> onResult, String failureMessage, JComponent... controls) {
+        for (JComponent c : controls) c.setEnabled(false);
+        CompletableFuture<T> pending;
+        try {
+            pending = call.get();
+        } catch (RuntimeException ex) {
+            // Never got started (e.g. the worker executor refused it), so nothing will complete
+            for (JComponent c : controls) c.setEnabled(true);
+            showToast(failureText(ex, failureMessage), true);
+            return;
+        }
+        pending.whenCompleteAsync((result, error) -> {
+            for (JComponent c : controls) c.setEnabled(true);
+            if (error != null) showToast(failureText(error, failureMessage), true);
+            else onResult.accept(result);
+        }, SwingUtilities::invokeLater);
+    }
+
+    // A saturated worker or hashing pool is a busy server, not a wrong password or a taken name;
+    // a journal failure leaves the ledger read-only
+    private static String failureText(Throwable error, String failureMessage) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof RejectedExecutionException) return "Server busy, please try again shortly";
+            if (t instanceof UncheckedIOException) return "Ledger unavailable: it is read-only until restarted";
         }
+        return failureMessage;
     }
 
     public void logout() {
@@ -114,9 +249,89 @@ public class BankManagementSystem extends JFrame {
         JOptionPane.showMessageDialog(this, message, isError ? "System Error" : "Success", isError ? JOptionPane.ERROR_MESSAGE : JOptionPane.INFORMATION_MESSAGE);
     }
 
+    // Reports what became of a withdrawal, bill or transfer; true once it is no longer the
+    // customer's to retry (applied, or held for review)
+    boolean showOutcome(LedgerMetrics.Outcome outcome, String success, String failure) {
+        switch (outcome) {
+            case OK:
+                showToast(success, false);
+                return true;
+            case HELD_FOR_REVIEW:
+                JOptionPane.showMessageDialog(this, "Held for review. It will go through once approved.",
+                                              "Under Review", JOptionPane.WARNING_MESSAGE);
+                return true;
+            case RISK_BLOCKED:
+                showToast("Blocked by risk controls", true);
+                return false;
+            default:
+                showToast(failure, true);
+                return false;
+        }
+    }
+
     public BankService getBankService() { return bankService; }
 
-    public static void main(String[] args) {
+    private BankService openBankService() {
+        try {
+            return openDurableBankService();
+        } catch (IOException | UncheckedIOException ex) {
+            showToast("Ledger journal unavailable, running in memory only", true);
+            BankService service = new BankService();
+            service.setRiskStage(configuredRiskStage());
+            return service;
+        }
+    }
+
+    // -Dosryn.riskRules overrides RiskRule.DEFAULTS; an empty value turns screening off
+    static RiskStage configuredRiskStage() {
+        List<RiskRule> rules = RiskRule.parse(System.getProperty("osryn.riskRules", RiskRule.DEFAULTS));
+        return rules.isEmpty() ? RiskStage.NONE : new VelocityRiskStage(rules);
+    }
+
+    // Journal location and durability can be overridden with -Dosryn.journal / -Dosryn.durability,
+    // the snapshot file and checkpoint interval with -Dosryn.snapshot / -Dosryn.checkpointMinutes
+    static BankService openDurableBankService() throws IOException {
+        return openDurableBankService(Partition.WHOLE, "osryn-ledger");
+    }
+
+    static BankService openDurableBankService(Partition partition, String baseName) throws IOException {
+        Path path = Paths.get(System.getProperty("osryn.journal", baseName + ".journal"));
+        Path snapshot = Paths.get(System.getProperty("osryn.snapshot", baseName + ".snapshot"));
+        LedgerJournal.Durability durability =
+            LedgerJournal.Durability.valueOf(System.getProperty("osryn.durability", "GROUP_COMMIT"));
+        BankService service = new BankService(LedgerJournal.open(path, durability), snapshot, PasswordHasher.shared(), partition);
+        service.startCheckpoints(Long.getLong("osryn.checkpointMinutes", 5), TimeUnit.MINUTES);
+        service.startInterestAccrual();
+        service.setRiskStage(configuredRiskStage());
+        service.getMetrics().register();
+        return service;
+    }
+
+    // "--headless [--port=N]" serves the HTTP/JSON API instead of opening the window;
+    // "--shard --shard-index=I --shards=N [--port=P]" runs shard I of an N-shard ledger (see ShardedLedger);
+    // its router must present the secret in the OSRYN_SHARD_SECRET environment variable
+    public static void main(String[] args) throws IOException {
+        List<String> argList = Arrays.asList(args);
+        int port = Integer.parseInt(flag(args, "--port=", String.valueOf(Integer.getInteger("osryn.port", 8080))));
+        if (argList.contains("--shard")) {
+            String secret = System.getenv(ShardedLedger.SECRET_ENV);
+            if (secret == null || secret.isEmpty()) {
+                System.err.println("Set " + ShardedLedger.SECRET_ENV + " to the secret shared with the router");
+                System.exit(2);
+            }
+            int index = Integer.parseInt(flag(args, "--shard-index=", "0"));
+            Partition partition = new Partition(index, Integer.parseInt(flag(args, "--shards=", "1")));
+            LedgerApiServer server = new LedgerApiServer(openDurableBankService(partition, "osryn-shard-" + index), port, secret);
+            server.start();
+            System.out.println("Osryn ledger shard " + index + "/" + partition.count + " listening on http://localhost:" + server.getPort());
+            return;
+        }
+        if (argList.contains("--headless")) {
+            LedgerApiServer server = new LedgerApiServer(openDurableBankService(), port);
+            server.start();
+            System.out.println("Osryn ledger API listening on http://localhost:" + server.getPort());
+            return;
+        }
         System.setProperty("awt.useSystemAAFontSettings", "on");
         System.setProperty("swing.aatext", "true");
         SwingUtilities.invokeLater(() -> {
@@ -126,137 +341,6400 @@ public class BankManagementSystem extends JFrame {
         });
     }
 
+    private static String flag(String[] args, String prefix, String fallback) {
+        for (String a : args) if (a.startsWith(prefix)) return a.substring(prefix.length());
+        return fallback;
+    }
+
     // ==========================================
     //              DATA LAYER
     // ==========================================
 
     static class User {
-        private String accountId, username, name, password, email, phone;
-        private double balance;
-        private List<Transaction> transactions;
-        private List<Double> balanceHistory;
+        // Savings accounts earn interest, accrued daily by BankService.accrueInterest
+        enum AccountType {
+            CURRENT("Current", 0),
+            SAVINGS("Savings", Integer.getInteger("osryn.savingsRateBps", 350));
+
+            final String label;
+            final int annualRateBps; // 350 = 3.50% a year
+            // Interest postings all share this text, so the history index gains no token per day
+            final String description;
+
+            AccountType(String label, int annualRateBps) {
+                this.label = label;
+                this.annualRateBps = annualRateBps;
+                this.description = label + " interest";
+            }
+
+            @Override public String toString() { return label; }
+        }
+
+        private String accountId, username, name, passwordHash, email, phone;
+        private volatile long balance; // paisa
+        private volatile AccountType accountType = AccountType.CURRENT;
+        private volatile long interestAccruedThrough; // epoch day of the last interest posted
+        private long restoredThrough; // journal sequence a snapshot copy of this account reflects
+        private TransactionHistory transactions;
+        private BalanceHistory balanceHistory;
+        private BalanceSeries balanceSeries;
         private Date dateCreated;
 
-        public User(String accountId, String username, String name, String password, String email, String phone) {
+        public User(String accountId, String username, String name, String passwordHash, String email, String phone) {
+            this(accountId, username, name, passwordHash, email, phone, new Date());
+        }
+
+        public User(String accountId, String username, String name, String passwordHash, String email, String phone, Date dateCreated) {
             this.accountId = accountId;
             this.username = username;
             this.name = name;
-            this.password = password;
+            this.passwordHash = passwordHash;
             this.email = email;
             this.phone = phone;
-            this.balance = 0.0;
-            this.transactions = new ArrayList<>();
-            this.balanceHistory = new ArrayList<>();
-            this.balanceHistory.add(0.0);
-            this.dateCreated = new Date();
+            this.balance = 0L;
+            this.transactions = new TransactionHistory();
+            this.balanceHistory = new BalanceHistory();
+            this.balanceHistory.add(0L);
+            this.balanceSeries = new BalanceSeries();
+            this.dateCreated = dateCreated;
+            // Interest starts with the day the account was opened
+            this.interestAccruedThrough = Instant.ofEpochMilli(dateCreated.getTime())
+                .atZone(ZoneId.systemDefault()).toLocalDate().toEpochDay() - 1;
+        }
+
+        // Bulk restore from a snapshot; transactions are re-added separately in posting order
+        void restore(long balance, long[] history, boolean historyComplete) {
+            this.balance = balance;
+            this.balanceHistory.clear();
+            this.balanceHistory.addAll(history);
+            if (!historyComplete) this.balanceHistory.markIncomplete();
         }
 
+        // Replay skips journal records up to this sequence for this account only
+        long getRestoredThrough() { return restoredThrough; }
+        void setRestoredThrough(long seq) { this.restoredThrough = seq; }
+
         // Getters
         public String getAccountId() { return accountId; }
         public String getUsername() { return username; }
         public String getName() { return name; }
-        public String getPassword() { return password; }
-        public void setPassword(String p) { this.password = p; }
-        public double getBalance() { return balance; }
+        // Encoded PasswordHasher credential (or a plaintext password from a pre-hashing journal)
+        public String getPasswordHash() { return passwordHash; }
+        public void setPasswordHash(String h) { this.passwordHash = h; }
+        public long getBalance() { return balance; }
         public String getEmail() { return email; }
         public String getPhone() { return phone; }
         public Date getDateCreated() { return dateCreated; }
-        public List<Transaction> getTransactions() { return transactions; }
-        public List<Double> getBalanceHistory() { return balanceHistory; }
+        public AccountType getAccountType() { return accountType; }
+        public long getInterestAccruedThrough() { return interestAccruedThrough; }
+        public TransactionHistory getTransactions() { return transactions; }
+        public BalanceHistory getBalanceHistory() { return balanceHistory; }
+        public BalanceSeries getBalanceSeries() { return balanceSeries; }
+
+        // Callers mutating a live account must hold its BankService stripe lock
+        public void updateBalance(long newBalance) {
+            updateBalance(newBalance, System.currentTimeMillis());
+        }
 
-        public void updateBalance(double newBalance) {
+        public void updateBalance(long newBalance, long time) {
             this.balance = newBalance;
-            if (balanceHistory.size() > 20) balanceHistory.remove(0);
             balanceHistory.add(newBalance);
+            balanceSeries.record(time, newBalance);
         }
         
         public void addTransaction(Transaction t) {
-            transactions.add(0, t);
+            transactions.append(t);
+        }
+
+        // Like updateBalance, callers must hold the account's stripe lock
+        void setAccountType(AccountType type, long accruedThrough) {
+            this.accountType = type;
+            this.interestAccruedThrough = accruedThrough;
+        }
+
+        void interestAccrued(long day) {
+            this.interestAccruedThrough = day;
+        }
+    }
+
+    static class Transaction {
+        private long id; // IdService value, only turned into text when shown
+        private String type, description;
+        private long amount; // paisa, negative for debits
+        private Date date;
+
+        public Transaction(String type, long amount, String description) {
+            this(type, amount, description, new Date());
+        }
+
+        public Transaction(String type, long amount, String description, Date date) {
+            this(IdService.nextTransactionId(), type, amount, description, date);
+        }
+
+        // Used by journal replay to restore a transaction exactly as it was posted
+        public Transaction(String id, String type, long amount, String description, Date date) {
+            this(IdService.decodeTransactionId(id), type, amount, description, date);
+        }
+
+        public Transaction(long id, String type, long amount, String description, Date date) {
+            this.id = id;
+            this.type = type;
+            this.amount = amount;
+            this.description = description;
+            this.date = date;
+        }
+        public String getId() { return IdService.encodeTransactionId(id); }
+        public long getIdValue() { return id; }
+        public String getType() { return type; }
+        public long getAmount() { return amount; }
+        public String getDescription() { return description; }
+        public Date getDate() { return date; }
+    }
+
+    // Last CAPACITY balances (paisa) in a primitive ring, oldest first, with the window's min/max
+    // kept up to date so the graph never has to scan or box anything
+    static final class BalanceHistory {
+        static final int CAPACITY = 21;
+        private final long[] ring = new long[CAPACITY];
+        private int head, size; // head is the oldest point
+        private long min, max;
+        private boolean complete = true; // false once a point has been evicted
+        private volatile long version; // bumped on every change, lets renderers cache
+
+        synchronized void add(long value) {
+            long evicted = 0;
+            boolean full = size == CAPACITY;
+            if (full) {
+                complete = false;
+                evicted = ring[head];
+                ring[head] = value;
+                head = (head + 1) % CAPACITY;
+            } else {
+                ring[(head + size) % CAPACITY] = value;
+                size++;
+            }
+            if (size == 1) { min = max = value; }
+            else if (full && (evicted == min || evicted == max)) rescan();
+            else { min = Math.min(min, value); max = Math.max(max, value); }
+            version++;
+        }
+
+        synchronized void addAll(long... values) {
+            for (long v : values) add(v);
+        }
+
+        synchronized void clear() {
+            complete = true;
+            head = size = 0;
+            min = max = 0;
+            version++;
+        }
+
+        synchronized void markIncomplete() { complete = false; }
+
+        public synchronized int size() { return size; }
+        // True while the ring still holds every balance since the account opened
+        public synchronized boolean isComplete() { return complete; }
+        public synchronized long min() { return min; }
+        public synchronized long max() { return max; }
+        public long version() { return version; }
+
+        // Copies the points oldest first into dst (at least CAPACITY long) and returns how many
+        public synchronized int copyTo(long[] dst) {
+            for (int i = 0; i < size; i++) dst[i] = ring[(head + i) % CAPACITY];
+            return size;
+        }
+
+        public synchronized long[] toArray() {
+            long[] out = new long[size];
+            copyTo(out);
+            return out;
+        }
+
+        // Only runs when the evicted point was an extreme; the window is CAPACITY points
+        private void rescan() {
+            min = max = ring[head];
+            for (int i = 1; i < size; i++) {
+                long v = ring[(head + i) % CAPACITY];
+                if (v < min) min = v;
+                if (v > max) max = v;
+            }
+        }
+    }
+
+    // Multi-resolution OHLC view of an account's balance, rolled up as each posting lands. Every
+    // level is a bounded ring of buckets stored as flat long columns, so rendering any range costs
+    // at most MAX_BUCKETS per level no matter how long the account has existed.
+    static final class BalanceSeries {
+        enum Resolution {
+            MINUTE(60 * 24),        // one day
+            HOUR(24 * 92),          // a quarter
+            DAY(366 * 5),           // five years
+            MONTH(12 * 100);        // a lifetime
+
+            final int maxBuckets;
+
+            Resolution(int maxBuckets) { this.maxBuckets = maxBuckets; }
+
+            // Days and months follow the local calendar; java.time is only touched on a bucket change
+            long bucketStart(long time) {
+                switch (this) {
+                    case MINUTE: return Math.floorDiv(time, 60_000L) * 60_000L;
+                    case HOUR: return Math.floorDiv(time, 3_600_000L) * 3_600_000L;
+                    case DAY: return local(time).truncatedTo(ChronoUnit.DAYS).toInstant().toEpochMilli();
+                    default: return local(time).truncatedTo(ChronoUnit.DAYS).withDayOfMonth(1).toInstant().toEpochMilli();
+                }
+            }
+
+            long nextStart(long start) {
+                switch (this) {
+                    case MINUTE: return start + 60_000L;
+                    case HOUR: return start + 3_600_000L;
+                    case DAY: return local(start).plusDays(1).toInstant().toEpochMilli();
+                    default: return local(start).plusMonths(1).toInstant().toEpochMilli();
+                }
+            }
+
+            private static ZonedDateTime local(long time) {
+                return Instant.ofEpochMilli(time).atZone(ZoneId.systemDefault());
+            }
+        }
+
+        static final int START = 0, OPEN = 1, HIGH = 2, LOW = 3, CLOSE = 4, FIELDS = 5;
+
+        private final Level[] levels = new Level[Resolution.values().length];
+        private volatile long version;
+
+        BalanceSeries() {
+            for (Resolution r : Resolution.values()) levels[r.ordinal()] = new Level(r);
+        }
+
+        synchronized void record(long time, long balance) {
+            for (Level l : levels) l.record(time, balance);
+            version++;
+        }
+
+        public long version() { return version; }
+
+        public synchronized int size(Resolution r) { return levels[r.ordinal()].size; }
+
+        // True if the level still holds every bucket since the first posting
+        public synchronized boolean covers(Resolution r) { return !levels[r.ordinal()].evicted; }
+
+        // Copies bucket start times and closing balances oldest first; arrays need r.maxBuckets slots
+        public synchronized int copyCloses(Resolution r, long[] times, long[] closes) {
+            Level l = levels[r.ordinal()];
+            for (int i = 0; i < l.size; i++) {
+                int at = l.slot(i);
+                times[i] = l.data[at + START];
+                closes[i] = l.data[at + CLOSE];
+            }
+            return l.size;
+        }
+
+        // [START, OPEN, HIGH, LOW, CLOSE] of the i-th oldest bucket
+        public synchronized long bucket(Resolution r, int i, int field) {
+            Level l = levels[r.ordinal()];
+            return l.data[l.slot(i) + field];
+        }
+
+        synchronized void write(LedgerSnapshot.Writer w) throws IOException {
+            for (Level l : levels) {
+                w.putInt(l.evicted ? -l.size - 1 : l.size);
+                for (int i = 0; i < l.size; i++) {
+                    int at = l.slot(i);
+                    for (int f = 0; f < FIELDS; f++) w.putLong(l.data[at + f]);
+                }
+            }
+        }
+
+        // Independent copy, for a snapshot to write out after the account's lock is released
+        synchronized BalanceSeries copy() {
+            BalanceSeries c = new BalanceSeries();
+            for (int i = 0; i < levels.length; i++) {
+                Level from = levels[i], to = c.levels[i];
+                to.data = from.data.clone();
+                to.head = from.head;
+                to.size = from.size;
+                to.evicted = from.evicted;
+                to.nextStart = from.nextStart;
+            }
+            return c;
+        }
+
+        synchronized void read(LedgerSnapshot.Reader in) throws IOException {
+            for (Level l : levels) {
+                int n = in.getInt();
+                l.evicted = n < 0;
+                if (n < 0) n = -n - 1;
+                l.data = new long[Math.max(4, n) * FIELDS];
+                for (int i = 0; i < n * FIELDS; i++) l.data[i] = in.getLong();
+                l.head = 0;
+                l.size = n;
+                if (n > 0) l.nextStart = l.res.nextStart(l.data[(n - 1) * FIELDS + START]);
+            }
+            version++;
+        }
+
+        private static final class Level {
+            final Resolution res;
+            long[] data = new long[4 * FIELDS]; // grows up to maxBuckets, then wraps
+            int head, size;
+            boolean evicted;
+            long nextStart = Long.MIN_VALUE;
+
+            Level(Resolution res) { this.res = res; }
+
+            int slot(int i) { return ((head + i) % (data.length / FIELDS)) * FIELDS; }
+
+            void record(long time, long balance) {
+                if (size > 0 && time < nextStart) {
+                    // Same bucket (a clock stepping backwards also lands here)
+                    int at = slot(size - 1);
+                    data[at + HIGH] = Math.max(data[at + HIGH], balance);
+                    data[at + LOW] = Math.min(data[at + LOW], balance);
+                    data[at + CLOSE] = balance;
+                    return;
+                }
+                // A bucket opens at the previous close, so gaps between buckets carry the balance over
+                long open = size > 0 ? data[slot(size - 1) + CLOSE] : balance;
+                long start = res.bucketStart(time);
+                nextStart = res.nextStart(start);
+                int capacity = data.length / FIELDS;
+                if (size == capacity && capacity < res.maxBuckets) {
+                    long[] grown = new long[Math.min(capacity * 2, res.maxBuckets) * FIELDS];
+                    for (int i = 0; i < size; i++) System.arraycopy(data, slot(i), grown, i * FIELDS, FIELDS);
+                    data = grown;
+                    head = 0;
+                } else if (size == capacity) {
+                    head = (head + 1) % capacity;
+                    size--;
+                    evicted = true;
+                }
+                int at = slot(size++);
+                data[at + START] = start;
+                data[at + OPEN] = open;
+                data[at + HIGH] = Math.max(open, balance);
+                data[at + LOW] = Math.min(open, balance);
+                data[at + CLOSE] = balance;
+            }
+        }
+    }
+
+    // Per-account transaction log in posting order, stored in fixed-size chunks. Appends are O(1);
+    // only the newest HOT_CHUNKS chunks stay on the heap, older ones are spilled to disk and read
+    // back on demand. Reads are newest first, either by iteration or by cursor paging.
+    static final class TransactionHistory implements Iterable<Transaction> {
+        static final int CHUNK = 512;
+        static final long NEWEST = Long.MAX_VALUE; // cursor for the first page
+        private static final int HOT_CHUNKS = 4;
+
+        private final HistorySpill spill = HistorySpill.shared();
+        // Built by the first search. One not searched since the history last spilled a chunk goes
+        // cold with it and is dropped, so only histories that are being searched keep an index.
+        private HistoryIndex index;
+        private boolean indexUsed;
+        private Transaction[][] chunks = new Transaction[4][];
+        private long[] spillOffsets = new long[4];
+        private int[] spillLengths = new int[4];
+        private long[] chunkStarts = new long[4]; // time of each chunk's first posting, for span()
+        private int spilledChunks;
+        private long size;
+        private long lastTime = Long.MIN_VALUE;
+        private boolean timeOrdered = true; // false once a posting predates its predecessor
+        // Last chunk read back from the spill; a table scrolling through old rows hits it repeatedly
+        private int coldIndex = -1;
+        private Transaction[] cold;
+
+        synchronized void append(Transaction t) {
+            int c = (int) (size / CHUNK), off = (int) (size % CHUNK);
+            if (off == 0) {
+                if (c == chunks.length) {
+                    chunks = Arrays.copyOf(chunks, c * 2);
+                    spillOffsets = Arrays.copyOf(spillOffsets, c * 2);
+                    spillLengths = Arrays.copyOf(spillLengths, c * 2);
+                    chunkStarts = Arrays.copyOf(chunkStarts, c * 2);
+                }
+                chunks[c] = new Transaction[CHUNK];
+                chunkStarts[c] = t.getDate().getTime();
+                if (spill != null && c - spilledChunks >= HOT_CHUNKS) spillChunk(spilledChunks);
+            }
+            chunks[c][off] = t;
+            size++;
+            long time = t.getDate().getTime();
+            if (time < lastTime) timeOrdered = false;
+            lastTime = time;
+            if (index != null) index.add(t);
+        }
+
+        public synchronized long size() { return size; }
+
+        // Random access by posting position (0 = oldest)
+        public synchronized Transaction get(long index) {
+            if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Transaction " + index + " of " + size);
+            return chunk((int) (index / CHUNK))[(int) (index % CHUNK)];
+        }
+
+        // Up to max transactions older than cursor, newest first. Cursors are positions in posting
+        // order, so a page stays stable while new transactions arrive.
+        public synchronized Page page(long cursor, int max) {
+            long i = Math.min(cursor, size);
+            List<Transaction> items = new ArrayList<>((int) Math.min(max, i));
+            while (i > 0 && items.size() < max) {
+                Transaction[] chunk = chunk((int) ((i - 1) / CHUNK));
+                for (int off = (int) ((i - 1) % CHUNK); off >= 0 && items.size() < max; off--, i--) {
+                    items.add(chunk[off]);
+                }
+            }
+            return new Page(items, i);
+        }
+
+        // Up to max transactions matching q that are older than cursor, newest first. Cursors work
+        // as in page(); only the returned rows are read back from the spill.
+        public synchronized Page search(HistoryQuery q, long cursor, int max) {
+            boolean[] more = new boolean[1];
+            int[] hits = index().search(q, (int) Math.min(cursor, Integer.MAX_VALUE), Math.max(1, max), more);
+            List<Transaction> items = new ArrayList<>(hits.length);
+            for (int pos : hits) items.add(chunk(pos / CHUNK)[pos % CHUNK]);
+            return new Page(items, more[0] ? hits[hits.length - 1] : 0);
+        }
+
+        // Positions [first, end) that can hold postings dated in [from, to): exact while postings
+        // are in time order, otherwise the whole history, so callers still check each date. Found by
+        // binary search over the chunk start times, so it reads at most the two boundary chunks.
+        synchronized long[] span(long from, long to) {
+            if (!timeOrdered) return new long[] { 0, size };
+            long first = firstAtOrAfter(from);
+            return new long[] { first, Math.max(first, firstAtOrAfter(to)) };
+        }
+
+        // The chunk holding position index, for callers walking the history without holding its
+        // lock: entries below the size seen by this call never change
+        synchronized Transaction[] chunkAt(long index) {
+            if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Transaction " + index + " of " + size);
+            return chunk((int) (index / CHUNK));
+        }
+
+        @Override public Iterator<Transaction> iterator() {
+            return new Iterator<Transaction>() {
+                private Page page = page(NEWEST, CHUNK);
+                private int next;
+
+                @Override public boolean hasNext() {
+                    if (next == page.getItems().size() && page.hasMore()) {
+                        page = page(page.getNextCursor(), CHUNK);
+                        next = 0;
+                    }
+                    return next < page.getItems().size();
+                }
+
+                @Override public Transaction next() {
+                    if (!hasNext()) throw new NoSuchElementException();
+                    return page.getItems().get(next++);
+                }
+            };
+        }
+
+        // Position of the first posting dated at or after time, given postings in time order
+        private long firstAtOrAfter(long time) {
+            int lo = 0, hi = (int) ((size + CHUNK - 1) / CHUNK);
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (chunkStarts[mid] < time) lo = mid + 1;
+                else hi = mid;
+            }
+            if (lo == 0) return 0;
+            // Chunk lo - 1 starts before time, and chunk lo (if any) starts at or after it
+            int c = lo - 1;
+            Transaction[] chunk = chunk(c);
+            int a = 1, b = (int) Math.min(CHUNK, size - (long) c * CHUNK);
+            while (a < b) {
+                int mid = (a + b) >>> 1;
+                if (chunk[mid].getDate().getTime() < time) a = mid + 1;
+                else b = mid;
+            }
+            return (long) c * CHUNK + a;
+        }
+
+        private HistoryIndex index() {
+            if (index == null) {
+                HistoryIndex built = new HistoryIndex();
+                for (long i = 0; i < size; i += CHUNK) {
+                    Transaction[] chunk = chunk((int) (i / CHUNK));
+                    int n = (int) Math.min(CHUNK, size - i);
+                    for (int off = 0; off < n; off++) built.add(chunk[off]);
+                }
+                index = built;
+            }
+            indexUsed = true;
+            return index;
+        }
+
+        private Transaction[] chunk(int c) {
+            Transaction[] chunk = chunks[c];
+            if (chunk != null) return chunk;
+            if (c == coldIndex) return cold;
+            try {
+                cold = spill.read(spillOffsets[c], spillLengths[c]);
+                coldIndex = c;
+                return cold;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void spillChunk(int c) {
+            if (!indexUsed) index = null;
+            indexUsed = false;
+            try {
+                spillLengths[c] = spill.write(chunks[c], spillOffsets, c);
+                chunks[c] = null;
+                spilledChunks++;
+            } catch (IOException ignored) {
+                // Disk trouble only costs memory: the chunk simply stays on the heap
+            }
+        }
+
+        static final class Page {
+            private final List<Transaction> items;
+            private final long nextCursor;
+
+            Page(List<Transaction> items, long nextCursor) {
+                this.items = items;
+                this.nextCursor = nextCursor;
+            }
+
+            public List<Transaction> getItems() { return items; }
+            public long getNextCursor() { return nextCursor; }
+            public boolean hasMore() { return nextCursor > 0; }
+        }
+    }
+
+    // Search structures over one TransactionHistory, built by its first search, then updated on
+    // every append and guarded by the history's lock. Everything is keyed by posting position and
+    // kept in primitive columns, so a query only reads spilled chunks for the rows it returns:
+    //   - an inverted index from lowercase type/description tokens to ascending position lists
+    //   - time and |amount| columns; postings arrive in time order, so a date range is a binary search
+    //   - positions sorted by |amount|, brought up to date by the first amount query after new postings
+    static final class HistoryIndex {
+        private final TreeMap<String, IntList> tokens = new TreeMap<>();
+        private final List<String> typeNames = new ArrayList<>();
+        private final Map<String, Integer> typeCodes = new HashMap<>();
+        private long[] times = new long[64];
+        private long[] amounts = new long[64];
+        private short[] types = new short[64];
+        private int size;
+        private boolean timeOrdered = true; // false once a posting predates its predecessor
+        private int[] byAmount = new int[0];
+        private final StringBuilder token = new StringBuilder();
+
+        void add(Transaction t) {
+            if (size == times.length) {
+                int grown = size * 2;
+                times = Arrays.copyOf(times, grown);
+                amounts = Arrays.copyOf(amounts, grown);
+                types = Arrays.copyOf(types, grown);
+            }
+            int pos = size++;
+            times[pos] = t.getDate().getTime();
+            if (pos > 0 && times[pos] < times[pos - 1]) timeOrdered = false;
+            amounts[pos] = Math.abs(t.getAmount());
+            types[pos] = typeCode(t.getType());
+            tokenize(t.getType(), pos);
+            tokenize(t.getDescription(), pos);
+        }
+
+        private short typeCode(String type) {
+            Integer code = typeCodes.get(type);
+            if (code == null) {
+                code = typeNames.size();
+                if (code > Short.MAX_VALUE) throw new IllegalStateException("Too many transaction types");
+                typeNames.add(type);
+                typeCodes.put(type, code);
+            }
+            return (short) (int) code;
+        }
+
+        private void tokenize(String text, int pos) {
+            if (text == null) return;
+            for (int i = 0, n = text.length(); i <= n; i++) {
+                char c = i < n ? text.charAt(i) : ' ';
+                if (Character.isLetterOrDigit(c)) {
+                    token.append(Character.toLowerCase(c));
+                } else if (token.length() > 0) {
+                    String key = token.toString();
+                    token.setLength(0);
+                    IntList list = tokens.get(key);
+                    if (list == null) tokens.put(key, list = new IntList());
+                    if (list.size == 0 || list.last() != pos) list.add(pos);
+                }
+            }
+        }
+
+        // Positions matching q that are below cursor, newest first; more[0] tells whether any remain
+        int[] search(HistoryQuery q, int cursor, int max, boolean[] more) {
+            boolean[] typeMask = typeMask(q.getType());
+            int lo = 0, hi = Math.min(cursor, size);
+            if (timeOrdered) {
+                lo = lowerBound(times, lo, hi, q.getFrom());
+                hi = lowerBound(times, lo, hi, q.getTo());
+            }
+            int[] out = new int[Math.max(0, Math.min(max, hi - lo)) + 1];
+            int found = 0;
+
+            String[] terms = q.getTerms();
+            if (terms.length > 0) {
+                int[][] lists = new int[terms.length][];
+                int[] lengths = new int[terms.length];
+                int driver = 0;
+                for (int i = 0; i < terms.length; i++) {
+                    IntList postings = postings(terms[i]);
+                    if (postings == null) return done(out, 0, max, more);
+                    lists[i] = postings.items;
+                    lengths[i] = postings.size;
+                    if (lengths[i] < lengths[driver]) driver = i;
+                }
+                int k = lowerBound(lists[driver], lengths[driver], hi) - 1;
+                for (; k >= 0 && found < out.length; k--) {
+                    int pos = lists[driver][k];
+                    if (pos < lo) break;
+                    if (!matches(pos, q, typeMask)) continue;
+                    boolean all = true;
+                    for (int i = 0; i < lists.length && all; i++) {
+                        all = i == driver || Arrays.binarySearch(lists[i], 0, lengths[i], pos) >= 0;
+                    }
+                    if (all) out[found++] = pos;
+                }
+            } else if (q.getMinAmount() > 0 || q.getMaxAmount() < Long.MAX_VALUE) {
+                refreshAmountIndex();
+                int a = amountBound(q.getMinAmount());
+                int b = q.getMaxAmount() == Long.MAX_VALUE ? byAmount.length : amountBound(q.getMaxAmount() + 1);
+                if (b - a < (hi - lo) / 8) {
+                    // Selective amount range: collect its positions instead of scanning the whole span
+                    int[] hits = new int[b - a];
+                    int n = 0;
+                    for (int i = a; i < b; i++) {
+                        int pos = byAmount[i];
+                        if (pos >= lo && pos < hi) hits[n++] = pos;
+                    }
+                    Arrays.sort(hits, 0, n);
+                    for (int i = n - 1; i >= 0 && found < out.length; i--) {
+                        if (matches(hits[i], q, typeMask)) out[found++] = hits[i];
+                    }
+                    return done(out, found, max, more);
+                }
+                found = scan(q, typeMask, lo, hi, out);
+            } else {
+                found = scan(q, typeMask, lo, hi, out);
+            }
+            return done(out, found, max, more);
+        }
+
+        private int scan(HistoryQuery q, boolean[] typeMask, int lo, int hi, int[] out) {
+            int found = 0;
+            for (int pos = hi - 1; pos >= lo && found < out.length; pos--) {
+                if (matches(pos, q, typeMask)) out[found++] = pos;
+            }
+            return found;
+        }
+
+        // out holds up to max + 1 hits; the extra one only says there is another page
+        private static int[] done(int[] out, int found, int max, boolean[] more) {
+            more[0] = found > max;
+            return Arrays.copyOf(out, Math.min(found, max));
+        }
+
+        private boolean matches(int pos, HistoryQuery q, boolean[] typeMask) {
+            return (typeMask == null || typeMask[types[pos]])
+                && amounts[pos] >= q.getMinAmount() && amounts[pos] <= q.getMaxAmount()
+                && times[pos] >= q.getFrom() && times[pos] < q.getTo();
+        }
+
+        // Type names starting with the query's type (case-insensitive); null when unrestricted
+        private boolean[] typeMask(String type) {
+            if (type == null) return null;
+            String prefix = type.toLowerCase(Locale.ROOT);
+            boolean[] mask = new boolean[typeNames.size()];
+            for (int i = 0; i < mask.length; i++) mask[i] = typeNames.get(i).toLowerCase(Locale.ROOT).startsWith(prefix);
+            return mask;
+        }
+
+        // Every token starting with term, merged into one ascending list; null if there are none
+        private IntList postings(String term) {
+            SortedMap<String, IntList> hits = tokens.subMap(term, term + Character.MAX_VALUE);
+            if (hits.size() <= 1) return hits.isEmpty() ? null : hits.values().iterator().next();
+            IntList merged = new IntList();
+            for (IntList l : hits.values()) merged.addAll(l);
+            Arrays.sort(merged.items, 0, merged.size);
+            return merged.dedupe();
+        }
+
+        // Sorts the positions appended since the last amount query and merges them in
+        private void refreshAmountIndex() {
+            int indexed = byAmount.length;
+            if (indexed == size) return;
+            int[] fresh = new int[size - indexed];
+            for (int i = 0; i < fresh.length; i++) fresh[i] = indexed + i;
+            sortByAmount(fresh, new int[fresh.length], 0, fresh.length);
+            int[] merged = new int[size];
+            int i = 0, j = 0, k = 0;
+            while (i < indexed && j < fresh.length) {
+                merged[k++] = amounts[fresh[j]] < amounts[byAmount[i]] ? fresh[j++] : byAmount[i++];
+            }
+            while (i < indexed) merged[k++] = byAmount[i++];
+            while (j < fresh.length) merged[k++] = fresh[j++];
+            byAmount = merged;
+        }
+
+        // Stable merge sort of positions by amount; positions stay ascending within equal amounts
+        private void sortByAmount(int[] a, int[] tmp, int from, int to) {
+            if (to - from < 2) return;
+            int mid = (from + to) >>> 1;
+            sortByAmount(a, tmp, from, mid);
+            sortByAmount(a, tmp, mid, to);
+            if (amounts[a[mid - 1]] <= amounts[a[mid]]) return;
+            System.arraycopy(a, from, tmp, from, to - from);
+            for (int i = from, j = mid, k = from; k < to; k++) {
+                a[k] = j >= to || (i < mid && amounts[tmp[i]] <= amounts[tmp[j]]) ? tmp[i++] : tmp[j++];
+            }
+        }
+
+        // First index in byAmount whose amount is >= amount
+        private int amountBound(long amount) {
+            int lo = 0, hi = byAmount.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (amounts[byAmount[mid]] < amount) lo = mid + 1; else hi = mid;
+            }
+            return lo;
+        }
+
+        private static int lowerBound(long[] a, int lo, int hi, long key) {
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (a[mid] < key) lo = mid + 1; else hi = mid;
+            }
+            return lo;
+        }
+
+        private static int lowerBound(int[] a, int n, int key) {
+            int lo = 0, hi = n;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (a[mid] < key) lo = mid + 1; else hi = mid;
+            }
+            return lo;
+        }
+
+        // Growable int[]; postings lists stay ascending because positions only ever grow
+        private static final class IntList {
+            int[] items = new int[4];
+            int size;
+
+            void add(int v) {
+                if (size == items.length) items = Arrays.copyOf(items, size * 2);
+                items[size++] = v;
+            }
+
+            void addAll(IntList other) {
+                if (size + other.size > items.length) items = Arrays.copyOf(items, Math.max(size + other.size, size * 2));
+                System.arraycopy(other.items, 0, items, size, other.size);
+                size += other.size;
+            }
+
+            int last() { return items[size - 1]; }
+
+            IntList dedupe() {
+                int n = 0;
+                for (int i = 0; i < size; i++) if (n == 0 || items[n - 1] != items[i]) items[n++] = items[i];
+                size = n;
+                return this;
+            }
+        }
+    }
+
+    // Filters for TransactionHistory.search; all of them must hold. Terms match the start of any
+    // word in the type or description, amounts compare against |amount| in paisa, and the time
+    // range is [from, to) in epoch millis.
+    static final class HistoryQuery {
+        private String[] terms = new String[0];
+        private String type;
+        private long minAmount = 0, maxAmount = Long.MAX_VALUE;
+        private long from = Long.MIN_VALUE, to = Long.MAX_VALUE;
+
+        // Search bar syntax: free words plus optional type:, min:, max: (BDT), from: and to: (yyyy-MM-dd,
+        // both days included), e.g. "rahim type:transfer min:500 from:2026-01-01". Quote values with spaces.
+        static HistoryQuery parse(String text) {
+            HistoryQuery q = new HistoryQuery();
+            List<String> words = new ArrayList<>();
+            for (String part : splitQuoted(text)) {
+                int colon = part.indexOf(':');
+                String key = colon > 0 ? part.substring(0, colon).toLowerCase(Locale.ROOT) : "";
+                String value = colon > 0 ? part.substring(colon + 1) : part;
+                try {
+                    switch (key) {
+                        case "type": q.type(value); break;
+                        case "min": q.minAmount(Money.parse(value)); break;
+                        case "max": q.maxAmount(Money.parse(value)); break;
+                        case "from": q.from(startOfDay(LocalDate.parse(value))); break;
+                        case "to": q.to(startOfDay(LocalDate.parse(value).plusDays(1))); break;
+                        default: words.add(part);
+                    }
+                } catch (ArithmeticException | java.time.DateTimeException e) {
+                    throw new IllegalArgumentException("Invalid " + key + ": " + value);
+                }
+            }
+            return q.text(String.join(" ", words));
+        }
+
+        static long startOfDay(LocalDate day) {
+            return day.atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        }
+
+        private static List<String> splitQuoted(String text) {
+            List<String> parts = new ArrayList<>();
+            StringBuilder cur = new StringBuilder();
+            boolean quoted = false;
+            for (char c : text.trim().toCharArray()) {
+                if (c == '"') quoted = !quoted;
+                else if (Character.isWhitespace(c) && !quoted) {
+                    if (cur.length() > 0) parts.add(cur.toString());
+                    cur.setLength(0);
+                } else cur.append(c);
+            }
+            if (cur.length() > 0) parts.add(cur.toString());
+            return parts;
+        }
+
+        // Splits the same way descriptions are indexed, so "To: Rahim" becomes [to, rahim]
+        HistoryQuery text(String text) {
+            List<String> out = new ArrayList<>();
+            for (String w : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{Nd}]+")) if (!w.isEmpty()) out.add(w);
+            terms = out.toArray(new String[0]);
+            return this;
+        }
+
+        HistoryQuery type(String type) { this.type = type == null || type.isEmpty() ? null : type; return this; }
+        HistoryQuery minAmount(long paisa) { this.minAmount = paisa; return this; }
+        HistoryQuery maxAmount(long paisa) { this.maxAmount = paisa; return this; }
+        HistoryQuery from(long millis) { this.from = millis; return this; }
+        HistoryQuery to(long millis) { this.to = millis; return this; }
+
+        String[] getTerms() { return terms; }
+        String getType() { return type; }
+        long getMinAmount() { return minAmount; }
+        long getMaxAmount() { return maxAmount; }
+        long getFrom() { return from; }
+        long getTo() { return to; }
+    }
+
+    // Writes an account statement for [from, to) straight to a channel, oldest first. Rows are
+    // encoded into one reused 64 KB direct buffer and the history is walked a chunk at a time
+    // (spilled chunks are read back one by one), so heap use stays flat however long the statement.
+    //   CSV:    id,date,type,amount,description; amounts in BDT ("-1250.50"), dates ISO-8601 UTC
+    //   NDJSON: one {"id","date","type","amount","description"} object per line; amounts in paisa,
+    //           dates in epoch millis, as the API returns them
+    static final class StatementExport {
+        enum Format {
+            CSV("csv"), NDJSON("ndjson");
+
+            final String extension;
+
+            Format(String extension) { this.extension = extension; }
+        }
+
+        // Called on the exporting thread after every chunk of rows
+        interface Progress {
+            void update(long scanned, long total);
+
+            default boolean cancelled() { return false; }
+        }
+
+        private static final int BUFFER = 64 * 1024;
+
+        private StatementExport() {}
+
+        // Exports into a temp file beside target and moves it into place, so a failed or cancelled
+        // export never leaves half a statement behind. Returns the number of transactions written.
+        static long export(User u, long from, long to, Format format, Path target, Progress progress) throws IOException {
+            Path tmp = Files.createTempFile(target.toAbsolutePath().getParent(), ".statement", ".tmp");
+            try {
+                long rows;
+                try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                    rows = export(u, from, to, format, out, progress);
+                }
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                return rows;
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        }
+
+        static long export(User u, long from, long to, Format format, WritableByteChannel out, Progress progress) throws IOException {
+            TransactionHistory history = u.getTransactions();
+            ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER);
+            CharsetEncoder utf8 = StandardCharsets.UTF_8.newEncoder();
+            StringBuilder line = new StringBuilder(256);
+            if (format == Format.CSV) write(line.append("id,date,type,amount,description\n"), utf8, buf, out);
+
+            long[] span = history.span(from, to);
+            long rows = 0;
+            for (long pos = span[0]; pos < span[1]; ) {
+                if (progress.cancelled() || Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException("Statement export cancelled");
+                }
+                Transaction[] chunk = history.chunkAt(pos);
+                int off = (int) (pos % TransactionHistory.CHUNK);
+                int end = (int) Math.min(TransactionHistory.CHUNK, off + span[1] - pos);
+                for (int i = off; i < end; i++) {
+                    Transaction t = chunk[i];
+                    long time = t.getDate().getTime();
+                    if (time < from || time >= to) continue;
+                    line.setLength(0);
+                    if (format == Format.CSV) csvRow(t, time, line);
+                    else line.append(new LedgerApiServer.Json().field("id", t.getId()).field("date", time)
+                        .field("type", t.getType()).field("amount", t.getAmount())
+                        .field("description", t.getDescription()).end()).append('\n');
+                    write(line, utf8, buf, out);
+                    rows++;
+                }
+                pos += end - off;
+                progress.update(pos - span[0], span[1] - span[0]);
+            }
+            utf8.encode(CharBuffer.allocate(0), buf, true);
+            utf8.flush(buf);
+            drain(buf, out);
+            return rows;
+        }
+
+        private static void csvRow(Transaction t, long time, StringBuilder line) {
+            line.append(t.getId()).append(',');
+            DateTimeFormatter.ISO_INSTANT.formatTo(Instant.ofEpochMilli(time), line);
+            line.append(',');
+            csvField(t.getType(), line);
+            line.append(',');
+            long amount = t.getAmount(), abs = Math.abs(amount);
+            if (amount < 0) line.append('-');
+            line.append(abs / 100).append('.').append((char) ('0' + abs % 100 / 10)).append((char) ('0' + abs % 10));
+            line.append(',');
+            csvField(t.getDescription(), line);
+            line.append('\n');
+        }
+
+        // RFC 4180 quoting, only when the value needs it
+        private static void csvField(String value, StringBuilder line) {
+            if (value == null) return;
+            boolean quote = false;
+            for (int i = 0; i < value.length() && !quote; i++) {
+                char c = value.charAt(i);
+                quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+            }
+            if (!quote) {
+                line.append(value);
+                return;
+            }
+            line.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"') line.append('"');
+                line.append(c);
+            }
+            line.append('"');
+        }
+
+        private static void write(CharSequence line, CharsetEncoder utf8, ByteBuffer buf, WritableByteChannel out) throws IOException {
+            CharBuffer chars = CharBuffer.wrap(line);
+            while (utf8.encode(chars, buf, false).isOverflow()) drain(buf, out);
+        }
+
+        private static void drain(ByteBuffer buf, WritableByteChannel out) throws IOException {
+            buf.flip();
+            while (buf.hasRemaining()) out.write(buf);
+            buf.clear();
+        }
+    }
+
+    // Scratch file shared by every TransactionHistory for its cold chunks. It is only a cache of
+    // the journal/snapshot, so it lives in the temp directory and is deleted on close.
+    static final class HistorySpill {
+        private final FileChannel channel;
+        private long end;
+        private ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+
+        private HistorySpill(FileChannel channel) { this.channel = channel; }
+
+        private static final class Holder {
+            static final HistorySpill INSTANCE = open();
+
+            private static HistorySpill open() {
+                try {
+                    Path path = Files.createTempFile("osryn-history", ".spill");
+                    return new HistorySpill(FileChannel.open(path, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE));
+                } catch (IOException | SecurityException e) {
+                    return null; // histories stay on the heap
+                }
+            }
+        }
+
+        // Null if no spill file could be created
+        static HistorySpill shared() { return Holder.INSTANCE; }
+
+        // Stores the chunk's offset in offsets[index] and returns its encoded length
+        synchronized int write(Transaction[] chunk, long[] offsets, int index) throws IOException {
+            buf.clear();
+            for (Transaction t : chunk) {
+                byte[] type = utf8(t.getType()), desc = utf8(t.getDescription());
+                ensure(32 + type.length + desc.length);
+                buf.putLong(t.getIdValue());
+                putBytes(type);
+                buf.putLong(t.getAmount());
+                putBytes(desc);
+                buf.putLong(t.getDate().getTime());
+            }
+            buf.flip();
+            int len = buf.remaining();
+            long at = end;
+            while (buf.hasRemaining()) channel.write(buf, at + buf.position());
+            end += len;
+            offsets[index] = at;
+            return len;
+        }
+
+        Transaction[] read(long offset, int length) throws IOException {
+            ByteBuffer in = ByteBuffer.allocate(length);
+            while (in.hasRemaining()) {
+                if (channel.read(in, offset + in.position()) < 0) throw new IOException("History spill truncated");
+            }
+            in.flip();
+            Transaction[] chunk = new Transaction[TransactionHistory.CHUNK];
+            for (int i = 0; i < chunk.length; i++) {
+                long id = in.getLong();
+                String type = getString(in).intern();
+                long amount = in.getLong();
+                chunk[i] = new Transaction(id, type, amount, getString(in), new Date(in.getLong()));
+            }
+            return chunk;
+        }
+
+        private void ensure(int n) {
+            if (buf.remaining() < n) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(buf.capacity() * 2, buf.position() + n));
+                buf.flip();
+                grown.put(buf);
+                buf = grown;
+            }
+        }
+
+        private void putBytes(byte[] b) {
+            buf.putInt(b.length);
+            buf.put(b);
+        }
+
+        private static byte[] utf8(String s) {
+            return (s == null ? "" : s).getBytes(StandardCharsets.UTF_8);
+        }
+
+        private static String getString(ByteBuffer b) {
+            int n = b.getInt();
+            String s = new String(b.array(), b.position(), n, StandardCharsets.UTF_8);
+            b.position(b.position() + n);
+            return s;
+        }
+    }
+
+    // Amounts are held as long paisa (1/100 BDT); exact, and no boxing on the hot path
+    static final class Money {
+        private Money() {}
+
+        static long add(long a, long b) { return Math.addExact(a, b); }
+        static long subtract(long a, long b) { return Math.subtractExact(a, b); }
+
+        // Parses user input such as "1,250.5" into paisa; rejects zero, negatives and sub-paisa digits
+        static long parse(String text) {
+            long paisa = new BigDecimal(text.trim().replace(",", "")).movePointRight(2).longValueExact();
+            if (paisa <= 0) throw new NumberFormatException("Amount must be positive");
+            return paisa;
+        }
+
+        static BigDecimal toDecimal(long paisa) { return BigDecimal.valueOf(paisa, 2); }
+    }
+
+    // Immutable, thread-safe replacement for a per-call DecimalFormat: digits are written right to
+    // left into a per-thread char buffer, so a call costs one String (or nothing, with formatTo).
+    // BDT keeps the app's "৳1,250.50" look; forLocale derives separators, grouping (including
+    // lakh-style 1,00,000) and symbol placement from the JDK's currency pattern for that locale.
+    static final class MoneyFormat {
+        static final MoneyFormat BDT = new MoneyFormat("৳", true, ',', '.', 3, 3);
+
+        private static final ConcurrentMap<String, MoneyFormat> BY_LOCALE = new ConcurrentHashMap<>();
+        private static final ThreadLocal<char[]> BUFFER = ThreadLocal.withInitial(() -> new char[64]);
+
+        private final String symbol;
+        private final boolean symbolFirst;
+        private final char grouping, decimal;
+        private final int primaryGroup, secondaryGroup;
+
+        MoneyFormat(String symbol, boolean symbolFirst, char grouping, char decimal, int primaryGroup, int secondaryGroup) {
+            this.symbol = symbol;
+            this.symbolFirst = symbolFirst;
+            this.grouping = grouping;
+            this.decimal = decimal;
+            this.primaryGroup = primaryGroup;
+            this.secondaryGroup = secondaryGroup;
+        }
+
+        static MoneyFormat forLocale(Locale locale, Currency currency) {
+            return BY_LOCALE.computeIfAbsent(locale.toLanguageTag() + "/" + currency.getCurrencyCode(), k -> {
+                DecimalFormat pattern = (DecimalFormat) NumberFormat.getCurrencyInstance(locale);
+                DecimalFormatSymbols symbols = pattern.getDecimalFormatSymbols();
+                String p = pattern.toPattern();
+                int semicolon = p.indexOf(';');
+                if (semicolon >= 0) p = p.substring(0, semicolon);
+                // Group sizes come from the commas in the integer part, e.g. "#,##,##0.00" -> 3 then 2
+                int point = p.indexOf('.') < 0 ? p.length() : p.indexOf('.');
+                int last = p.lastIndexOf(',', point), previous = last < 0 ? -1 : p.lastIndexOf(',', last - 1);
+                int primary = last < 0 ? Integer.MAX_VALUE : digitsBetween(p, last + 1, point);
+                int secondary = previous < 0 ? primary : digitsBetween(p, previous + 1, last);
+                // Keep whatever space (often a no-break space) the pattern puts between symbol and digits
+                int at = Math.max(0, p.indexOf('\u00A4'));
+                boolean first = at < point;
+                String symbol = currency.getSymbol(locale);
+                if (first && at + 1 < p.length() && Character.isSpaceChar(p.charAt(at + 1))) symbol += p.charAt(at + 1);
+                if (!first && at > 0 && Character.isSpaceChar(p.charAt(at - 1))) symbol = p.charAt(at - 1) + symbol;
+                return new MoneyFormat(symbol, first, symbols.getMonetaryGroupingSeparator(),
+                                       symbols.getMonetaryDecimalSeparator(), primary, secondary);
+            });
+        }
+
+        private static int digitsBetween(String pattern, int from, int to) {
+            int n = 0;
+            for (int i = from; i < to; i++) if (pattern.charAt(i) == '#' || pattern.charAt(i) == '0') n++;
+            return n;
+        }
+
+        String format(long paisa) {
+            char[] buf = BUFFER.get();
+            int start = fill(paisa, buf);
+            return new String(buf, start, buf.length - start);
+        }
+
+        // Appends without creating an intermediate String
+        StringBuilder formatTo(long paisa, StringBuilder out) {
+            char[] buf = BUFFER.get();
+            int start = fill(paisa, buf);
+            return out.append(buf, start, buf.length - start);
+        }
+
+        // Writes right-aligned into buf and returns the start index. Works on the non-positive
+        // magnitude so Long.MIN_VALUE needs no special case.
+        private int fill(long paisa, char[] buf) {
+            int pos = buf.length;
+            if (!symbolFirst) pos = put(symbol, buf, pos);
+            long v = paisa > 0 ? -paisa : paisa;
+            buf[--pos] = (char) ('0' - v % 10);
+            v /= 10;
+            buf[--pos] = (char) ('0' - v % 10);
+            v /= 10;
+            buf[--pos] = decimal;
+            int group = primaryGroup, inGroup = 0;
+            do {
+                if (inGroup == group) {
+                    buf[--pos] = grouping;
+                    inGroup = 0;
+                    group = secondaryGroup;
+                }
+                buf[--pos] = (char) ('0' - v % 10);
+                v /= 10;
+                inGroup++;
+            } while (v != 0);
+            if (paisa < 0) buf[--pos] = '-';
+            if (symbolFirst) pos = put(symbol, buf, pos);
+            return pos;
+        }
+
+        private static int put(String s, char[] buf, int pos) {
+            pos -= s.length();
+            s.getChars(0, s.length(), buf, pos);
+            return pos;
+        }
+    }
+
+    // Account numbers and transaction ids. Account numbers are 8 random digits plus a Luhn check
+    // digit; uniqueness is enforced by BankService when the number is claimed. Transaction ids are
+    // longs: [milliseconds since 2024-01-01 : 43][sequence : 20]. Each thread leases a small block
+    // of ids from one shared counter and hands them out without further coordination, so ids are
+    // unique, monotonic per thread and roughly time-ordered across threads. They are only turned
+    // into text (13 Crockford base32 characters, sortable) when something displays or stores them.
+    static final class IdService {
+        private static final long EPOCH = 1704067200000L; // 2024-01-01T00:00:00Z
+        private static final int SEQUENCE_BITS = 20, BLOCK = 64;
+        // Pre-2024 ids were 8 hex digits from a UUID; they keep their text form under this flag
+        private static final long LEGACY = Long.MIN_VALUE;
+        private static final char[] BASE32 = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+
+        private static final AtomicLong nextBlock = new AtomicLong();
+        // {next id, end of block}
+        private static final ThreadLocal<long[]> lease = ThreadLocal.withInitial(() -> new long[2]);
+
+        private IdService() {}
+
+        static long nextTransactionId() {
+            long[] block = lease.get();
+            if (block[0] == block[1]) {
+                long floor = (System.currentTimeMillis() - EPOCH) << SEQUENCE_BITS, cur, start;
+                do {
+                    cur = nextBlock.get();
+                    start = Math.max(cur, floor);
+                } while (!nextBlock.compareAndSet(cur, start + BLOCK));
+                block[0] = start;
+                block[1] = start + BLOCK;
+            }
+            return block[0]++;
+        }
+
+        static long timestampOf(long id) {
+            return id < 0 ? 0 : (id >>> SEQUENCE_BITS) + EPOCH;
+        }
+
+        static String encodeTransactionId(long id) {
+            if (id < 0) {
+                String hex = Long.toHexString(id & 0xFFFFFFFFL).toUpperCase(Locale.ROOT);
+                return "00000000".substring(hex.length()) + hex;
+            }
+            char[] out = new char[13];
+            for (int i = 12; i >= 0; i--, id >>>= 5) out[i] = BASE32[(int) (id & 31)];
+            return new String(out);
+        }
+
+        static long decodeTransactionId(String text) {
+            if (text.length() == 8) return LEGACY | Long.parseLong(text, 16);
+            if (text.length() != 13) throw new IllegalArgumentException("Bad transaction id: " + text);
+            long id = 0;
+            for (int i = 0; i < 13; i++) {
+                int v = Arrays.binarySearch(BASE32, Character.toUpperCase(text.charAt(i)));
+                if (v < 0) throw new IllegalArgumentException("Bad transaction id: " + text);
+                id = (id << 5) | v;
+            }
+            return id;
+        }
+
+        static String nextAccountNumber() {
+            char[] digits = new char[9];
+            int body = ThreadLocalRandom.current().nextInt(100_000_000);
+            for (int i = 7; i >= 0; i--, body /= 10) digits[i] = (char) ('0' + body % 10);
+            digits[8] = (char) ('0' + luhnCheckDigit(digits, 8));
+            return new String(digits);
+        }
+
+        // Catches single-digit typos and most transpositions; accounts opened before check digits won't pass
+        static boolean isValidAccountNumber(String number) {
+            if (number == null || number.length() != 9) return false;
+            char[] digits = number.toCharArray();
+            for (char c : digits) if (c < '0' || c > '9') return false;
+            return luhnCheckDigit(digits, 8) == digits[8] - '0';
+        }
+
+        private static int luhnCheckDigit(char[] digits, int length) {
+            int sum = 0;
+            for (int i = length - 1, pos = 0; i >= 0; i--, pos++) {
+                int d = digits[i] - '0';
+                if (pos % 2 == 0) {
+                    d *= 2;
+                    if (d > 9) d -= 9;
+                }
+                sum += d;
+            }
+            return (10 - sum % 10) % 10;
+        }
+    }
+
+    // Credentials are stored as "pbkdf2-sha256$<iterations>$<salt>$<hash>" (Base64). PBKDF2 is slow on
+    // purpose, so every derivation runs on a small bounded pool: a burst of logins queues (or is
+    // refused once the queue fills) instead of taking every core away from postings. A successful
+    // verification is remembered briefly as an HMAC under a per-process key, so repeat logins skip
+    // the derivation; failed attempts are never cached and always pay the full cost, including
+    // logins for usernames that don't exist.
+    static final class PasswordHasher {
+        private static final String PREFIX = "pbkdf2-sha256$";
+        private static final int SALT_BYTES = 16, HASH_BITS = 256, CACHE_LIMIT = 10_000;
+
+        private final int iterations;
+        private final long cacheTtlNanos;
+        private final ThreadPoolExecutor pool;
+        private final SecureRandom random = new SecureRandom();
+        private final SecretKeySpec cacheKey;
+        // Checked in place of a stored hash when the username doesn't exist, so that login costs
+        // the same derivation as a wrong password. Its hash bytes are random, so nothing matches it.
+        private final String absent;
+        // Least recently verified accounts fall out first, so a full cache never forces a burst of
+        // re-hashing. Guarded by its own monitor.
+        private final Map<String, Verified> verified = new LinkedHashMap<String, Verified>(256, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(Map.Entry<String, Verified> eldest) {
+                return size() > CACHE_LIMIT;
+            }
+        };
+        private final ThreadLocal<Mac> macs;
+        private final LongAdder hashes = new LongAdder(), hashNanos = new LongAdder();
+        private final LongAdder cacheHits = new LongAdder(), rejected = new LongAdder();
+        private final AtomicLong maxHashNanos = new AtomicLong();
+
+        private static final class Holder {
+            static final PasswordHasher INSTANCE = new PasswordHasher(
+                Integer.getInteger("osryn.pbkdf2Iterations", 210_000),
+                Integer.getInteger("osryn.hashThreads", Math.max(1, Runtime.getRuntime().availableProcessors() / 2)),
+                Integer.getInteger("osryn.hashQueue", 512),
+                Long.getLong("osryn.credentialCacheSeconds", 300));
+        }
+
+        static PasswordHasher shared() { return Holder.INSTANCE; }
+
+        PasswordHasher(int iterations, int threads, int queue, long cacheTtlSeconds) {
+            this.iterations = iterations;
+            this.cacheTtlNanos = TimeUnit.SECONDS.toNanos(cacheTtlSeconds);
+            this.pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queue), r -> {
+                    Thread t = new Thread(r, "password-hasher");
+                    t.setDaemon(true);
+                    return t;
+                });
+            byte[] key = new byte[32];
+            random.nextBytes(key);
+            this.cacheKey = new SecretKeySpec(key, "HmacSHA256");
+            byte[] salt = new byte[SALT_BYTES], hash = new byte[HASH_BITS / 8];
+            random.nextBytes(salt);
+            random.nextBytes(hash);
+            this.absent = encode(iterations, salt, hash);
+            this.macs = ThreadLocal.withInitial(() -> {
+                try {
+                    Mac mac = Mac.getInstance("HmacSHA256");
+                    mac.init(cacheKey);
+                    return mac;
+                } catch (GeneralSecurityException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+        }
+
+        private static final class Verified {
+            final String encoded;
+            final byte[] digest;
+            final long expiresAt;
+
+            Verified(String encoded, byte[] digest, long expiresAt) {
+                this.encoded = encoded;
+                this.digest = digest;
+                this.expiresAt = expiresAt;
+            }
+        }
+
+        String hash(String password) {
+            byte[] salt = new byte[SALT_BYTES];
+            random.nextBytes(salt);
+            return encode(iterations, salt, derive(password, salt, iterations));
+        }
+
+        private static String encode(int rounds, byte[] salt, byte[] hash) {
+            Base64.Encoder b64 = Base64.getEncoder().withoutPadding();
+            return PREFIX + rounds + "$" + b64.encodeToString(salt) + "$" + b64.encodeToString(hash);
+        }
+
+        boolean verify(String accountId, String password, String encoded) {
+            if (password == null || encoded == null) return false;
+            byte[] digest = macs.get().doFinal(password.getBytes(StandardCharsets.UTF_8));
+            Verified v;
+            synchronized (verified) { v = verified.get(accountId); }
+            if (v != null && v.encoded.equals(encoded) && System.nanoTime() - v.expiresAt < 0
+                    && MessageDigest.isEqual(v.digest, digest)) {
+                cacheHits.increment();
+                return true;
+            }
+            if (!matches(password, encoded)) return false;
+            if (cacheTtlNanos > 0) {
+                Verified fresh = new Verified(encoded, digest, System.nanoTime() + cacheTtlNanos);
+                synchronized (verified) { verified.put(accountId, fresh); }
+            }
+            return true;
+        }
+
+        // A login for a username that doesn't exist: always fails, after a full derivation
+        void verifyAbsent(String password) {
+            if (password != null) matches(password, absent);
+        }
+
+        void forget(String accountId) {
+            synchronized (verified) { verified.remove(accountId); }
+        }
+
+        boolean needsRehash(String encoded) {
+            return !encoded.startsWith(PREFIX) || iterationsOf(encoded) != iterations;
+        }
+
+        // A stored hash that doesn't parse simply fails to verify
+        private boolean matches(String password, String encoded) {
+            // Journals written before hashing hold plaintext; still compare in constant time
+            if (!encoded.startsWith(PREFIX)) {
+                return MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8), encoded.getBytes(StandardCharsets.UTF_8));
+            }
+            String[] parts = encoded.substring(PREFIX.length()).split("\\$");
+            if (parts.length != 3) return false;
+            int rounds;
+            byte[] salt, expected;
+            try {
+                rounds = Integer.parseInt(parts[0]);
+                Base64.Decoder b64 = Base64.getDecoder();
+                salt = b64.decode(parts[1]);
+                expected = b64.decode(parts[2]);
+            } catch (IllegalArgumentException malformed) { // NumberFormatException included
+                return false;
+            }
+            if (rounds <= 0 || salt.length == 0 || expected.length == 0) return false;
+            return MessageDigest.isEqual(expected, derive(password, salt, rounds));
+        }
+
+        // -1 when the stored hash is malformed, which needsRehash then treats as out of date
+        private static int iterationsOf(String encoded) {
+            int start = PREFIX.length(), end = encoded.indexOf('$', start);
+            if (end < 0) return -1;
+            try {
+                return Integer.parseInt(encoded.substring(start, end));
+            } catch (NumberFormatException malformed) {
+                return -1;
+            }
+        }
+
+        // Runs the derivation on the hashing pool and waits; throws RejectedExecutionException when saturated
+        private byte[] derive(String password, byte[] salt, int rounds) {
+            Callable<byte[]> task = () -> {
+                long start = System.nanoTime();
+                PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, rounds, HASH_BITS);
+                try {
+                    return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+                } finally {
+                    spec.clearPassword();
+                    long took = System.nanoTime() - start;
+                    hashes.increment();
+                    hashNanos.add(took);
+                    maxHashNanos.accumulateAndGet(took, Math::max);
+                }
+            };
+            Future<byte[]> result;
+            try {
+                result = pool.submit(task);
+            } catch (RejectedExecutionException e) {
+                rejected.increment();
+                throw e;
+            }
+            try {
+                return result.get();
+            } catch (InterruptedException e) {
+                result.cancel(true);
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while hashing", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+
+        int getIterations() { return iterations; }
+        long getHashCount() { return hashes.sum(); }
+        long getCacheHits() { return cacheHits.sum(); }
+        long getRejected() { return rejected.sum(); }
+        double getMeanHashMillis() { long n = hashes.sum(); return n == 0 ? 0 : hashNanos.sum() / 1e6 / n; }
+        double getMaxHashMillis() { return maxHashNanos.get() / 1e6; }
+    }
+
+    // Per-operation outcome counters and latency histograms for BankService. Recording is one
+    // LongAdder increment plus a histogram update on preallocated arrays: no locks, no allocation.
+    // Readable as a text report, over JMX (bank.osryn:type=LedgerMetrics) and in the admin view.
+    static final class LedgerMetrics implements LedgerMetricsMXBean {
+        enum Operation { AUTHENTICATE, CREATE_ACCOUNT, DEPOSIT, WITHDRAW, TRANSFER, PAY_BILL, CHANGE_PASSWORD, POST_BATCH, ACCRUE_INTEREST }
+
+        enum Outcome { OK, INSUFFICIENT_FUNDS, UNKNOWN_ACCOUNT, INVALID_CREDENTIALS, USERNAME_TAKEN, REJECTED, PARTIAL,
+                       RISK_BLOCKED, HELD_FOR_REVIEW, ERROR }
+
+        private static final Operation[] OPERATIONS = Operation.values();
+        private static final Outcome[] OUTCOMES = Outcome.values();
+
+        private final LongAdder[] outcomes = new LongAdder[OPERATIONS.length * OUTCOMES.length];
+        private final LatencyHistogram[] latencies = new LatencyHistogram[OPERATIONS.length];
+
+        LedgerMetrics() {
+            for (int i = 0; i < outcomes.length; i++) outcomes[i] = new LongAdder();
+            for (int i = 0; i < latencies.length; i++) latencies[i] = new LatencyHistogram();
+        }
+
+        void record(Operation op, Outcome outcome, long startNanos) {
+            outcomes[op.ordinal() * OUTCOMES.length + outcome.ordinal()].increment();
+            latencies[op.ordinal()].record(System.nanoTime() - startNanos);
+        }
+
+        long count(Operation op, Outcome outcome) {
+            return outcomes[op.ordinal() * OUTCOMES.length + outcome.ordinal()].sum();
+        }
+
+        long count(Operation op) {
+            long n = 0;
+            for (Outcome o : OUTCOMES) n += count(op, o);
+            return n;
+        }
+
+        LatencyHistogram latency(Operation op) { return latencies[op.ordinal()]; }
+
+        // Failure reasons with a non-zero count, e.g. "INSUFFICIENT_FUNDS=12 UNKNOWN_ACCOUNT=3"
+        String failureSummary(Operation op) {
+            StringBuilder sb = new StringBuilder();
+            for (Outcome o : OUTCOMES) {
+                long n = o == Outcome.OK ? 0 : count(op, o);
+                if (n > 0) sb.append(sb.length() == 0 ? "" : " ").append(o).append('=').append(n);
+            }
+            return sb.toString();
+        }
+
+        String report() {
+            StringBuilder sb = new StringBuilder(String.format("%-16s %10s %10s %10s %10s %10s %10s  %s%n",
+                "operation", "count", "failed", "p50 us", "p99 us", "p999 us", "max us", "failures"));
+            for (Operation op : OPERATIONS) {
+                LatencyHistogram h = latency(op);
+                long total = count(op);
+                sb.append(String.format(Locale.ROOT, "%-16s %10d %10d %10.1f %10.1f %10.1f %10.1f  %s%n", op, total,
+                    total - count(op, Outcome.OK), h.percentile(0.50) / 1e3, h.percentile(0.99) / 1e3,
+                    h.percentile(0.999) / 1e3, h.max() / 1e3, failureSummary(op)));
+            }
+            return sb.toString();
+        }
+
+        // Exposes this instance to JMX consoles; a second ledger in the same JVM just stays unregistered
+        void register() {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("bank.osryn:type=LedgerMetrics"));
+            } catch (JMException e) {
+                System.err.println("Ledger metrics not registered with JMX: " + e.getMessage());
+            }
+        }
+
+        @Override public String getReport() { return report(); }
+
+        @Override public Map<String, Long> getCounts() {
+            Map<String, Long> out = new LinkedHashMap<>();
+            for (Operation op : OPERATIONS) out.put(op.name(), count(op));
+            return out;
+        }
+
+        @Override public Map<String, Long> getFailures() {
+            Map<String, Long> out = new LinkedHashMap<>();
+            for (Operation op : OPERATIONS) {
+                for (Outcome o : OUTCOMES) if (o != Outcome.OK) out.put(op + "." + o, count(op, o));
+            }
+            return out;
+        }
+
+        @Override public Map<String, Double> getP50Micros() { return percentiles(0.50); }
+        @Override public Map<String, Double> getP99Micros() { return percentiles(0.99); }
+        @Override public Map<String, Double> getP999Micros() { return percentiles(0.999); }
+
+        private Map<String, Double> percentiles(double q) {
+            Map<String, Double> out = new LinkedHashMap<>();
+            for (Operation op : OPERATIONS) out.put(op.name(), latency(op).percentile(q) / 1e3);
+            return out;
+        }
+    }
+
+    public interface LedgerMetricsMXBean {
+        String getReport();
+        Map<String, Long> getCounts();
+        Map<String, Long> getFailures();
+        Map<String, Double> getP50Micros();
+        Map<String, Double> getP99Micros();
+        Map<String, Double> getP999Micros();
+    }
+
+    // HDR-style log-linear histogram of nanosecond latencies: exact below 32 ns, then 16 buckets
+    // per power of two (~6% resolution) up to ~18 minutes, all in one preallocated array
+    static final class LatencyHistogram {
+        private static final int PRECISION_BITS = 4, LINEAR = 2 << PRECISION_BITS;
+        private static final long MAX_TRACKABLE = (1L << 40) - 1;
+        private static final int BUCKETS = index(MAX_TRACKABLE) + 1;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long nanos) {
+            long v = Math.max(0, Math.min(nanos, MAX_TRACKABLE));
+            counts.incrementAndGet(index(v));
+            long m;
+            while (v > (m = max.get()) && !max.compareAndSet(m, v)) { }
+        }
+
+        static int index(long v) {
+            if (v < LINEAR) return (int) v;
+            int shift = 63 - Long.numberOfLeadingZeros(v) - PRECISION_BITS;
+            return (shift << PRECISION_BITS) + (int) (v >>> shift);
+        }
+
+        static long lowest(int index) {
+            if (index < LINEAR) return index;
+            int shift = (index >>> PRECISION_BITS) - 1;
+            return (long) (index - (shift << PRECISION_BITS)) << shift;
+        }
+
+        long count() {
+            long n = 0;
+            for (int i = 0; i < BUCKETS; i++) n += counts.get(i);
+            return n;
+        }
+
+        long max() { return max.get(); }
+
+        // Highest value equivalent to the q-th quantile's bucket, capped at the recorded max; 0 when empty
+        long percentile(double q) {
+            long[] snapshot = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) total += snapshot[i] = counts.get(i);
+            if (total == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(q * total)), seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += snapshot[i];
+                if (seen >= rank) return Math.min(lowest(i + 1) - 1, max.get());
+            }
+            return max.get();
+        }
+    }
+
+    // What BankService publishes after a live posting: the transaction with the balance it left
+    // behind, or a bare balance change (a cross-shard hold being placed or released). Journal
+    // replay publishes nothing.
+    static final class LedgerEvent {
+        enum Kind { TRANSACTION_POSTED, BALANCE_CHANGED }
+
+        final Kind kind;
+        final String accountId;
+        final long balance; // paisa, after the change
+        final Transaction transaction; // null for BALANCE_CHANGED
+
+        LedgerEvent(Kind kind, String accountId, long balance, Transaction transaction) {
+            this.kind = kind;
+            this.accountId = accountId;
+            this.balance = balance;
+            this.transaction = transaction;
+        }
+
+        static LedgerEvent posted(User u, Transaction t) {
+            return new LedgerEvent(Kind.TRANSACTION_POSTED, u.getAccountId(), u.getBalance(), t);
+        }
+
+        static LedgerEvent balanceChanged(User u) {
+            return new LedgerEvent(Kind.BALANCE_CHANGED, u.getAccountId(), u.getBalance(), null);
+        }
+    }
+
+    // Bounded ring shared by any number of publishers and subscribers. publish claims a sequence
+    // with one atomic add and never waits or takes a lock; BankService claims under the stripe lock
+    // and writes once it is released, so each account's events stay in posting order. A subscriber
+    // that falls a whole ring behind is told how many events it missed (onOverrun) and resumes half
+    // a ring back from the newest, so a slow consumer costs itself events instead of stalling
+    // postings. Each slot works like a seqlock: its sequence reads -1 while it is rewritten, and a
+    // reader only keeps an event when it sees the same, expected sequence before and after reading it.
+    static final class LedgerEventBus {
+        interface Subscriber {
+            void onEvent(LedgerEvent e);
+
+            default void onOverrun(long missed) {}
+        }
+
+        private final int capacity, mask;
+        private final AtomicReferenceArray<LedgerEvent> slots;
+        private final AtomicLongArray sequences;
+        private final AtomicLong next = new AtomicLong();
+        private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+        LedgerEventBus(int capacity) {
+            if (Integer.bitCount(capacity) != 1) throw new IllegalArgumentException("Capacity must be a power of two");
+            this.capacity = capacity;
+            this.mask = capacity - 1;
+            this.slots = new AtomicReferenceArray<>(capacity);
+            this.sequences = new AtomicLongArray(capacity);
+            for (int i = 0; i < capacity; i++) sequences.set(i, -1);
+        }
+
+        // Lets publishers skip building events nobody will read
+        boolean hasSubscribers() { return !subscriptions.isEmpty(); }
+
+        long published() { return next.get(); }
+
+        void publish(LedgerEvent e) {
+            publish(claim(1), e);
+        }
+
+        // Reserves n consecutive sequences and returns the first, fixing the events' order before
+        // they are written. Readers wait at a reserved slot, so publish(seq, e) must follow promptly.
+        long claim(int n) {
+            return next.getAndAdd(n);
+        }
+
+        void publish(long seq, LedgerEvent e) {
+            int i = (int) seq & mask;
+            sequences.set(i, -1);
+            slots.set(i, e);
+            sequences.set(i, seq);
+            for (Subscription s : subscriptions) {
+                if (s.parked) LockSupport.unpark(s.thread);
+            }
+        }
+
+        // Delivers events published from now on, on a daemon thread of its own, until closed
+        Subscription subscribe(String name, Subscriber subscriber) {
+            Subscription s = new Subscription(name, subscriber);
+            subscriptions.add(s);
+            s.thread.start();
+            return s;
+        }
+
+        final class Subscription implements Closeable {
+            private final Subscriber subscriber;
+            private final Thread thread;
+            private final AtomicLong delivered = new AtomicLong(), missed = new AtomicLong();
+            private volatile boolean parked, closed;
+            private long cursor = next.get();
+
+            private Subscription(String name, Subscriber subscriber) {
+                this.subscriber = subscriber;
+                this.thread = new Thread(this::run, "ledger-events-" + name);
+                thread.setDaemon(true);
+            }
+
+            long delivered() { return delivered.get(); }
+            long missed() { return missed.get(); }
+
+            private void run() {
+                while (!closed) {
+                    if (poll()) continue;
+                    if (next.get() > cursor) {
+                        Thread.yield(); // claimed but not yet written; the publisher is mid-store
+                        continue;
+                    }
+                    parked = true;
+                    if (next.get() == cursor && !closed) LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(50));
+                    parked = false;
+                }
+            }
+
+            // Delivers the event at cursor if it is there; false when there is nothing to read yet
+            private boolean poll() {
+                int i = (int) cursor & mask;
+                long before = sequences.get(i);
+                LedgerEvent e = slots.get(i);
+                long after = sequences.get(i);
+                if (before == cursor && after == cursor) {
+                    cursor++;
+                    delivered.incrementAndGet();
+                    try {
+                        subscriber.onEvent(e);
+                    } catch (RuntimeException ex) {
+                        ex.printStackTrace(); // one bad event must not kill the subscription
+                    }
+                    return true;
+                }
+                long head = next.get();
+                if (head - cursor > capacity || before > cursor) {
+                    long resume = Math.max(cursor + 1, head - capacity / 2);
+                    long skipped = resume - cursor;
+                    missed.addAndGet(skipped);
+                    cursor = resume;
+                    try {
+                        subscriber.onOverrun(skipped);
+                    } catch (RuntimeException ex) {
+                        ex.printStackTrace();
+                    }
+                    return true;
+                }
+                return false;
+            }
+
+            @Override public void close() {
+                closed = true;
+                subscriptions.remove(this);
+                LockSupport.unpark(thread);
+            }
+        }
+    }
+
+    // Bridges the bus to the EDT for one account at a time: any number of events for the watched
+    // account between two frames (16 ms) become a single refresh on the EDT
+    static final class FrameCoalescer implements LedgerEventBus.Subscriber {
+        static final int FRAME_MILLIS = 16;
+
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final javax.swing.Timer frame;
+        private volatile String accountId;
+
+        FrameCoalescer(Runnable refresh) {
+            frame = new javax.swing.Timer(FRAME_MILLIS, e -> {
+                scheduled.set(false); // events arriving during the refresh schedule the next one
+                refresh.run();
+            });
+            frame.setRepeats(false);
+        }
+
+        // null stops refreshes until an account is watched again
+        void watch(String accountId) {
+            this.accountId = accountId;
+        }
+
+        @Override public void onEvent(LedgerEvent e) {
+            if (e.accountId.equals(accountId)) schedule();
+        }
+
+        // The missed events may have been ours
+        @Override public void onOverrun(long missed) {
+            if (accountId != null) schedule();
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) SwingUtilities.invokeLater(frame::restart);
+        }
+    }
+
+    // Count and sum of one account's outgoing postings over the last minute, hour and day. Each
+    // window is a ring of buckets (12 x 5 s, 12 x 5 min, 24 x 1 h) in preallocated arrays, and a
+    // bucket is cleared when its slot comes round again, so recording and reading never allocate.
+    // Totals are exact to within one bucket. Not thread-safe: the risk stage only touches an
+    // account's counters under that account's stripe lock.
+    static final class VelocityCounters {
+        enum Window {
+            MINUTE("1m", 5_000, 12, 0), HOUR("1h", 300_000, 12, 12), DAY("24h", 3_600_000, 24, 24);
+
+            final String label;
+            final long bucketMillis;
+            final int buckets, offset; // offset: the window's first slot in the shared arrays
+
+            Window(String label, long bucketMillis, int buckets, int offset) {
+                this.label = label;
+                this.bucketMillis = bucketMillis;
+                this.buckets = buckets;
+                this.offset = offset;
+            }
+        }
+
+        private static final Window[] WINDOWS = Window.values();
+        private static final int SLOTS = 48;
+
+        private final int[] bucket = new int[SLOTS]; // bucket number (time / bucketMillis) each slot holds
+        private final int[] counts = new int[SLOTS];
+        private final long[] sums = new long[SLOTS];
+
+        void record(long now, long amount) {
+            for (Window w : WINDOWS) {
+                int b = (int) (now / w.bucketMillis);
+                int slot = w.offset + b % w.buckets;
+                if (bucket[slot] < b) { // stale: last used a full turn (or more) ago
+                    bucket[slot] = b;
+                    counts[slot] = 0;
+                    sums[slot] = 0;
+                }
+                counts[slot]++;
+                sums[slot] = saturatedAdd(sums[slot], amount);
+            }
+        }
+
+        int count(Window w, long now) {
+            int oldest = (int) (now / w.bucketMillis) - w.buckets, n = 0;
+            for (int s = w.offset, end = s + w.buckets; s < end; s++) if (bucket[s] > oldest) n += counts[s];
+            return n;
+        }
+
+        long sum(Window w, long now) {
+            int oldest = (int) (now / w.bucketMillis) - w.buckets;
+            long total = 0;
+            for (int s = w.offset, end = s + w.buckets; s < end; s++) if (bucket[s] > oldest) total = saturatedAdd(total, sums[s]);
+            return total;
+        }
+
+        static long saturatedAdd(long a, long b) {
+            long r = a + b;
+            return ((a ^ r) & (b ^ r)) < 0 ? Long.MAX_VALUE : r;
+        }
+    }
+
+    // Account ids an account has sent transfers to, as an open-addressing set of their hashes. A
+    // collision can make a new payee look known, which only errs towards letting a transfer through.
+    // Remembers up to MAX payees; later ones keep counting as new.
+    static final class PayeeSet {
+        private static final int MAX = 1 << 12;
+        private int[] slots = new int[16]; // 0 = empty, so hashes are made non-zero
+        private int size;
+
+        boolean contains(String accountId) {
+            int h = hash(accountId), mask = slots.length - 1;
+            for (int i = mix(h) & mask; slots[i] != 0; i = (i + 1) & mask) {
+                if (slots[i] == h) return true;
+            }
+            return false;
+        }
+
+        void add(String accountId) {
+            if (size >= MAX || contains(accountId)) return;
+            if ((size + 1) * 2 > slots.length) {
+                int[] old = slots;
+                slots = new int[old.length * 2];
+                for (int h : old) if (h != 0) insert(h);
+            }
+            insert(hash(accountId));
+            size++;
+        }
+
+        private void insert(int h) {
+            int mask = slots.length - 1, i = mix(h) & mask;
+            while (slots[i] != 0) i = (i + 1) & mask;
+            slots[i] = h;
+        }
+
+        private static int hash(String s) {
+            int h = s.hashCode();
+            return h == 0 ? 1 : h;
+        }
+
+        private static int mix(int h) {
+            return (h * 0x9E3779B9) >>> 7;
+        }
+    }
+
+    // One configurable risk check, written "<metric> > <limit> : block|review". Metrics: amount
+    // (this posting), newpayee.amount (this posting, when it is a transfer to an account the payer
+    // has never sent to), and count.<1m|1h|24h> / sum.<1m|1h|24h> (the window with this posting
+    // included). Limits are BDT except for counts. Rules are joined with ';' in -Dosryn.riskRules.
+    static final class RiskRule {
+        enum Action { REVIEW, BLOCK }
+
+        enum Metric { AMOUNT, NEW_PAYEE_AMOUNT, COUNT, SUM }
+
+        static final String DEFAULTS = "count.1m>20:block; amount>500000:review; newpayee.amount>100000:review; sum.24h>1000000:review";
+
+        final String text; // as configured, shown to reviewers
+        final Metric metric;
+        final VelocityCounters.Window window; // COUNT and SUM only
+        final long limit; // paisa, or postings for COUNT
+        final Action action;
+
+        private RiskRule(String text, Metric metric, VelocityCounters.Window window, long limit, Action action) {
+            this.text = text;
+            this.metric = metric;
+            this.window = window;
+            this.limit = limit;
+            this.action = action;
+        }
+
+        static List<RiskRule> parse(String spec) {
+            List<RiskRule> rules = new ArrayList<>();
+            for (String part : spec.split(";")) {
+                if (!part.trim().isEmpty()) rules.add(parseOne(part.trim()));
+            }
+            return rules;
+        }
+
+        static RiskRule parseOne(String text) {
+            String s = text.replace(" ", "").toLowerCase(Locale.ROOT);
+            int gt = s.indexOf('>'), colon = s.lastIndexOf(':');
+            if (gt < 0 || colon < gt) throw new IllegalArgumentException("Expected <metric> > <limit> : block|review in \"" + text + "\"");
+            String metric = s.substring(0, gt), limit = s.substring(gt + 1, colon);
+            Action action = Action.valueOf(s.substring(colon + 1).toUpperCase(Locale.ROOT));
+            if (metric.equals("amount")) return new RiskRule(text, Metric.AMOUNT, null, Money.parse(limit), action);
+            if (metric.equals("newpayee.amount")) return new RiskRule(text, Metric.NEW_PAYEE_AMOUNT, null, Money.parse(limit), action);
+            int dot = metric.indexOf('.');
+            if (dot > 0) {
+                for (VelocityCounters.Window w : VelocityCounters.Window.values()) {
+                    if (!w.label.equals(metric.substring(dot + 1))) continue;
+                    switch (metric.substring(0, dot)) {
+                        case "count": return new RiskRule(text, Metric.COUNT, w, Long.parseLong(limit), action);
+                        case "sum": return new RiskRule(text, Metric.SUM, w, Money.parse(limit), action);
+                        default: break;
+                    }
+                }
+            }
+            throw new IllegalArgumentException("Unknown risk metric \"" + metric + "\" in \"" + text + "\"");
+        }
+
+        boolean fires(VelocityCounters v, long amount, boolean newPayee, long now) {
+            switch (metric) {
+                case AMOUNT: return amount > limit;
+                case NEW_PAYEE_AMOUNT: return newPayee && amount > limit;
+                case COUNT: return v.count(window, now) + 1L > limit;
+                default: return VelocityCounters.saturatedAdd(v.sum(window, now), amount) > limit;
+            }
+        }
+
+        @Override public String toString() { return text; }
+    }
+
+    // In-line screen for money leaving an account. BankService runs it for withdraw, payBill and
+    // transfer under the payer's stripe lock, after the balance check and before anything is
+    // posted, so an implementation can keep per-account state without locking of its own. It is on
+    // the hot path of every debit: it must not block and should not allocate.
+    interface RiskStage {
+        RiskStage NONE = (payer, op, amount, payeeId, now) -> null;
+
+        // The rule that stops this posting, or null to let it through (it is then applied, so a
+        // stage that counts postings counts it now). payeeId is the target of a transfer, else null.
+        RiskRule screen(User payer, LedgerMetrics.Operation op, long amount, String payeeId, long now);
+
+        // A held posting a reviewer approved; it is being applied without screening
+        default void approved(User payer, LedgerMetrics.Operation op, long amount, String payeeId, long now) {}
+    }
+
+    // The standard risk stage: velocity windows and known payees per paying account, checked
+    // against rules in order (the first that fires wins). State is created on an account's first
+    // debit and kept in memory only, so after a restart every payee is new again.
+    static final class VelocityRiskStage implements RiskStage {
+        private static final class AccountRisk {
+            final VelocityCounters velocity = new VelocityCounters();
+            final PayeeSet payees = new PayeeSet();
+        }
+
+        private final RiskRule[] rules;
+        private final ConcurrentMap<String, AccountRisk> accounts = new ConcurrentHashMap<>();
+
+        VelocityRiskStage(List<RiskRule> rules) {
+            this.rules = rules.toArray(new RiskRule[0]);
+        }
+
+        @Override public RiskRule screen(User payer, LedgerMetrics.Operation op, long amount, String payeeId, long now) {
+            AccountRisk r = state(payer);
+            boolean newPayee = payeeId != null && !r.payees.contains(payeeId);
+            for (RiskRule rule : rules) {
+                if (rule.fires(r.velocity, amount, newPayee, now)) return rule;
+            }
+            record(r, amount, payeeId, now);
+            return null;
+        }
+
+        @Override public void approved(User payer, LedgerMetrics.Operation op, long amount, String payeeId, long now) {
+            record(state(payer), amount, payeeId, now);
+        }
+
+        private AccountRisk state(User payer) {
+            AccountRisk r = accounts.get(payer.getAccountId());
+            return r != null ? r : accounts.computeIfAbsent(payer.getAccountId(), id -> new AccountRisk());
+        }
+
+        private static void record(AccountRisk r, long amount, String payeeId, long now) {
+            r.velocity.record(now, amount);
+            if (payeeId != null) r.payees.add(payeeId);
+        }
+    }
+
+    // The slice of the account space one BankService owns when the ledger runs as several shard
+    // processes. Account numbers and usernames hash to a shard, so any router can find an
+    // account's home without a directory; a single-process ledger owns everything.
+    static final class Partition {
+        static final Partition WHOLE = new Partition(0, 1);
+
+        final int index, count;
+
+        Partition(int index, int count) {
+            if (count < 1 || index < 0 || index >= count) throw new IllegalArgumentException("Bad shard " + index + "/" + count);
+            this.index = index;
+            this.count = count;
+        }
+
+        // Usernames are case-insensitive, so they are routed by their lower-case form
+        static int shardOf(String key, int count) {
+            int h = key.toLowerCase(Locale.ROOT).hashCode();
+            return ((h ^ (h >>> 16)) & 0x7FFFFFFF) % count;
+        }
+
+        boolean owns(String key) {
+            return count == 1 || shardOf(key, count) == index;
+        }
+    }
+
+    static class BankService {
+        private static final int LOCK_STRIPES = 256; // power of two
+        private Map<String, User> users = new ConcurrentHashMap<>();
+        // Case-folded username -> User, so signup and login don't scan every account
+        private ConcurrentMap<String, User> usernames = new ConcurrentHashMap<>();
+        // Per-account locks, striped by accountId so memory stays flat as accounts grow
+        private final ReentrantLock[] stripes = new ReentrantLock[LOCK_STRIPES];
+        // Null when running purely in memory
+        private final LedgerJournal journal;
+        private final Path snapshotPath;
+        private final PasswordHasher hasher;
+        private final Partition partition;
+        private final LedgerMetrics metrics = new LedgerMetrics();
+        private final LedgerEventBus events = new LedgerEventBus(Integer.getInteger("osryn.eventRing", 1 << 14));
+        // Cross-shard transfer halves waiting for the coordinator's decision, by transfer id
+        private final ConcurrentMap<String, Prepared> prepared = new ConcurrentHashMap<>();
+        // Transfers aborted before their prepare arrived here, with when; a late prepare for one is
+        // refused. Tombstones are dropped once they are older than any prepare could still be.
+        private final ConcurrentMap<String, Long> abortedEarly = new ConcurrentHashMap<>();
+        private final AtomicLong nextTombstoneSweep = new AtomicLong();
+        private volatile RiskStage risk = RiskStage.NONE;
+        // Postings a risk rule held for review, by review id, and how many each account has waiting.
+        // Past the cap an account's next held posting is blocked, so the queue can't grow unbounded.
+        private final ConcurrentMap<Long, Review> reviews = new ConcurrentHashMap<>();
+        private final ConcurrentMap<String, Integer> pendingByAccount = new ConcurrentHashMap<>();
+        private final int maxPendingReviews = Integer.getInteger("osryn.maxPendingReviews", 10);
+        private final AtomicLong reviewIds = new AtomicLong();
+        private ScheduledExecutorService checkpointer, accrualScheduler;
+        private final Object checkpointing = new Object(); // one checkpoint at a time
+
+        public BankService() {
+            this(null, null);
+        }
+
+        public BankService(LedgerJournal journal) {
+            this(journal, null);
+        }
+
+        // Boots from the snapshot (if any) and then replays only the journal written after it
+        public BankService(LedgerJournal journal, Path snapshotPath) {
+            this(journal, snapshotPath, PasswordHasher.shared());
+        }
+
+        BankService(LedgerJournal journal, Path snapshotPath, PasswordHasher hasher) {
+            this(journal, snapshotPath, hasher, Partition.WHOLE);
+        }
+
+        BankService(LedgerJournal journal, Path snapshotPath, PasswordHasher hasher, Partition partition) {
+            for (int i = 0; i < stripes.length; i++) stripes[i] = new ReentrantLock();
+            this.journal = journal;
+            this.snapshotPath = snapshotPath;
+            this.hasher = hasher;
+            this.partition = partition;
+            try {
+                long coveredEpoch = -1;
+                long[] restoredThrough = new long[1];
+                if (snapshotPath != null && Files.exists(snapshotPath)) {
+                    coveredEpoch = LedgerSnapshot.load(snapshotPath, new LedgerSnapshot.Sink() {
+                        // Pre-size both maps so millions of restored accounts don't trigger rehashing
+                        @Override public void expect(int accounts) {
+                            int capacity = (int) Math.min(Integer.MAX_VALUE, accounts * 4L / 3 + 16);
+                            users = new ConcurrentHashMap<>(capacity);
+                            usernames = new ConcurrentHashMap<>(capacity);
+                        }
+
+                        @Override public void account(User u) {
+                            users.put(u.getAccountId(), u);
+                            usernames.put(usernameKey(u.getUsername()), u);
+                            restoredThrough[0] = Math.max(restoredThrough[0], u.getRestoredThrough());
+                        }
+                    });
+                }
+                if (journal != null) journal.replay(coveredEpoch, restoredThrough[0], new Replayer());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            if (partition.owns("admin") && !usernames.containsKey("admin")) {
+                User admin = createAccount("Admin User", "admin", "admin", "admin@osryn.bank", "000-0000");
+                if(admin != null) {
+                    credit(admin, 1250050L, "Initial Funding");
+                    admin.getBalanceHistory().clear();
+                    admin.getBalanceHistory().addAll(500000L, 520000L, 480000L, 600000L, 850000L, 700000L, 1250050L);
+                }
+            }
+        }
+
+        public User createAccount(String name, String username, String pass, String email, String phone) {
+            return createAccount(name, username, pass, email, phone, User.AccountType.CURRENT);
+        }
+
+        public User createAccount(String name, String username, String pass, String email, String phone, User.AccountType type) {
+            long start = System.nanoTime();
+            LedgerMetrics.Outcome outcome = LedgerMetrics.Outcome.ERROR;
+            try {
+                User u = openAccount(name, username, pass, email, phone, type);
+                outcome = u == null ? LedgerMetrics.Outcome.USERNAME_TAKEN : LedgerMetrics.Outcome.OK;
+                return u;
+            } finally {
+                metrics.record(LedgerMetrics.Operation.CREATE_ACCOUNT, outcome, start);
+            }
+        }
+
+        private User openAccount(String name, String username, String pass, String email, String phone, User.AccountType type) {
+            String key = usernameKey(username);
+            // Cheap early out so a taken name doesn't pay for a hash
+            if (usernames.containsKey(key)) return null;
+            String hash = hasher.hash(pass);
+            User u;
+            long seq;
+            for (;;) {
+                String accId = IdService.nextAccountNumber();
+                if (!partition.owns(accId)) continue; // a shard only hands out numbers that route to it
+                // Every new id is published under its own stripe, so this check can't race another signup
+                ReentrantLock lock = stripes[stripeIndex(accId)];
+                lock.lock();
+                try {
+                    checkWritable();
+                    if (users.containsKey(accId)) continue; // collision: draw again, never replace the holder
+                    u = new User(accId, username, name, hash, email, phone);
+                    u.setAccountType(type, u.getInterestAccruedThrough());
+                    // putIfAbsent claims the name atomically, two signups can't both win it
+                    if (usernames.putIfAbsent(key, u) != null) return null;
+                    try {
+                        // Journal before publishing the id, so no posting to it can be logged ahead of its creation
+                        seq = journal == null ? 0 : journal.accountCreated(u);
+                        if (journal != null && type != User.AccountType.CURRENT) {
+                            seq = journal.accountTypeChanged(accId, type, u.getInterestAccruedThrough());
+                        }
+                        users.put(accId, u);
+                    } catch (RuntimeException ex) {
+                        usernames.remove(key, u);
+                        throw ex;
+                    }
+                    break;
+                } finally {
+                    lock.unlock();
+                }
+            }
+            sync(seq);
+            return u;
+        }
+
+        public User authenticate(String user, String pass) {
+            long start = System.nanoTime();
+            LedgerMetrics.Outcome outcome = LedgerMetrics.Outcome.ERROR;
+            try {
+                User u = user == null ? null : usernames.get(usernameKey(user));
+                if (u == null) {
+                    // Paid like a wrong password, so response times don't reveal which usernames exist
+                    hasher.verifyAbsent(pass);
+                    outcome = LedgerMetrics.Outcome.UNKNOWN_ACCOUNT;
+                    return null;
+                }
+                String stored = u.getPasswordHash();
+                if (pass == null || !hasher.verify(u.getAccountId(), pass, stored)) {
+                    outcome = LedgerMetrics.Outcome.INVALID_CREDENTIALS;
+                    return null;
+                }
+                // Legacy plaintext or an old work factor: re-hash now that we hold the real password
+                if (hasher.needsRehash(stored)) replacePasswordHash(u, stored, hasher.hash(pass));
+                outcome = LedgerMetrics.Outcome.OK;
+                return u;
+            } finally {
+                metrics.record(LedgerMetrics.Operation.AUTHENTICATE, outcome, start);
+            }
+        }
+
+        public boolean changePassword(User u, String current, String next) {
+            long start = System.nanoTime();
+            LedgerMetrics.Outcome outcome = LedgerMetrics.Outcome.ERROR;
+            try {
+                String stored = u.getPasswordHash();
+                boolean changed = hasher.verify(u.getAccountId(), current, stored)
+                                  && replacePasswordHash(u, stored, hasher.hash(next));
+                outcome = changed ? LedgerMetrics.Outcome.OK : LedgerMetrics.Outcome.INVALID_CREDENTIALS;
+                return changed;
+            } finally {
+                metrics.record(LedgerMetrics.Operation.CHANGE_PASSWORD, outcome, start);
+            }
+        }
+
+        // Hashing happens outside the lock; the swap only wins if nobody changed the password meanwhile
+        private boolean replacePasswordHash(User u, String expected, String replacement) {
+            long seq;
+            ReentrantLock lock = stripes[stripeIndex(u)];
+            lock.lock();
+            try {
+                checkWritable();
+                if (!u.getPasswordHash().equals(expected)) return false;
+                u.setPasswordHash(replacement);
+                seq = journal == null ? 0 : journal.passwordChanged(u.getAccountId(), replacement);
+            } finally {
+                lock.unlock();
+            }
+            hasher.forget(u.getAccountId());
+            sync(seq);
+            return true;
+        }
+
+        public LedgerMetrics getMetrics() { return metrics; }
+        public LedgerEventBus getEvents() { return events; }
+
+        private Outbox outbox() {
+            return events.hasSubscribers() ? new Outbox(events) : Outbox.NONE;
+        }
+
+        // Events raised under stripe locks. claim() takes their bus sequences while the locks are
+        // still held, so each account's events keep posting order; send() writes them and wakes the
+        // subscribers after the locks are released. NONE stands in while nobody is subscribed.
+        private static final class Outbox {
+            static final Outbox NONE = new Outbox(null);
+
+            private final LedgerEventBus bus;
+            private LedgerEvent[] pending;
+            private int size;
+            private long first = -1;
+
+            Outbox(LedgerEventBus bus) {
+                this.bus = bus;
+                this.pending = bus == null ? null : new LedgerEvent[2];
+            }
+
+            void posted(User u, Transaction t) {
+                if (bus != null) add(LedgerEvent.posted(u, t));
+            }
+
+            void balanceChanged(User u) {
+                if (bus != null) add(LedgerEvent.balanceChanged(u));
+            }
+
+            private void add(LedgerEvent e) {
+                if (size == pending.length) pending = Arrays.copyOf(pending, size * 2);
+                pending[size++] = e;
+            }
+
+            void claim() {
+                if (size > 0 && first < 0) first = bus.claim(size);
+            }
+
+            void send() {
+                claim();
+                for (int i = 0; i < size; i++) {
+                    bus.publish(first + i, pending[i]);
+                    pending[i] = null;
+                }
+                size = 0;
+                first = -1;
+            }
+        }
+        public Partition getPartition() { return partition; }
+        public User getAccount(String accountId) { return users.get(accountId); }
+
+        private static String usernameKey(String username) {
+            return username.toLowerCase(Locale.ROOT);
+        }
+
+        public boolean transfer(User sender, String targetId, long amount) {
+            return submitTransfer(sender, targetId, amount) == LedgerMetrics.Outcome.OK;
+        }
+
+        // Like transfer, but says why a transfer did not go through (including risk holds)
+        public LedgerMetrics.Outcome submitTransfer(User sender, String targetId, long amount) {
+            return timedTransfer(sender, targetId, amount, true);
+        }
+
+        private LedgerMetrics.Outcome timedTransfer(User sender, String targetId, long amount, boolean screen) {
+            long start = System.nanoTime();
+            LedgerMetrics.Outcome outcome = LedgerMetrics.Outcome.ERROR;
+            try {
+                outcome = applyTransfer(sender, targetId, amount, screen);
+                return outcome;
+            } finally {
+                metrics.record(LedgerMetrics.Operation.TRANSFER, outcome, start);
+            }
+        }
+
+        private LedgerMetrics.Outcome applyTransfer(User sender, String targetId, long amount, boolean screen) {
+            if (amount <= 0) return LedgerMetrics.Outcome.REJECTED; // a negative transfer would pull from the target
+            User target = users.get(targetId);
+            if (target == null) return LedgerMetrics.Outcome.UNKNOWN_ACCOUNT;
+
+            // Always take the lower stripe first so opposite transfers can't deadlock
+            int a = stripeIndex(sender), b = stripeIndex(target);
+            ReentrantLock first = stripes[Math.min(a, b)], second = stripes[Math.max(a, b)];
+            Outbox outbox = outbox();
+            long seq;
+            first.lock();
+            try {
+                if (second != first) second.lock();
+                try {
+                    checkWritable();
+                    if (sender.getBalance() < amount) return LedgerMetrics.Outcome.INSUFFICIENT_FUNDS;
+
+                    Money.add(target.getBalance(), amount); // overflow check before anything is debited
+                    LedgerMetrics.Outcome held = riskCheck(screen, sender, LedgerMetrics.Operation.TRANSFER, amount, target.getAccountId());
+                    if (held != null) return held;
+                    sender.updateBalance(Money.subtract(sender.getBalance(), amount));
+                    target.updateBalance(Money.add(target.getBalance(), amount));
+
+                    Transaction out = new Transaction("Transfer Out", -amount, "To: " + target.getName());
+                    Transaction in = new Transaction("Transfer In", amount, "From: " + sender.getName());
+                    sender.addTransaction(out);
+                    target.addTransaction(in);
+                    seq = journal == null ? 0 : journal.transferred(sender.getAccountId(), target.getAccountId(), amount, out, in);
+                    outbox.posted(sender, out);
+                    outbox.posted(target, in);
+                } finally {
+                    outbox.claim();
+                    if (second != first) second.unlock();
+                }
+            } finally {
+                first.unlock();
+                outbox.send();
+            }
+            sync(seq);
+            return LedgerMetrics.Outcome.OK;
+        }
+
+        // Throws IllegalArgumentException for an amount that isn't positive
+        public void deposit(User u, long amt) {
+            long start = System.nanoTime();
+            LedgerMetrics.Outcome outcome = LedgerMetrics.Outcome.ERROR;
+            try {
+                if (amt <= 0) {
+                    outcome = LedgerMetrics.Outcome.REJECTED;
+                    throw new IllegalArgumentException("Amount must be positive");
+                }
+                credit(u, amt, "ATM / Cash");
+                outcome = LedgerMetrics.Outcome.OK;
+            } finally {
+                metrics.record(LedgerMetrics.Operation.DEPOSIT, outcome, start);
+            }
+        }
+
+        private void credit(User u, long amt, String description) {
+            Outbox outbox = outbox();
+            long seq;
+            ReentrantLock lock = stripes[stripeIndex(u)];
+            lock.lock();
+            try {
+                checkWritable();
+                u.updateBalance(Money.add(u.getBalance(), amt));
+                Transaction t = new Transaction("Deposit", amt, description);
+                u.addTransaction(t);
+                seq = journal == null ? 0 : journal.posted(LedgerJournal.DEPOSIT, u.getAccountId(), t);
+                outbox.posted(u, t);
+                outbox.claim();
+            } finally {
+                lock.unlock();
+                outbox.send();
+            }
+            sync(seq);
+        }
+
+        public boolean withdraw(User u, long amt) {
+            return submitWithdraw(u, amt) == LedgerMetrics.Outcome.OK;
+        }
+
+        public LedgerMetrics.Outcome submitWithdraw(User u, long amt) {
+            return timedDebit(LedgerMetrics.Operation.WITHDRAW, u, amt, null, true);
+        }
+        
+        public boolean payBill(User u, String biller, long amt) {
+            return submitBill(u, biller, amt) == LedgerMetrics.Outcome.OK;
+        }
+
+        public LedgerMetrics.Outcome submitBill(User u, String biller, long amt) {
+            return timedDebit(LedgerMetrics.Operation.PAY_BILL, u, amt, biller, true);
+        }
+
+        private LedgerMetrics.Outcome timedDebit(LedgerMetrics.Operation op, User u, long amt, String biller, boolean screen) {
+            long start = System.nanoTime();
+            LedgerMetrics.Outcome outcome = LedgerMetrics.Outcome.ERROR;
+            try {
+                outcome = op == LedgerMetrics.Operation.WITHDRAW
+                    ? debit(op, u, amt, LedgerJournal.WITHDRAW, "ATM Withdrawal", null, screen)
+                    : debit(op, u, amt, LedgerJournal.BILL_PAYMENT, "To: " + biller, biller, screen);
+                return outcome;
+            } finally {
+                metrics.record(op, outcome, start);
+            }
+        }
+
+        // Balance check and debit happen under the same lock, so two debits can't both pass the check
+        private LedgerMetrics.Outcome debit(LedgerMetrics.Operation op, User u, long amt, byte kind, String description,
+                                            String biller, boolean screen) {
+            if (amt <= 0) return LedgerMetrics.Outcome.REJECTED;
+            Outbox outbox = outbox();
+            long seq;
+            ReentrantLock lock = stripes[stripeIndex(u)];
+            lock.lock();
+            try {
+                checkWritable();
+                if (u.getBalance() < amt) return LedgerMetrics.Outcome.INSUFFICIENT_FUNDS;
+                LedgerMetrics.Outcome held = riskCheck(screen, u, op, amt, biller);
+                if (held != null) return held;
+                u.updateBalance(Money.subtract(u.getBalance(), amt));
+                Transaction t = new Transaction(postingType(kind), -amt, description);
+                u.addTransaction(t);
+                seq = journal == null ? 0 : journal.posted(kind, u.getAccountId(), t);
+                outbox.posted(u, t);
+                outbox.claim();
+            } finally {
+                lock.unlock();
+                outbox.send();
+            }
+            sync(seq);
+            return LedgerMetrics.Outcome.OK;
+        }
+
+        // --- Risk ---
+
+        // A posting a risk rule sent to review. Nothing has moved yet: approving applies it then,
+        // against the balance at that time. Held postings are kept in memory only, so a restart
+        // drops them and the customer has to submit again.
+        static final class Review {
+            final long id, time, amount;
+            final LedgerMetrics.Operation operation;
+            final String accountId, target; // the payee account id or biller; null for a withdrawal
+            final String rule;
+
+            Review(long id, long time, LedgerMetrics.Operation operation, String accountId, String target, long amount, String rule) {
+                this.id = id;
+                this.time = time;
+                this.operation = operation;
+                this.accountId = accountId;
+                this.target = target;
+                this.amount = amount;
+                this.rule = rule;
+            }
+        }
+
+        public void setRiskStage(RiskStage stage) { this.risk = stage; }
+
+        // Oldest first
+        public List<Review> pendingReviews() {
+            List<Review> out = new ArrayList<>(reviews.values());
+            out.sort(Comparator.comparingLong(r -> r.id));
+            return out;
+        }
+
+        // Applies a held posting without screening it again. The review is used up whatever the
+        // outcome; null if there is no such review (already decided, or dropped by a restart).
+        public LedgerMetrics.Outcome approveReview(long id) {
+            Review r = takeReview(id);
+            if (r == null) return null;
+            User u = users.get(r.accountId);
+            if (u == null) return LedgerMetrics.Outcome.UNKNOWN_ACCOUNT;
+            return r.operation == LedgerMetrics.Operation.TRANSFER
+                ? timedTransfer(u, r.target, r.amount, false)
+                : timedDebit(r.operation, u, r.amount, r.target, false);
+        }
+
+        public boolean declineReview(long id) {
+            return takeReview(id) != null;
+        }
+
+        private Review takeReview(long id) {
+            Review r = reviews.remove(id);
+            if (r != null) pendingByAccount.computeIfPresent(r.accountId, (account, n) -> n > 1 ? n - 1 : null);
+            return r;
+        }
+
+        // Runs the risk stage under the payer's lock; null lets the posting through. payeeOrBiller
+        // is only passed to the stage as a payee for transfers. A posting that would be held while
+        // the payer already has maxPendingReviews waiting is blocked instead.
+        private LedgerMetrics.Outcome riskCheck(boolean screen, User payer, LedgerMetrics.Operation op, long amount, String payeeOrBiller) {
+            long now = System.currentTimeMillis();
+            String payee = op == LedgerMetrics.Operation.TRANSFER ? payeeOrBiller : null;
+            if (!screen) {
+                risk.approved(payer, op, amount, payee, now);
+                return null;
+            }
+            RiskRule rule = risk.screen(payer, op, amount, payee, now);
+            if (rule == null) return null;
+            if (rule.action == RiskRule.Action.BLOCK) return LedgerMetrics.Outcome.RISK_BLOCKED;
+            // Only this lock's holder adds to the payer's count; decisions elsewhere only lower it
+            String account = payer.getAccountId();
+            if (pendingByAccount.getOrDefault(account, 0) >= maxPendingReviews) return LedgerMetrics.Outcome.RISK_BLOCKED;
+            pendingByAccount.merge(account, 1, Integer::sum);
+            long id = reviewIds.incrementAndGet();
+            reviews.put(id, new Review(id, now, op, account, payeeOrBiller, amount, rule.text));
+            return LedgerMetrics.Outcome.HELD_FOR_REVIEW;
+        }
+
+        // --- Cross-shard transfers (two-phase commit participant) ---
+
+        // One half of a cross-shard transfer, held here until the coordinator decides
+        static final class Prepared {
+            final boolean debit;
+            final String accountId, counterpartyId;
+            final long amount;
+
+            Prepared(boolean debit, String accountId, String counterpartyId, long amount) {
+                this.debit = debit;
+                this.accountId = accountId;
+                this.counterpartyId = counterpartyId;
+                this.amount = amount;
+            }
+        }
+
+        // Phase one on the sending shard: the amount leaves the balance now, so it can't be spent
+        // twice while the decision is pending, and comes back if the transfer aborts
+        public LedgerMetrics.Outcome prepareDebit(String transferId, String accountId, String toId, long amount) {
+            return prepare(transferId, true, accountId, toId, amount);
+        }
+
+        // Phase one on the receiving shard: only checks the account can take the money
+        public LedgerMetrics.Outcome prepareCredit(String transferId, String accountId, String fromId, long amount) {
+            return prepare(transferId, false, accountId, fromId, amount);
+        }
+
+        private LedgerMetrics.Outcome prepare(String transferId, boolean debit, String accountId, String counterpartyId, long amount) {
+            User u = users.get(accountId);
+            if (u == null) return LedgerMetrics.Outcome.UNKNOWN_ACCOUNT;
+            if (amount <= 0 || abortedEarly.containsKey(transferId)) return LedgerMetrics.Outcome.REJECTED;
+            Outbox outbox = outbox();
+            long seq;
+            ReentrantLock lock = stripes[stripeIndex(u)];
+            lock.lock();
+            try {
+                if (prepared.containsKey(transferId)) return LedgerMetrics.Outcome.OK; // coordinator retry
+                checkWritable();
+                if (debit) {
+                    if (u.getBalance() < amount) return LedgerMetrics.Outcome.INSUFFICIENT_FUNDS;
+                    u.updateBalance(Money.subtract(u.getBalance(), amount));
+                } else if (Long.MAX_VALUE - amount < u.getBalance()) {
+                    return LedgerMetrics.Outcome.REJECTED;
+                }
+                seq = journal == null ? 0
+                    : journal.prepared(transferId, debit, false, accountId, counterpartyId, amount, System.currentTimeMillis());
+                prepared.put(transferId, new Prepared(debit, accountId, counterpartyId, amount));
+                if (debit) outbox.balanceChanged(u);
+                outbox.claim();
+            } finally {
+                lock.unlock();
+                outbox.send();
+            }
+            sync(seq);
+            // An abort that raced past the check above left a tombstone; undo the hold like it would have
+            if (abortedEarly.containsKey(transferId)) {
+                resolve(transferId, false, "");
+                return LedgerMetrics.Outcome.REJECTED;
+            }
+            return LedgerMetrics.Outcome.OK;
+        }
+
+        // Phase two. Both are idempotent: a decision for a transfer that is already resolved, or
+        // was never prepared here, changes nothing, so the coordinator can resend after a crash.
+        public void commitPrepared(String transferId, String counterpartyName) {
+            resolve(transferId, true, counterpartyName);
+        }
+
+        public void abortPrepared(String transferId) {
+            resolve(transferId, false, "");
+        }
+
+        private void resolve(String transferId, boolean commit, String counterpartyName) {
+            Prepared p = prepared.get(transferId);
+            if (p == null) {
+                if (commit) return;
+                tombstone(transferId);
+                // A prepare may have landed between the two looks; it is aborted like any other
+                p = prepared.get(transferId);
+                if (p == null) return;
+            }
+            User u = users.get(p.accountId);
+            Outbox outbox = outbox();
+            long seq;
+            ReentrantLock lock = stripes[stripeIndex(u)];
+            lock.lock();
+            try {
+                checkWritable();
+                if (!prepared.remove(transferId, p)) return;
+                long time = System.currentTimeMillis();
+                String entryId = "";
+                if (commit) {
+                    Transaction t = p.debit
+                        ? new Transaction("Transfer Out", -p.amount, "To: " + counterpartyName, new Date(time))
+                        : new Transaction("Transfer In", p.amount, "From: " + counterpartyName, new Date(time));
+                    if (!p.debit) u.updateBalance(Money.add(u.getBalance(), p.amount), time);
+                    u.addTransaction(t);
+                    entryId = t.getId();
+                    outbox.posted(u, t);
+                } else if (p.debit) {
+                    u.updateBalance(Money.add(u.getBalance(), p.amount), time);
+                    outbox.balanceChanged(u);
+                }
+                seq = journal == null ? 0 : journal.resolved(transferId, commit, counterpartyName, entryId, time);
+                outbox.claim();
+            } finally {
+                lock.unlock();
+                outbox.send();
+            }
+            sync(seq);
+        }
+
+        private static final long TOMBSTONE_MILLIS = TimeUnit.HOURS.toMillis(1); // far beyond any prepare's timeout
+
+        private void tombstone(String transferId) {
+            long now = System.currentTimeMillis(), due = nextTombstoneSweep.get();
+            if (now >= due && nextTombstoneSweep.compareAndSet(due, now + TimeUnit.MINUTES.toMillis(1))) {
+                abortedEarly.values().removeIf(at -> now - at > TOMBSTONE_MILLIS);
+            }
+            abortedEarly.put(transferId, now);
+        }
+
+        public int pendingTransfers() { return prepared.size(); }
+
+        // A switch to an interest-bearing type accrues from today on; interest not yet posted is
+        // given up when switching away
+        public void setAccountType(User u, User.AccountType type) {
+            long seq;
+            ReentrantLock lock = stripes[stripeIndex(u)];
+            lock.lock();
+            try {
+                if (u.getAccountType() == type) return;
+                checkWritable();
+                long accruedThrough = LocalDate.now().toEpochDay() - 1;
+                u.setAccountType(type, accruedThrough);
+                seq = journal == null ? 0 : journal.accountTypeChanged(u.getAccountId(), type, accruedThrough);
+            } finally {
+                lock.unlock();
+            }
+            sync(seq);
+        }
+
+        // --- Batch postings ---
+
+        // One line of a payroll / utility run
+        static final class Posting {
+            enum Kind { TRANSFER, BILL_PAYMENT }
+
+            final Kind kind;
+            final String fromId, target; // target is the payee account id, or the biller name
+            final long amount;
+
+            private Posting(Kind kind, String fromId, String target, long amount) {
+                this.kind = kind;
+                this.fromId = fromId;
+                this.target = target;
+                this.amount = amount;
+            }
+
+            static Posting transfer(String fromId, String toId, long amount) { return new Posting(Kind.TRANSFER, fromId, toId, amount); }
+            static Posting billPayment(String fromId, String biller, long amount) { return new Posting(Kind.BILL_PAYMENT, fromId, biller, amount); }
+        }
+
+        enum BatchMode {
+            ALL_OR_NOTHING, // any failing line rejects the whole batch
+            PER_ITEM        // every line that can be applied is, the rest report why not
+        }
+
+        enum PostingStatus { APPLIED, UNKNOWN_ACCOUNT, INVALID_AMOUNT, INSUFFICIENT_FUNDS, BATCH_REJECTED }
+
+        static final class BatchResult {
+            private final PostingStatus[] statuses;
+            private final int applied;
+
+            BatchResult(PostingStatus[] statuses, int applied) {
+                this.statuses = statuses;
+                this.applied = applied;
+            }
+
+            public PostingStatus getStatus(int i) { return statuses[i]; }
+            public int getApplied() { return applied; }
+            public int size() { return statuses.length; }
+        }
+
+        // Applies a whole batch under one lock pass and one journal record. Accounts are resolved and
+        // amounts validated in a single sweep, every stripe involved is locked once in index order,
+        // and lines run in list order so an earlier credit can fund a later debit.
+        public BatchResult postBatch(List<Posting> postings, BatchMode mode) {
+            long start = System.nanoTime();
+            LedgerMetrics.Outcome outcome = LedgerMetrics.Outcome.ERROR;
+            try {
+                BatchResult result = applyBatch(postings, mode);
+                outcome = result.getApplied() == result.size() ? LedgerMetrics.Outcome.OK
+                        : result.getApplied() == 0 ? LedgerMetrics.Outcome.REJECTED : LedgerMetrics.Outcome.PARTIAL;
+                return result;
+            } finally {
+                metrics.record(LedgerMetrics.Operation.POST_BATCH, outcome, start);
+            }
+        }
+
+        private BatchResult applyBatch(List<Posting> postings, BatchMode mode) {
+            int n = postings.size();
+            PostingStatus[] status = new PostingStatus[n];
+            User[] from = new User[n], to = new User[n];
+            boolean[] involved = new boolean[LOCK_STRIPES];
+            boolean anyInvalid = false;
+            for (int i = 0; i < n; i++) {
+                Posting p = postings.get(i);
+                from[i] = users.get(p.fromId);
+                if (p.kind == Posting.Kind.TRANSFER) to[i] = users.get(p.target);
+                if (from[i] == null || (p.kind == Posting.Kind.TRANSFER && to[i] == null)) status[i] = PostingStatus.UNKNOWN_ACCOUNT;
+                else if (p.amount <= 0) status[i] = PostingStatus.INVALID_AMOUNT;
+                if (status[i] != null) { anyInvalid = true; continue; }
+                involved[stripeIndex(from[i])] = true;
+                if (to[i] != null) involved[stripeIndex(to[i])] = true;
+            }
+            if (anyInvalid && mode == BatchMode.ALL_OR_NOTHING) return rejected(status);
+
+            long seq = 0;
+            int applied = 0;
+            Outbox outbox = outbox();
+            for (int s = 0; s < LOCK_STRIPES; s++) if (involved[s]) stripes[s].lock();
+            try {
+                checkWritable();
+                if (mode == BatchMode.ALL_OR_NOTHING && !dryRun(postings, from, to, status)) return rejected(status);
+
+                long time = System.currentTimeMillis();
+                Date date = new Date(time);
+                int[] done = new int[n];
+                Transaction[] debits = new Transaction[n], credits = new Transaction[n];
+                for (int i = 0; i < n; i++) {
+                    if (status[i] != null) continue;
+                    Posting p = postings.get(i);
+                    User f = from[i], t = to[i];
+                    if (f.getBalance() < p.amount) { status[i] = PostingStatus.INSUFFICIENT_FUNDS; continue; }
+                    if (t != null && t != f && Long.MAX_VALUE - p.amount < t.getBalance()) { status[i] = PostingStatus.INVALID_AMOUNT; continue; }
+                    f.updateBalance(f.getBalance() - p.amount, time);
+                    if (t != null) {
+                        t.updateBalance(t.getBalance() + p.amount, time);
+                        debits[i] = new Transaction("Transfer Out", -p.amount, "To: " + t.getName(), date);
+                        credits[i] = new Transaction("Transfer In", p.amount, "From: " + f.getName(), date);
+                        t.addTransaction(credits[i]);
+                        outbox.posted(t, credits[i]);
+                    } else {
+                        debits[i] = new Transaction("Bill Payment", -p.amount, "To: " + p.target, date);
+                    }
+                    f.addTransaction(debits[i]);
+                    outbox.posted(f, debits[i]);
+                    status[i] = PostingStatus.APPLIED;
+                    done[applied++] = i;
+                }
+                if (journal != null && applied > 0) seq = journal.batch(time, postings, done, applied, debits, credits);
+            } finally {
+                outbox.claim();
+                for (int s = LOCK_STRIPES - 1; s >= 0; s--) if (involved[s]) stripes[s].unlock();
+                outbox.send();
+            }
+            sync(seq);
+            return new BatchResult(status, applied);
+        }
+
+        // Replays the batch against running balances without touching any account
+        private boolean dryRun(List<Posting> postings, User[] from, User[] to, PostingStatus[] status) {
+            Map<User, long[]> running = new IdentityHashMap<>();
+            for (int i = 0; i < postings.size(); i++) {
+                long amount = postings.get(i).amount;
+                long[] f = running.computeIfAbsent(from[i], u -> new long[]{ u.getBalance() });
+                if (f[0] < amount) { status[i] = PostingStatus.INSUFFICIENT_FUNDS; return false; }
+                f[0] -= amount;
+                if (to[i] != null) {
+                    long[] t = running.computeIfAbsent(to[i], u -> new long[]{ u.getBalance() });
+                    if (Long.MAX_VALUE - amount < t[0]) { status[i] = PostingStatus.INVALID_AMOUNT; return false; }
+                    t[0] += amount;
+                }
+            }
+            return true;
+        }
+
+        private static BatchResult rejected(PostingStatus[] status) {
+            for (int i = 0; i < status.length; i++) if (status[i] == null) status[i] = PostingStatus.BATCH_REJECTED;
+            return new BatchResult(status, 0);
+        }
+
+        // --- Interest ---
+
+        static final class AccrualResult {
+            final LocalDate day;
+            final int scanned, accrued; // accounts looked at / accounts brought up to day
+            final long interest; // paisa posted in total
+            final long nanos;
+
+            AccrualResult(LocalDate day, int scanned, int accrued, long interest, long nanos) {
+                this.day = day;
+                this.scanned = scanned;
+                this.accrued = accrued;
+                this.interest = interest;
+                this.nanos = nanos;
+            }
+
+            @Override public String toString() {
+                return String.format("Interest to %s: %d of %d accounts, %s BDT in %.1f ms",
+                                     day, accrued, scanned, Money.toDecimal(interest).toPlainString(), nanos / 1e6);
+            }
+        }
+
+        private static final long BPS_DAYS_PER_YEAR = 365L * 10_000;
+        private static final int INTEREST_CHUNK = 4096; // accounts per lock hold and per journal record
+
+        // Posts interest for every interest-bearing account up to the end of day. Balances are read
+        // into a primitive column and the interest is worked out over it by a fork/join pass; the
+        // postings are then applied stripe by stripe (stripes in parallel), a chunk per lock hold and
+        // per journal record. Each account remembers the last day it accrued, so a run that was cut
+        // short, or is repeated, only posts what is still missing. An account that missed days (the
+        // ledger was down) accrues them all at once on its current balance.
+        public AccrualResult accrueInterest(LocalDate day) {
+            long start = System.nanoTime();
+            LedgerMetrics.Outcome outcome = LedgerMetrics.Outcome.ERROR;
+            try {
+                InterestColumns c = new InterestColumns(day.toEpochDay(), users.values().toArray(new User[0]));
+                ForkJoinPool pool = AccrualPool.INSTANCE;
+                pool.invoke(new InterestPass(c, 0, c.accounts.length));
+                c.groupByStripe();
+                pool.invoke(new PostInterest(c, 0, LOCK_STRIPES));
+                int accrued = 0;
+                long interest = 0;
+                for (int s = 0; s < LOCK_STRIPES; s++) {
+                    accrued += c.accrued[s];
+                    interest += c.posted[s];
+                }
+                outcome = LedgerMetrics.Outcome.OK;
+                return new AccrualResult(day, c.accounts.length, accrued, interest, System.nanoTime() - start);
+            } finally {
+                metrics.record(LedgerMetrics.Operation.ACCRUE_INTEREST, outcome, start);
+            }
+        }
+
+        // Accrual gets a pool of its own: posting waits on stripe locks and journal fsyncs, which must
+        // not tie up the common pool that parallel streams and CompletableFutures share.
+        // -Dosryn.interestThreads sizes it (default: one per core).
+        static final class AccrualPool {
+            static final ForkJoinPool INSTANCE = new ForkJoinPool(
+                Integer.getInteger("osryn.interestThreads", Runtime.getRuntime().availableProcessors()),
+                pool -> {
+                    ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                    t.setName("ledger-interest-" + t.getPoolIndex());
+                    return t;
+                }, null, false);
+        }
+
+        // Simple interest on the balance for the given number of days, rounded down to the paisa
+        static long interestFor(long balance, int annualRateBps, long days) {
+            if (balance <= 0 || annualRateBps <= 0 || days <= 0) return 0;
+            long factor = annualRateBps * days;
+            if (balance <= Long.MAX_VALUE / factor) return balance * factor / BPS_DAYS_PER_YEAR;
+            return BigInteger.valueOf(balance).multiply(BigInteger.valueOf(factor))
+                             .divide(BigInteger.valueOf(BPS_DAYS_PER_YEAR)).longValue();
+        }
+
+        // Column view of one accrual run: entry i describes accounts[i]
+        private static final class InterestColumns {
+            final long day;
+            final User[] accounts;
+            final long[] balance, accruedFrom, interest;
+            final int[] stripe; // -1 when the account is not due anything
+            int[] order, offsets; // indices of due accounts grouped by stripe, and where each stripe starts
+            final int[] accrued = new int[LOCK_STRIPES];
+            final long[] posted = new long[LOCK_STRIPES];
+
+            InterestColumns(long day, User[] accounts) {
+                this.day = day;
+                this.accounts = accounts;
+                int n = accounts.length;
+                balance = new long[n];
+                accruedFrom = new long[n];
+                interest = new long[n];
+                stripe = new int[n];
+            }
+
+            // Counting sort, so each stripe's accounts can be posted under a single lock
+            void groupByStripe() {
+                offsets = new int[LOCK_STRIPES + 1];
+                for (int s : stripe) if (s >= 0) offsets[s + 1]++;
+                for (int s = 0; s < LOCK_STRIPES; s++) offsets[s + 1] += offsets[s];
+                order = new int[offsets[LOCK_STRIPES]];
+                int[] fill = Arrays.copyOf(offsets, LOCK_STRIPES);
+                for (int i = 0; i < stripe.length; i++) if (stripe[i] >= 0) order[fill[stripe[i]]++] = i;
+            }
+        }
+
+        // Reads balances and accrual days for accounts[lo, hi) and works out what each is owed
+        private static final class InterestPass extends RecursiveAction {
+            private static final int LEAF = 1 << 14;
+            private final InterestColumns c;
+            private final int lo, hi;
+
+            InterestPass(InterestColumns c, int lo, int hi) {
+                this.c = c;
+                this.lo = lo;
+                this.hi = hi;
+            }
+
+            @Override protected void compute() {
+                if (hi - lo > LEAF) {
+                    int mid = (lo + hi) >>> 1;
+                    invokeAll(new InterestPass(c, lo, mid), new InterestPass(c, mid, hi));
+                    return;
+                }
+                for (int i = lo; i < hi; i++) {
+                    User u = c.accounts[i];
+                    int rate = u.getAccountType().annualRateBps;
+                    long from = u.getInterestAccruedThrough();
+                    if (rate == 0 || from >= c.day) {
+                        c.stripe[i] = -1;
+                        continue;
+                    }
+                    c.balance[i] = u.getBalance();
+                    c.accruedFrom[i] = from;
+                    c.interest[i] = interestFor(c.balance[i], rate, c.day - from);
+                    c.stripe[i] = stripeIndex(u);
+                }
+            }
+        }
+
+        private final class PostInterest extends RecursiveAction {
+            private final InterestColumns c;
+            private final int lo, hi; // stripes
+
+            PostInterest(InterestColumns c, int lo, int hi) {
+                this.c = c;
+                this.lo = lo;
+                this.hi = hi;
+            }
+
+            @Override protected void compute() {
+                if (hi - lo > 1) {
+                    int mid = (lo + hi) >>> 1;
+                    invokeAll(new PostInterest(c, lo, mid), new PostInterest(c, mid, hi));
+                } else {
+                    postStripe(c, lo);
+                }
+            }
+        }
+
+        // Zero interest still moves the account's accrual day on (and is journaled for that), so a
+        // small balance can't build up days to be paid later on a bigger one
+        private void postStripe(InterestColumns c, int s) {
+            User[] chunk = new User[INTEREST_CHUNK];
+            long[] amounts = new long[INTEREST_CHUNK], txIds = new long[INTEREST_CHUNK];
+            long seq = 0;
+            Outbox outbox = outbox();
+            for (int k = c.offsets[s], end = c.offsets[s + 1]; k < end; ) {
+                int count = 0;
+                stripes[s].lock();
+                try {
+                    checkWritable();
+                    long time = System.currentTimeMillis();
+                    Date date = new Date(time);
+                    for (; k < end && count < INTEREST_CHUNK; k++) {
+                        int i = c.order[k];
+                        User u = c.accounts[i];
+                        // Another run, or a change of account type, got here first
+                        if (u.getInterestAccruedThrough() != c.accruedFrom[i] || u.getAccountType().annualRateBps == 0) continue;
+                        long amount = c.interest[i];
+                        if (Long.MAX_VALUE - amount < u.getBalance()) continue;
+                        long txId = 0;
+                        if (amount > 0) {
+                            Transaction t = new Transaction("Interest", amount, u.getAccountType().description, date);
+                            u.updateBalance(u.getBalance() + amount, time);
+                            u.addTransaction(t);
+                            txId = t.getIdValue();
+                            outbox.posted(u, t);
+                        }
+                        u.interestAccrued(c.day);
+                        chunk[count] = u;
+                        amounts[count] = amount;
+                        txIds[count++] = txId;
+                        c.posted[s] += amount;
+                    }
+                    c.accrued[s] += count;
+                    if (journal != null && count > 0) seq = journal.interest(c.day, time, chunk, amounts, txIds, count);
+                } finally {
+                    outbox.claim();
+                    stripes[s].unlock();
+                    outbox.send();
+                }
+            }
+            sync(seq);
+        }
+
+        // Accrues up to yesterday now, catching up after downtime, then again just after every
+        // local midnight. A failed run is logged; the next one picks up the days it missed.
+        public void startInterestAccrual() {
+            if (accrualScheduler != null) return;
+            accrualScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "ledger-interest");
+                t.setDaemon(true);
+                return t;
+            });
+            accrualScheduler.execute(this::scheduledAccrual);
+        }
+
+        private void scheduledAccrual() {
+            try { accrueInterest(LocalDate.now().minusDays(1)); }
+            catch (RuntimeException ex) { System.err.println("Interest accrual failed: " + ex); }
+            ZonedDateTime now = ZonedDateTime.now();
+            ZonedDateTime next = now.toLocalDate().plusDays(1).atStartOfDay(now.getZone()).plusMinutes(1);
+            accrualScheduler.schedule(this::scheduledAccrual, ChronoUnit.MILLIS.between(now, next), TimeUnit.MILLISECONDS);
+        }
+
+        // Writes a snapshot of every account without pausing postings. All stripes are held only
+        // while the journal rotates to a new epoch and the open holds are re-logged into it; then each
+        // account is copied under its own stripe along with the journal sequence the copy reflects,
+        // and replay applies a later record only to the accounts copied before it.
+        public void checkpoint() {
+            if (journal == null || snapshotPath == null) return;
+            synchronized (checkpointing) {
+                long epoch;
+                for (ReentrantLock l : stripes) l.lock();
+                try {
+                    if (journal.isEmpty()) return;
+                    epoch = journal.rotate();
+                    // The snapshot has the held balances but not the holds; carry them into the new epoch
+                    long now = System.currentTimeMillis();
+                    for (Map.Entry<String, Prepared> e : prepared.entrySet()) {
+                        Prepared p = e.getValue();
+                        journal.prepared(e.getKey(), p.debit, true, p.accountId, p.counterpartyId, p.amount, now);
+                    }
+                } finally {
+                    for (int i = stripes.length - 1; i >= 0; i--) stripes[i].unlock();
+                }
+                try {
+                    // Accounts opened from here on are left to the journal
+                    LedgerSnapshot.write(snapshotPath, epoch, users.values().toArray(new User[0]), this::image, this::sync);
+                    // Read the snapshot back before the journal it replaces is deleted
+                    long covered = LedgerSnapshot.verify(snapshotPath);
+                    if (covered != epoch) throw new IOException("Snapshot covers epoch " + covered + ", expected " + epoch);
+                    journal.dropThrough(epoch);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+
+        private LedgerSnapshot.Image image(User u) {
+            ReentrantLock lock = stripes[stripeIndex(u)];
+            lock.lock();
+            try {
+                return new LedgerSnapshot.Image(u, journal.appendedSeq());
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public void startCheckpoints(long period, TimeUnit unit) {
+            if (journal == null || snapshotPath == null || checkpointer != null) return;
+            checkpointer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "ledger-checkpoint");
+                t.setDaemon(true);
+                return t;
+            });
+            checkpointer.scheduleWithFixedDelay(() -> {
+                // A failed checkpoint leaves the journal intact; keep the schedule alive and retry next time
+                try { checkpoint(); }
+                catch (RuntimeException ex) { System.err.println("Ledger checkpoint failed: " + ex); }
+            }, period, period, unit);
+        }
+
+        // Records are appended under the account lock but fsynced after it is released,
+        // so concurrent postings can share one group commit
+        private void sync(long seq) {
+            if (journal != null) journal.awaitDurable(seq);
+        }
+
+        // Once a journal write has failed the ledger is read-only: postings applied in memory but
+        // never made durable are gone after a restart, so nothing new may be built on top of them.
+        // Checked under the stripe lock before anything in memory changes.
+        private void checkWritable() {
+            if (journal != null) journal.checkWritable();
+        }
+
+        public boolean isReadOnly() { return journal != null && journal.isFailed(); }
+
+        private static String postingType(byte kind) {
+            switch (kind) {
+                case LedgerJournal.DEPOSIT: return "Deposit";
+                case LedgerJournal.WITHDRAW: return "Withdrawal";
+                case LedgerJournal.BILL_PAYMENT: return "Bill Payment";
+                default: throw new IllegalArgumentException("Not a posting: " + kind);
+            }
+        }
+
+        private static int stripeIndex(User u) {
+            return stripeIndex(u.getAccountId());
+        }
+
+        private static int stripeIndex(String accountId) {
+            int h = accountId.hashCode();
+            return (h ^ (h >>> 16)) & (LOCK_STRIPES - 1);
+        }
+
+        // Rebuilds in-memory state from the journal; runs single-threaded inside the constructor.
+        // A checkpoint copies accounts one by one while postings go on, so a record is skipped only
+        // for the accounts whose snapshot copy already reflects it.
+        private class Replayer implements LedgerJournal.Events {
+            private long seq;
+
+            @Override public void record(long seq) { this.seq = seq; }
+
+            private boolean reflects(User u) { return seq <= u.getRestoredThrough(); }
+
+            @Override public void accountCreated(String accountId, String username, String name, String passwordHash,
+                                                 String email, String phone, long createdAt) {
+                if (users.containsKey(accountId)) return; // copied by a snapshot taken after it opened
+                User u = new User(accountId, username, name, passwordHash, email, phone, new Date(createdAt));
+                users.put(accountId, u);
+                usernames.put(usernameKey(username), u);
+            }
+
+            @Override public void posted(byte kind, String accountId, long amount, String description, String txId, long time) {
+                User u = users.get(accountId);
+                if (u == null || reflects(u)) return;
+                u.updateBalance(Money.add(u.getBalance(), amount), time);
+                u.addTransaction(new Transaction(txId, postingType(kind), amount, description, new Date(time)));
+            }
+
+            @Override public void transferred(String fromId, String toId, long amount, String outTxId, String inTxId, long time) {
+                User sender = users.get(fromId), target = users.get(toId);
+                if (sender == null || target == null) return;
+                Date date = new Date(time);
+                if (!reflects(sender)) {
+                    sender.updateBalance(Money.subtract(sender.getBalance(), amount), time);
+                    sender.addTransaction(new Transaction(outTxId, "Transfer Out", -amount, "To: " + target.getName(), date));
+                }
+                if (!reflects(target)) {
+                    target.updateBalance(Money.add(target.getBalance(), amount), time);
+                    target.addTransaction(new Transaction(inTxId, "Transfer In", amount, "From: " + sender.getName(), date));
+                }
+            }
+
+            @Override public void passwordChanged(String accountId, String passwordHash) {
+                User u = users.get(accountId);
+                if (u != null && !reflects(u)) u.setPasswordHash(passwordHash);
+            }
+
+            @Override public void accountTypeChanged(String accountId, int type, long accruedThrough) {
+                User u = users.get(accountId);
+                if (u != null && !reflects(u)) u.setAccountType(User.AccountType.values()[type], accruedThrough);
+            }
+
+            @Override public void interestAccrued(long day, String accountId, long amount, long txId, long time) {
+                User u = users.get(accountId);
+                if (u == null || reflects(u)) return;
+                if (amount > 0) {
+                    u.updateBalance(Money.add(u.getBalance(), amount), time);
+                    u.addTransaction(new Transaction(txId, "Interest", amount, u.getAccountType().description, new Date(time)));
+                }
+                u.interestAccrued(day);
+            }
+
+            @Override public void prepared(String transferId, boolean debit, boolean carried, String accountId,
+                                           String counterpartyId, long amount, long time) {
+                User u = users.get(accountId);
+                if (u == null) return;
+                // A carried hold is already in the snapshot balance. Holds themselves are never in a
+                // snapshot, so one is restored even when the account's copy reflects its debit.
+                if (debit && !carried && !reflects(u)) u.updateBalance(Money.subtract(u.getBalance(), amount), time);
+                prepared.put(transferId, new Prepared(debit, accountId, counterpartyId, amount));
+            }
+
+            @Override public void resolved(String transferId, boolean commit, String counterpartyName, String entryId, long time) {
+                Prepared p = prepared.remove(transferId);
+                User u = p == null ? null : users.get(p.accountId);
+                if (u == null || reflects(u)) return;
+                if (commit && p.debit) {
+                    u.addTransaction(new Transaction(entryId, "Transfer Out", -p.amount, "To: " + counterpartyName, new Date(time)));
+                } else if (commit) {
+                    u.updateBalance(Money.add(u.getBalance(), p.amount), time);
+                    u.addTransaction(new Transaction(entryId, "Transfer In", p.amount, "From: " + counterpartyName, new Date(time)));
+                } else if (p.debit) {
+                    u.updateBalance(Money.add(u.getBalance(), p.amount), time);
+                }
+            }
+        }
+    }
+
+    // Non-blocking facade over BankService for the UI: every call runs on a worker (a virtual
+    // thread where the JDK has them) so journal fsyncs or lock contention never stall the EDT
+    static final class AsyncBankService {
+        private final BankService service;
+        private final ExecutorService executor;
+
+        AsyncBankService(BankService service) {
+            this(service, newWorkerExecutor());
+        }
+
+        AsyncBankService(BankService service, ExecutorService executor) {
+            this.service = service;
+            this.executor = executor;
+        }
+
+        // Virtual threads need JDK 21; older runtimes get a cached pool of daemon platform threads
+        static ExecutorService newWorkerExecutor() {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                return Executors.newCachedThreadPool(r -> {
+                    Thread t = new Thread(r, "bank-worker");
+                    t.setDaemon(true);
+                    return t;
+                });
+            }
+        }
+
+        public BankService getService() { return service; }
+
+        public CompletableFuture<User> authenticate(String user, String pass) {
+            return CompletableFuture.supplyAsync(() -> service.authenticate(user, pass), executor);
+        }
+
+        public CompletableFuture<User> createAccount(String name, String username, String pass, String email, String phone) {
+            return createAccount(name, username, pass, email, phone, User.AccountType.CURRENT);
+        }
+
+        public CompletableFuture<User> createAccount(String name, String username, String pass, String email, String phone,
+                                                     User.AccountType type) {
+            return CompletableFuture.supplyAsync(() -> service.createAccount(name, username, pass, email, phone, type), executor);
+        }
+
+        public CompletableFuture<Void> deposit(User u, long amt) {
+            return CompletableFuture.runAsync(() -> service.deposit(u, amt), executor);
+        }
+
+        public CompletableFuture<LedgerMetrics.Outcome> withdraw(User u, long amt) {
+            return CompletableFuture.supplyAsync(() -> service.submitWithdraw(u, amt), executor);
+        }
+
+        public CompletableFuture<LedgerMetrics.Outcome> transfer(User sender, String targetId, long amount) {
+            return CompletableFuture.supplyAsync(() -> service.submitTransfer(sender, targetId, amount), executor);
+        }
+
+        public CompletableFuture<LedgerMetrics.Outcome> payBill(User u, String biller, long amt) {
+            return CompletableFuture.supplyAsync(() -> service.submitBill(u, biller, amt), executor);
+        }
+
+        public CompletableFuture<LedgerMetrics.Outcome> approveReview(long id) {
+            return CompletableFuture.supplyAsync(() -> service.approveReview(id), executor);
+        }
+
+        public CompletableFuture<Boolean> changePassword(User u, String current, String next) {
+            return CompletableFuture.supplyAsync(() -> service.changePassword(u, current, next), executor);
+        }
+    }
+
+    // ==========================================
+    //              PERSISTENCE
+    // ==========================================
+
+    // Append-only ledger journal. The file starts with [int magic][long epoch][long sequence before
+    // its first record], then each record is [int length][int crc32][body] and the body starts with
+    // a one-byte tag. A torn or corrupt tail is cut off on replay. A checkpoint rotates the journal:
+    // the current file is closed as <journal>.<epoch> and appends continue in a fresh file for the
+    // next epoch, so record sequence numbers keep counting across files and restarts. A closed file
+    // is deleted once a snapshot covers its epoch.
+    // A failed write or fsync cuts the file back to the last durable record and fails the journal
+    // for good: every later append and sync throws, so the ledger is read-only until restarted.
+    static final class LedgerJournal implements Closeable {
+        enum Durability {
+            PER_OPERATION,  // every record is written and fsynced on its own
+            GROUP_COMMIT    // waiting postings share a single write + fsync
+        }
+
+        static final byte ACCOUNT_CREATED = 1, DEPOSIT = 2, WITHDRAW = 3, TRANSFER = 4, BILL_PAYMENT = 5, PASSWORD_CHANGE = 6, BATCH = 7,
+                          PREPARE = 8, RESOLVE = 9, ACCOUNT_TYPE = 10, INTEREST = 11;
+        private static final int MAGIC = 0x4F534A4C; // "OSJL", the first journals: [magic][epoch], unnumbered
+        private static final int MAGIC_2 = 0x4F534A32; // "OSJ2"
+        private static final int OLD_HEADER = 12, FILE_HEADER = 20, HEADER = 8, MAX_RECORD = 64 << 20; // a whole batch is one record
+
+        // Replay callbacks, invoked in journal order
+        interface Events {
+            void accountCreated(String accountId, String username, String name, String passwordHash,
+                                String email, String phone, long createdAt);
+            void posted(byte kind, String accountId, long amount, String description, String txId, long time);
+            void transferred(String fromId, String toId, long amount, String outTxId, String inTxId, long time);
+            void passwordChanged(String accountId, String passwordHash);
+            void prepared(String transferId, boolean debit, boolean carried, String accountId,
+                          String counterpartyId, long amount, long time);
+            void resolved(String transferId, boolean commit, String counterpartyName, String entryId, long time);
+            void accountTypeChanged(String accountId, int type, long accruedThrough);
+            void interestAccrued(long day, String accountId, long amount, long txId, long time);
+            // Precedes the callbacks of each record with its sequence number
+            void record(long seq);
+        }
+
+        private final Path path;
+        private FileChannel channel; // replaced by rotate
+        private final Durability durability;
+        private final CRC32 crc = new CRC32();
+        // Records accumulate in pending; a flusher swaps it with spare and writes outside the monitor
+        private ByteBuffer pending = ByteBuffer.allocate(1 << 16), spare = ByteBuffer.allocate(1 << 16);
+        private long appendedSeq, durableSeq, baseSeq, epoch; // baseSeq: sequence before the current file's first record
+        private long durableSize; // file length up to the last record known to be on disk
+        private final TreeSet<Long> closed = new TreeSet<>(); // epochs of closed files still on disk
+        private boolean flushing;
+        private int recordStart;
+        private volatile IOException failure; // set once, by the first failed write
+
+        private LedgerJournal(Path path, FileChannel channel, Durability durability) {
+            this.path = path;
+            this.channel = channel;
+            this.durability = durability;
+        }
+
+        static LedgerJournal open(Path path, Durability durability) throws IOException {
+            return new LedgerJournal(path, FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE), durability);
+        }
+
+        // --- Appends (return a sequence number to pass to awaitDurable) ---
+
+        synchronized long accountCreated(User u) {
+            byte[][] f = { utf8(u.getAccountId()), utf8(u.getUsername()), utf8(u.getName()),
+                           utf8(u.getPasswordHash()), utf8(u.getEmail()), utf8(u.getPhone()) };
+            begin(ACCOUNT_CREATED, sizeOf(f) + 8);
+            for (byte[] b : f) putString(b);
+            pending.putLong(u.getDateCreated().getTime());
+            return end();
+        }
+
+        synchronized long posted(byte kind, String accountId, Transaction t) {
+            byte[] id = utf8(accountId), desc = utf8(t.getDescription()), txId = utf8(t.getId());
+            begin(kind, sizeOf(id, desc, txId) + 16);
+            putString(id);
+            pending.putLong(t.getAmount());
+            putString(desc);
+            putString(txId);
+            pending.putLong(t.getDate().getTime());
+            return end();
+        }
+
+        synchronized long transferred(String fromId, String toId, long amount, Transaction out, Transaction in) {
+            byte[] from = utf8(fromId), to = utf8(toId), outId = utf8(out.getId()), inId = utf8(in.getId());
+            begin(TRANSFER, sizeOf(from, to, outId, inId) + 16);
+            putString(from);
+            putString(to);
+            pending.putLong(amount);
+            putString(outId);
+            putString(inId);
+            pending.putLong(out.getDate().getTime());
+            return end();
+        }
+
+        synchronized long passwordChanged(String accountId, String passwordHash) {
+            byte[] id = utf8(accountId), pass = utf8(passwordHash);
+            begin(PASSWORD_CHANGE, sizeOf(id, pass));
+            putString(id);
+            putString(pass);
+            return end();
+        }
+
+        // Phase one of a cross-shard transfer. "carried" marks a hold re-logged after a checkpoint,
+        // whose debit is already in the snapshot balance.
+        synchronized long prepared(String transferId, boolean debit, boolean carried, String accountId,
+                                   String counterpartyId, long amount, long time) {
+            byte[] tx = utf8(transferId), acc = utf8(accountId), other = utf8(counterpartyId);
+            begin(PREPARE, sizeOf(tx, acc, other) + 18);
+            putString(tx);
+            pending.put((byte) (debit ? 1 : 0));
+            pending.put((byte) (carried ? 1 : 0));
+            putString(acc);
+            putString(other);
+            pending.putLong(amount);
+            pending.putLong(time);
+            return end();
+        }
+
+        // Phase two; entryId is the history entry a commit created, empty for an abort
+        synchronized long resolved(String transferId, boolean commit, String counterpartyName, String entryId, long time) {
+            byte[] tx = utf8(transferId), name = utf8(counterpartyName), entry = utf8(entryId);
+            begin(RESOLVE, sizeOf(tx, name, entry) + 9);
+            putString(tx);
+            pending.put((byte) (commit ? 1 : 0));
+            putString(name);
+            putString(entry);
+            pending.putLong(time);
+            return end();
+        }
+
+        synchronized long accountTypeChanged(String accountId, User.AccountType type, long accruedThrough) {
+            byte[] id = utf8(accountId);
+            begin(ACCOUNT_TYPE, sizeOf(id) + 9);
+            putString(id);
+            pending.put((byte) type.ordinal());
+            pending.putLong(accruedThrough);
+            return end();
+        }
+
+        // One chunk of an interest run, all accrued up to the same day. An amount of 0 only moves the
+        // account's accrual day on; no transaction was posted for it, so its txId is 0.
+        synchronized long interest(long day, long time, User[] accounts, long[] amounts, long[] txIds, int count) {
+            byte[][] ids = new byte[count][];
+            for (int k = 0; k < count; k++) ids[k] = utf8(accounts[k].getAccountId());
+            begin(INTEREST, 20 + sizeOf(ids) + count * 16);
+            pending.putLong(day);
+            pending.putLong(time);
+            pending.putInt(count);
+            for (int k = 0; k < count; k++) {
+                putString(ids[k]);
+                pending.putLong(amounts[k]);
+                pending.putLong(txIds[k]);
+            }
+            return end();
+        }
+
+        // One record for the whole batch, so a crash can never replay half of it. Each applied line is
+        // laid out like a standalone TRANSFER / BILL_PAYMENT record minus the shared timestamp.
+        synchronized long batch(long time, List<BankService.Posting> postings, int[] applied, int count,
+                                Transaction[] debits, Transaction[] credits) {
+            byte[][] fields = new byte[count * 4][];
+            int size = 12, f = 0;
+            for (int k = 0; k < count; k++) {
+                int i = applied[k];
+                BankService.Posting p = postings.get(i);
+                fields[f++] = utf8(p.fromId);
+                fields[f++] = utf8(p.kind == BankService.Posting.Kind.TRANSFER ? p.target : debits[i].getDescription());
+                fields[f++] = utf8(debits[i].getId());
+                fields[f++] = credits[i] == null ? null : utf8(credits[i].getId());
+                size += 1 + 8;
+            }
+            begin(BATCH, size + sizeOf(fields));
+            pending.putLong(time);
+            pending.putInt(count);
+            f = 0;
+            for (int k = 0; k < count; k++) {
+                BankService.Posting p = postings.get(applied[k]);
+                pending.put(p.kind == BankService.Posting.Kind.TRANSFER ? TRANSFER : BILL_PAYMENT);
+                putString(fields[f++]);
+                putString(fields[f++]);
+                pending.putLong(p.amount);
+                putString(fields[f++]);
+                putString(fields[f++]);
+            }
+            return end();
+        }
+
+        private void begin(byte tag, int bodySize) {
+            checkWritable();
+            int need = HEADER + 1 + bodySize;
+            if (need > MAX_RECORD) throw new IllegalArgumentException("Journal record too large: " + need);
+            if (pending.remaining() < need) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + need));
+                pending.flip();
+                grown.put(pending);
+                pending = grown;
+            }
+            recordStart = pending.position();
+            pending.position(recordStart + HEADER);
+            pending.put(tag);
+        }
+
+        private long end() {
+            int len = pending.position() - recordStart - HEADER;
+            crc.reset();
+            crc.update(pending.array(), recordStart + HEADER, len);
+            pending.putInt(recordStart, len);
+            pending.putInt(recordStart + 4, (int) crc.getValue());
+            long seq = ++appendedSeq;
+            if (durability == Durability.PER_OPERATION) {
+                try {
+                    writeAndForce(pending);
+                } catch (IOException e) {
+                    fail(e);
+                    throw failed();
+                }
+                pending.clear();
+                durableSeq = seq;
+            }
+            return seq;
+        }
+
+        // --- Failure ---
+
+        // Throws if an earlier write failed; BankService calls it before changing anything in memory
+        void checkWritable() {
+            if (failure != null) throw failed();
+        }
+
+        boolean isFailed() { return failure != null; }
+
+        private UncheckedIOException failed() {
+            return new UncheckedIOException(new IOException("Ledger journal failed, the ledger is read-only until restarted", failure));
+        }
+
+        // Called under the monitor. Records past durableSize may be torn, and replay stops at the
+        // first bad one, so they are cut off; whatever was still pending will never be written.
+        private void fail(IOException e) {
+            if (failure != null) return;
+            try {
+                channel.truncate(durableSize);
+                channel.position(durableSize);
+            } catch (IOException truncate) {
+                e.addSuppressed(truncate);
+            }
+            pending.clear();
+            failure = e;
+        }
+
+        // --- Group commit ---
+
+        // Blocks until every record up to seq is on disk. Whichever caller finds no flush in
+        // progress becomes the leader and writes everything appended so far in one go.
+        void awaitDurable(long seq) {
+            ByteBuffer batch;
+            long upTo;
+            synchronized (this) {
+                while (durableSeq < seq && flushing) awaitFlush();
+                if (durableSeq >= seq) return;
+                if (failure != null) throw failed(); // its record was lost with a failed batch
+                flushing = true;
+                batch = pending;
+                pending = spare;
+                spare = null;
+                upTo = appendedSeq;
+            }
+            IOException error = null;
+            try {
+                writeAndForce(batch);
+            } catch (IOException e) {
+                error = e;
+            }
+            synchronized (this) {
+                batch.clear();
+                spare = batch;
+                flushing = false;
+                // durableSeq never moves past a failed batch, so its waiters (and everyone after) fail
+                if (error == null) durableSeq = upTo;
+                else fail(error);
+                notifyAll();
+            }
+            if (error != null) throw failed();
+        }
+
+        private void awaitFlush() {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new UncheckedIOException(new InterruptedIOException("Interrupted awaiting journal commit"));
+            }
+        }
+
+        // Only one writer at a time: the group commit leader, or an appender under the monitor
+        private void writeAndForce(ByteBuffer buf) throws IOException {
+            buf.flip();
+            while (buf.hasRemaining()) channel.write(buf);
+            channel.force(false);
+            durableSize = channel.position();
+        }
+
+        // --- Snapshot support ---
+
+        synchronized long appendedSeq() { return appendedSeq; }
+
+        synchronized boolean isEmpty() { return appendedSeq == baseSeq && closed.isEmpty(); }
+
+        // Closes the current file as <journal>.<epoch> and carries on in a fresh one for the next
+        // epoch, returning the closed epoch. Everything appended so far is made durable first, so
+        // the closed file is complete; it stays on disk until dropThrough is told a snapshot covers it.
+        synchronized long rotate() {
+            while (flushing) awaitFlush();
+            checkWritable();
+            long closedEpoch = epoch;
+            try {
+                if (pending.position() > 0) writeAndForce(pending);
+                pending.clear();
+                durableSeq = appendedSeq;
+                channel.close();
+                Files.move(path, closedFile(closedEpoch), StandardCopyOption.ATOMIC_MOVE);
+                closed.add(closedEpoch);
+                channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                startFile(closedEpoch + 1);
+            } catch (IOException e) {
+                fail(e);
+                throw failed();
+            } finally {
+                notifyAll();
+            }
+            return closedEpoch;
+        }
+
+        // Deletes the closed files of every epoch up to coveredEpoch, once a snapshot holds them
+        synchronized void dropThrough(long coveredEpoch) throws IOException {
+            while (!closed.isEmpty() && closed.first() <= coveredEpoch) {
+                Files.deleteIfExists(closedFile(closed.first()));
+                closed.pollFirst();
+            }
+        }
+
+        // Called under the monitor: writes the header of an empty current file
+        private void startFile(long newEpoch) throws IOException {
+            channel.truncate(0);
+            channel.position(0);
+            ByteBuffer head = ByteBuffer.allocate(FILE_HEADER);
+            head.putInt(MAGIC_2).putLong(newEpoch).putLong(appendedSeq).flip();
+            while (head.hasRemaining()) channel.write(head);
+            channel.force(true);
+            durableSize = FILE_HEADER;
+            epoch = newEpoch;
+            baseSeq = appendedSeq;
+        }
+
+        private Path closedFile(long closedEpoch) {
+            return path.resolveSibling(path.getFileName() + "." + closedEpoch);
+        }
+
+        private List<Long> closedEpochs() throws IOException {
+            String prefix = path.getFileName() + ".";
+            List<Long> epochs = new ArrayList<>();
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(path.toAbsolutePath().getParent(),
+                    f -> f.getFileName().toString().startsWith(prefix))) {
+                for (Path f : files) {
+                    String suffix = f.getFileName().toString().substring(prefix.length());
+                    if (!suffix.isEmpty() && suffix.chars().allMatch(Character::isDigit)) epochs.add(Long.parseLong(suffix));
+                }
+            }
+            Collections.sort(epochs);
+            return epochs;
+        }
+
+        // --- Replay ---
+
+        // Replays the closed files the snapshot does not cover, oldest first, then the current file,
+        // and truncates anything after its last good record. Files the snapshot covers are deleted;
+        // if it covers the current one too, a fresh one is started. restoredThrough is the newest
+        // record any restored account reflects, so a fresh file's numbering starts past it.
+        synchronized void replay(long coveredEpoch, long restoredThrough, Events sink) throws IOException {
+            long lastEpoch = coveredEpoch;
+            for (long e : closedEpochs()) {
+                if (e <= coveredEpoch) {
+                    Files.deleteIfExists(closedFile(e));
+                    continue;
+                }
+                try (FileChannel ch = FileChannel.open(closedFile(e), StandardOpenOption.READ)) {
+                    replayFile(ch, coveredEpoch, sink);
+                }
+                closed.add(e);
+                lastEpoch = e;
+            }
+            long good = replayFile(channel, coveredEpoch, sink);
+            if (good < 0) {
+                appendedSeq = durableSeq = Math.max(appendedSeq, restoredThrough);
+                startFile(lastEpoch + 1);
+                return;
+            }
+            channel.truncate(good);
+            channel.position(good);
+            durableSize = good;
+        }
+
+        // Streams every intact record of one file to the sink and returns the length up to the last
+        // good one, or -1 if the file has no header or belongs to an epoch the snapshot covers
+        private long replayFile(FileChannel ch, long coveredEpoch, Events sink) throws IOException {
+            ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+            ch.position(0);
+            while (buf.position() < FILE_HEADER && ch.read(buf) >= 0) { }
+            int magic = buf.position() >= OLD_HEADER ? buf.getInt(0) : 0;
+            int header = magic == MAGIC ? OLD_HEADER : magic == MAGIC_2 ? FILE_HEADER : -1;
+            if (header < 0 || buf.position() < header || buf.getLong(4) <= coveredEpoch) return -1;
+            epoch = buf.getLong(4);
+            // The first journals were not numbered; their records simply continue the count
+            long seq = header == FILE_HEADER ? buf.getLong(12) : appendedSeq;
+            baseSeq = seq;
+            buf.flip().position(header);
+            buf.compact();
+            long good = header;
+            boolean eof = false, corrupt = false;
+            while (!eof && !corrupt) {
+                eof = ch.read(buf) < 0;
+                buf.flip();
+                while (buf.remaining() >= HEADER) {
+                    int start = buf.position();
+                    int len = buf.getInt(start);
+                    if (len <= 0 || len > MAX_RECORD) { corrupt = true; break; }
+                    if (buf.remaining() < HEADER + len) {
+                        if (HEADER + len > buf.capacity()) {
+                            ByteBuffer grown = ByteBuffer.allocate(HEADER + len);
+                            grown.put(buf);
+                            grown.flip();
+                            buf = grown;
+                        }
+                        break;
+                    }
+                    crc.reset();
+                    crc.update(buf.array(), start + HEADER, len);
+                    if ((int) crc.getValue() != buf.getInt(start + 4)) { corrupt = true; break; }
+                    buf.position(start + HEADER);
+                    sink.record(++seq);
+                    dispatch(buf, sink);
+                    buf.position(start + HEADER + len);
+                    good += HEADER + len;
+                }
+                buf.compact();
+            }
+            appendedSeq = durableSeq = seq;
+            return good;
+        }
+
+        private static void dispatch(ByteBuffer b, Events sink) {
+            byte tag = b.get();
+            switch (tag) {
+                case ACCOUNT_CREATED:
+                    sink.accountCreated(getString(b), getString(b), getString(b), getString(b),
+                                        getString(b), getString(b), b.getLong());
+                    break;
+                case DEPOSIT:
+                case WITHDRAW:
+                case BILL_PAYMENT: {
+                    String id = getString(b);
+                    long amount = b.getLong();
+                    sink.posted(tag, id, amount, getString(b), getString(b), b.getLong());
+                    break;
+                }
+                case TRANSFER: {
+                    String from = getString(b), to = getString(b);
+                    long amount = b.getLong();
+                    sink.transferred(from, to, amount, getString(b), getString(b), b.getLong());
+                    break;
+                }
+                case PASSWORD_CHANGE:
+                    sink.passwordChanged(getString(b), getString(b));
+                    break;
+                case BATCH: {
+                    long time = b.getLong();
+                    for (int i = b.getInt(); i > 0; i--) {
+                        byte kind = b.get();
+                        String from = getString(b), target = getString(b);
+                        long amount = b.getLong();
+                        String debitId = getString(b), creditId = getString(b);
+                        if (kind == TRANSFER) sink.transferred(from, target, amount, debitId, creditId, time);
+                        else sink.posted(BILL_PAYMENT, from, -amount, target, debitId, time);
+                    }
+                    break;
+                }
+                case PREPARE: {
+                    String tx = getString(b);
+                    boolean debit = b.get() == 1, carried = b.get() == 1;
+                    String account = getString(b), other = getString(b);
+                    sink.prepared(tx, debit, carried, account, other, b.getLong(), b.getLong());
+                    break;
+                }
+                case RESOLVE: {
+                    String tx = getString(b);
+                    boolean commit = b.get() == 1;
+                    sink.resolved(tx, commit, getString(b), getString(b), b.getLong());
+                    break;
+                }
+                case ACCOUNT_TYPE:
+                    sink.accountTypeChanged(getString(b), b.get(), b.getLong());
+                    break;
+                case INTEREST: {
+                    long day = b.getLong(), time = b.getLong();
+                    for (int i = b.getInt(); i > 0; i--) {
+                        String id = getString(b);
+                        long amount = b.getLong();
+                        sink.interestAccrued(day, id, amount, b.getLong(), time);
+                    }
+                    break;
+                }
+                default:
+                    throw new IllegalStateException("Unknown journal record tag " + tag);
+            }
+        }
+
+        // --- Encoding ---
+
+        private static byte[] utf8(String s) {
+            return s == null ? null : s.getBytes(StandardCharsets.UTF_8);
+        }
+
+        private static int sizeOf(byte[]... fields) {
+            int n = 0;
+            for (byte[] f : fields) n += 4 + (f == null ? 0 : f.length);
+            return n;
+        }
+
+        private void putString(byte[] b) {
+            if (b == null) { pending.putInt(-1); return; }
+            pending.putInt(b.length);
+            pending.put(b);
+        }
+
+        private static String getString(ByteBuffer b) {
+            int n = b.getInt();
+            if (n < 0) return null;
+            String s = new String(b.array(), b.arrayOffset() + b.position(), n, StandardCharsets.UTF_8);
+            b.position(b.position() + n);
+            return s;
+        }
+
+        @Override public synchronized void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    // Copy of every account: [int magic][int version][long epoch][int count], the accounts, then a
+    // trailing crc32 of everything before it. Accounts are copied one at a time while postings go
+    // on, so each carries the journal sequence it reflects. Loaded through a read-only memory map
+    // so startup decodes straight from the page cache.
+    static final class LedgerSnapshot {
+        private static final int MAGIC = 0x4F534E50; // "OSNP"
+        // 2: balance series and the history completeness flag; 3: transaction ids as longs instead of
+        // strings; 4: account types; 5: the journal sequence of each account
+        private static final int VERSION = 5;
+
+        interface Sink {
+            void expect(int accounts);
+            void account(User u);
+        }
+
+        private LedgerSnapshot() {}
+
+        // One account as of a journal sequence, copied under its stripe lock and written out after
+        // the lock is released. Transactions are append-only, so only their count is taken.
+        static final class Image {
+            final String passwordHash;
+            final long balance, accruedThrough, transactions, journalSeq;
+            final long[] history;
+            final boolean historyComplete;
+            final BalanceSeries series;
+            final User.AccountType type;
+
+            Image(User u, long journalSeq) {
+                this.passwordHash = u.getPasswordHash();
+                this.balance = u.getBalance();
+                this.history = u.getBalanceHistory().toArray();
+                this.historyComplete = u.getBalanceHistory().isComplete();
+                this.series = u.getBalanceSeries().copy();
+                this.type = u.getAccountType();
+                this.accruedThrough = u.getInterestAccruedThrough();
+                this.transactions = u.getTransactions().size();
+                this.journalSeq = journalSeq;
+            }
+        }
+
+        // Written to a temp file and atomically renamed, so a crash never leaves a half snapshot.
+        // Before the rename, awaitJournal gets the newest sequence any copy reflects and must return
+        // only once the journal is durable that far: replay repairs an account copied before a
+        // transfer from the transfer's record, so that record has to survive a crash.
+        static void write(Path path, long epoch, User[] accounts, Function<User, Image> capture,
+                          LongConsumer awaitJournal) throws IOException {
+            Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+            long through = 0;
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                Writer w = new Writer(ch);
+                w.putInt(MAGIC);
+                w.putInt(VERSION);
+                w.putLong(epoch);
+                w.putInt(accounts.length);
+                for (User u : accounts) {
+                    Image image = capture.apply(u);
+                    through = Math.max(through, image.journalSeq);
+                    w.putString(u.getAccountId());
+                    w.putString(u.getUsername());
+                    w.putString(u.getName());
+                    w.putString(image.passwordHash);
+                    w.putString(u.getEmail());
+                    w.putString(u.getPhone());
+                    w.putLong(u.getDateCreated().getTime());
+                    w.putLong(image.balance);
+                    w.putInt(image.historyComplete ? image.history.length : -image.history.length - 1);
+                    for (long v : image.history) w.putLong(v);
+                    image.series.write(w);
+                    w.putInt(image.type.ordinal());
+                    w.putLong(image.accruedThrough);
+                    w.putLong(image.journalSeq);
+                    TransactionHistory txs = u.getTransactions();
+                    w.putLong(image.transactions);
+                    for (long j = 0; j < image.transactions; ) {
+                        Transaction[] chunk = txs.chunkAt(j);
+                        for (int off = (int) (j % TransactionHistory.CHUNK); off < chunk.length && j < image.transactions; off++, j++) {
+                            Transaction t = chunk[off];
+                            w.putLong(t.getIdValue());
+                            w.putString(t.getType());
+                            w.putLong(t.getAmount());
+                            w.putString(t.getDescription());
+                            w.putLong(t.getDate().getTime());
+                        }
+                    }
+                }
+                w.finish();
+                ch.force(true);
+            }
+            awaitJournal.accept(through);
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        // Hands each restored account to the sink and returns the journal epoch the snapshot covers.
+        // The file is streamed through a fixed buffer, so there is no limit on its size.
+        static long load(Path path, Sink sink) throws IOException {
+            try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+                Reader r = checked(ch, path);
+                int version = version(r, path);
+                long epoch = r.getLong();
+                int count = r.getInt();
+                if (version == 1) {
+                    loadVersion1(r, count, sink, path);
+                    return epoch;
+                }
+                sink.expect(count);
+                for (int i = 0; i < count; i++) {
+                    User u = new User(r.string(), r.string(), r.string(), r.string(), r.string(), r.string(),
+                                      new Date(r.getLong()));
+                    long balance = r.getLong();
+                    int points = r.getInt();
+                    boolean complete = points >= 0;
+                    if (!complete) points = -points - 1;
+                    long[] history = new long[points];
+                    for (int j = 0; j < points; j++) history[j] = r.getLong();
+                    u.restore(balance, history, complete);
+                    u.getBalanceSeries().read(r);
+                    if (version >= 4) u.setAccountType(User.AccountType.values()[r.getInt()], r.getLong());
+                    if (version >= 5) u.setRestoredThrough(r.getLong());
+                    long txCount = r.getLong();
+                    for (long j = 0; j < txCount; j++) {
+                        long id = version == 2 ? IdService.decodeTransactionId(r.string()) : r.getLong();
+                        String type = r.string();
+                        long amount = r.getLong();
+                        u.addTransaction(new Transaction(id, type, amount, r.string(), new Date(r.getLong())));
+                    }
+                    sink.account(u);
+                }
+                return epoch;
+            }
+        }
+
+        // Checks the snapshot the way load would read it and returns the epoch it covers. A
+        // checkpoint calls this before it drops any journal file the snapshot stands in for.
+        static long verify(Path path) throws IOException {
+            try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+                Reader r = checked(ch, path);
+                version(r, path);
+                return r.getLong();
+            }
+        }
+
+        // A reader over the body, once the trailing checksum is known to match it
+        private static Reader checked(FileChannel ch, Path path) throws IOException {
+            long size = ch.size();
+            if (size < 24) throw new IOException("Truncated ledger snapshot: " + path);
+            Reader r = new Reader(ch, size - 4);
+            ByteBuffer trailer = ByteBuffer.allocate(4);
+            while (trailer.hasRemaining()) {
+                if (ch.read(trailer, size - 4 + trailer.position()) < 0) throw new IOException("Truncated ledger snapshot: " + path);
+            }
+            if (r.checksum() != trailer.getInt(0)) throw new IOException("Corrupt ledger snapshot: " + path);
+            return r;
+        }
+
+        private static int version(Reader r, Path path) throws IOException {
+            if (r.getInt() != MAGIC) throw new IOException("Not a ledger snapshot: " + path);
+            int version = r.getInt();
+            if (version < 1 || version > VERSION) throw new IOException("Unsupported snapshot version " + version + ": " + path);
+            return version;
+        }
+
+        // Version 1 has no balance series and no completeness flag, so the series is rebuilt from
+        // the transactions and the balance ring is taken to be incomplete. Its first builds wrote the
+        // transaction count as an int and later ones as a long without bumping the version; the
+        // layout that decodes to exactly the end of the file is the one that was written.
+        private static void loadVersion1(Reader r, int count, Sink sink, Path path) throws IOException {
+            long start = r.position();
+            for (boolean intCounts : new boolean[] { false, true }) {
+                r.seek(start);
+                List<User> accounts = new ArrayList<>(count);
+                try {
+                    for (int i = 0; i < count; i++) accounts.add(readVersion1(r, intCounts));
+                } catch (RuntimeException wrongLayout) {
+                    continue;
+                }
+                if (r.remaining() != 0) continue;
+                sink.expect(count);
+                for (User u : accounts) sink.account(u);
+                return;
+            }
+            throw new IOException("Unreadable version 1 ledger snapshot: " + path);
+        }
+
+        private static User readVersion1(Reader r, boolean intCounts) throws IOException {
+            User u = new User(r.string(), r.string(), r.string(), r.string(), r.string(), r.string(), new Date(r.getLong()));
+            long balance = r.getLong();
+            int points = r.getInt();
+            if (points < 0 || points > r.remaining() / 8) throw new IllegalArgumentException("Bad history length " + points);
+            long[] history = new long[points];
+            for (int j = 0; j < points; j++) history[j] = r.getLong();
+            u.restore(balance, history, false);
+            long txCount = intCounts ? r.getInt() : r.getLong();
+            if (txCount < 0 || txCount > r.remaining()) throw new IllegalArgumentException("Bad transaction count " + txCount);
+            long[] times = new long[(int) txCount], amounts = new long[(int) txCount];
+            long opening = balance;
+            for (int j = 0; j < txCount; j++) {
+                long id = IdService.decodeTransactionId(r.string());
+                String type = r.string();
+                amounts[j] = r.getLong();
+                String description = r.string();
+                times[j] = r.getLong();
+                u.addTransaction(new Transaction(id, type, amounts[j], description, new Date(times[j])));
+                opening -= amounts[j];
+            }
+            // Version 1 predates interest and cross-shard holds: every balance change is a transaction
+            BalanceSeries series = u.getBalanceSeries();
+            long running = opening;
+            for (int j = 0; j < times.length; j++) series.record(times[j], running += amounts[j]);
+            return u;
+        }
+
+        // Buffered channel writer that checksums everything it writes
+        static final class Writer {
+            private final FileChannel ch;
+            private final ByteBuffer buf = ByteBuffer.allocateDirect(1 << 20);
+            private final CRC32 crc = new CRC32();
+
+            Writer(FileChannel ch) { this.ch = ch; }
+
+            void putInt(int v) throws IOException { ensure(4); buf.putInt(v); }
+            void putLong(long v) throws IOException { ensure(8); buf.putLong(v); }
+
+            void putString(String s) throws IOException {
+                if (s == null) { putInt(-1); return; }
+                byte[] b = s.getBytes(StandardCharsets.UTF_8);
+                putInt(b.length);
+                if (b.length > buf.capacity()) {
+                    flush();
+                    crc.update(b, 0, b.length);
+                    ByteBuffer big = ByteBuffer.wrap(b);
+                    while (big.hasRemaining()) ch.write(big);
+                } else {
+                    ensure(b.length);
+                    buf.put(b);
+                }
+            }
+
+            void finish() throws IOException {
+                flush();
+                buf.putInt((int) crc.getValue()).flip();
+                while (buf.hasRemaining()) ch.write(buf);
+            }
+
+            private void ensure(int n) throws IOException {
+                if (buf.remaining() < n) flush();
+            }
+
+            private void flush() throws IOException {
+                buf.flip();
+                crc.update(buf.duplicate());
+                while (buf.hasRemaining()) ch.write(buf);
+                buf.clear();
+            }
+        }
+
+        // Sequential reader over the snapshot body (everything before the checksum), refilled from
+        // the channel a buffer at a time. Reading past the body throws BufferUnderflowException.
+        static final class Reader {
+            private final FileChannel ch;
+            private final long end;
+            private final ByteBuffer buf = ByteBuffer.allocateDirect(1 << 20);
+            private long bufStart; // file offset of the buffer's first byte
+            private byte[] scratch = new byte[256];
+
+            Reader(FileChannel ch, long end) {
+                this.ch = ch;
+                this.end = end;
+                buf.limit(0);
+            }
+
+            long position() { return bufStart + buf.position(); }
+            long remaining() { return end - position(); }
+
+            void seek(long at) {
+                bufStart = at;
+                buf.clear().limit(0);
+            }
+
+            // CRC-32 of the whole body, as Writer computed it; leaves the reader at the start
+            int checksum() throws IOException {
+                CRC32 crc = new CRC32();
+                seek(0);
+                while (remaining() > 0) {
+                    ensure((int) Math.min(buf.capacity(), remaining()));
+                    crc.update(buf);
+                }
+                seek(0);
+                return (int) crc.getValue();
+            }
+
+            int getInt() throws IOException { ensure(4); return buf.getInt(); }
+            long getLong() throws IOException { ensure(8); return buf.getLong(); }
+
+            String string() throws IOException {
+                int n = getInt();
+                if (n < 0) return null;
+                if (n > remaining()) throw new java.nio.BufferUnderflowException();
+                if (n > scratch.length) scratch = new byte[Math.max(n, scratch.length * 2)];
+                for (int off = 0; off < n; ) {
+                    ensure(Math.min(n - off, buf.capacity()));
+                    int k = Math.min(n - off, buf.remaining());
+                    buf.get(scratch, off, k);
+                    off += k;
+                }
+                return new String(scratch, 0, n, StandardCharsets.UTF_8);
+            }
+
+            private void ensure(int n) throws IOException {
+                if (buf.remaining() >= n) return;
+                if (n > remaining()) throw new java.nio.BufferUnderflowException();
+                bufStart += buf.position();
+                buf.compact();
+                buf.limit((int) Math.min(buf.capacity(), end - bufStart));
+                while (buf.hasRemaining()) {
+                    if (ch.read(buf, bufStart + buf.position()) < 0) throw new IOException("Ledger snapshot shrank while loading");
+                }
+                buf.flip();
+            }
+        }
+    }
+
+    // ==========================================
+    //              HEADLESS API
+    // ==========================================
+
+    // Local HTTP/JSON front end for BankService, served on virtual threads where available.
+    // POST /accounts and /login are open; every other call needs "Authorization: Bearer <token>".
+    // A token lasts -Dosryn.sessionMinutes (default 30) since its last use, ends at POST /logout,
+    // and stops working as soon as the account's password changes.
+    // Amounts are sent as decimal BDT strings ("125.50") and returned as integer paisa.
+    // A shard process also serves the /shard/* routes its router uses (see shardRoute).
+    static final class LedgerApiServer {
+        private final BankService bank;
+        private final HttpServer server;
+        private final byte[] shardSecret; // null unless this process is a shard
+        private final ExecutorService executor = AsyncBankService.newWorkerExecutor();
+        private final ConcurrentMap<String, Session> sessions = new ConcurrentHashMap<>();
+        private final long sessionTtlNanos = TimeUnit.MINUTES.toNanos(Long.getLong("osryn.sessionMinutes", 30));
+        private final AtomicLong nextSweep = new AtomicLong(System.nanoTime());
+        private final SecureRandom random = new SecureRandom();
+        // Open GET /events streams by account. They all share one bus subscription, opened with the
+        // first stream and closed with the last, whose thread hands each event to its account's streams.
+        private final ConcurrentMap<String, List<EventStream>> streams = new ConcurrentHashMap<>();
+        private LedgerEventBus.Subscription fanOut; // guarded by streams
+
+        private static final class EventStream {
+            final BlockingQueue<LedgerEvent> pending = new ArrayBlockingQueue<>(1024);
+            final AtomicBoolean overrun = new AtomicBoolean();
+
+            void offer(LedgerEvent e) {
+                if (!pending.offer(e)) overrun.set(true);
+            }
+        }
+
+        // A signed-in token. It is bound to the password hash it was issued under, so a password
+        // change (which always stores a new salted hash) ends every session opened before it.
+        private static final class Session {
+            final User user;
+            final String passwordHash;
+            volatile long expiresAt;
+
+            Session(User user, String passwordHash, long expiresAt) {
+                this.user = user;
+                this.passwordHash = passwordHash;
+                this.expiresAt = expiresAt;
+            }
+        }
+
+        LedgerApiServer(BankService bank, int port) throws IOException {
+            this(bank, port, null);
+        }
+
+        // A non-null shardSecret also serves the /shard/* routes, to callers that present it
+        LedgerApiServer(BankService bank, int port, String shardSecret) throws IOException {
+            this.bank = bank;
+            this.shardSecret = shardSecret == null ? null : shardSecret.getBytes(StandardCharsets.UTF_8);
+            this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 1024);
+            server.setExecutor(executor);
+            server.createContext("/", this::handle);
+        }
+
+        void start() { server.start(); }
+
+        void stop() {
+            server.stop(0);
+            executor.shutdown();
+        }
+
+        int getPort() { return server.getAddress().getPort(); }
+
+        private void handle(HttpExchange ex) throws IOException {
+            try {
+                String path = ex.getRequestURI().getPath();
+                if (shardSecret != null && path.startsWith("/shard/")) {
+                    shardRoute(ex, path);
+                    return;
+                }
+                String route = ex.getRequestMethod() + " " + path;
+                switch (route) {
+                    case "POST /accounts": createAccount(ex); break;
+                    case "POST /login": login(ex); break;
+                    case "POST /logout": logout(ex); break;
+                    case "GET /balance": balance(ex, session(ex)); break;
+                    case "POST /deposit": deposit(ex, session(ex)); break;
+                    case "POST /withdraw": withdraw(ex, session(ex)); break;
+                    case "POST /transfer": transfer(ex, session(ex)); break;
+                    case "POST /bills": payBill(ex, session(ex)); break;
+                    case "GET /transactions": transactions(ex, session(ex)); break;
+                    case "GET /metrics": metrics(ex, session(ex)); break;
+                    case "GET /statement": statement(ex, session(ex)); break;
+                    case "GET /events": events(ex, session(ex)); break;
+                    case "GET /reviews": reviews(ex, session(ex)); break;
+                    case "POST /reviews/approve": decideReview(ex, session(ex), true); break;
+                    case "POST /reviews/decline": decideReview(ex, session(ex), false); break;
+                    default: send(ex, 404, error("Unknown endpoint"));
+                }
+            } catch (ApiException e) {
+                fail(ex, e.status, e.getMessage());
+            } catch (UncheckedIOException e) {
+                fail(ex, 500, "Ledger unavailable");
+            } catch (RejectedExecutionException e) {
+                fail(ex, 503, "Too many sign-in attempts, retry shortly");
+            } catch (RuntimeException e) {
+                fail(ex, 400, "Invalid request");
+            } finally {
+                ex.close();
+            }
+        }
+
+        private void createAccount(HttpExchange ex) throws IOException {
+            Map<String, String> body = readJson(ex);
+            String username = required(body, "username"), password = required(body, "password");
+            if (!bank.getPartition().owns(username)) throw new ApiException(421, "Username belongs to another shard");
+            User.AccountType type = User.AccountType.valueOf(body.getOrDefault("type", "current").toUpperCase(Locale.ROOT));
+            User u = bank.createAccount(body.getOrDefault("name", ""), username, password,
+                                        body.getOrDefault("email", ""), body.getOrDefault("phone", ""), type);
+            if (u == null) throw new ApiException(409, "Username Unavailable");
+            send(ex, 201, new Json().field("accountId", u.getAccountId()).end());
+        }
+
+        private void login(HttpExchange ex) throws IOException {
+            Map<String, String> body = readJson(ex);
+            User u = bank.authenticate(required(body, "username"), required(body, "password"));
+            if (u == null) throw new ApiException(401, "Invalid Credentials");
+            byte[] raw = new byte[16];
+            random.nextBytes(raw);
+            StringBuilder token = new StringBuilder(32);
+            for (byte b : raw) token.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            sweepSessions();
+            sessions.put(token.toString(), new Session(u, u.getPasswordHash(), System.nanoTime() + sessionTtlNanos));
+            send(ex, 200, new Json().field("token", token.toString()).field("accountId", u.getAccountId()).end());
+        }
+
+        private void logout(HttpExchange ex) throws IOException {
+            String token = bearer(ex);
+            if (token == null || sessions.remove(token) == null) throw new ApiException(401, "Not signed in");
+            send(ex, 200, "{}");
+        }
+
+        // At most once a minute, on a login, drop the sessions that have lapsed, so tokens that are
+        // never used again (or never logged out) don't pile up
+        private void sweepSessions() {
+            long now = System.nanoTime(), due = nextSweep.get();
+            if (now - due < 0 || !nextSweep.compareAndSet(due, now + TimeUnit.MINUTES.toNanos(1))) return;
+            sessions.values().removeIf(s -> !live(s, now));
+        }
+
+        private static boolean live(Session s, long now) {
+            return now - s.expiresAt < 0 && s.passwordHash.equals(s.user.getPasswordHash());
+        }
+
+        private void balance(HttpExchange ex, User u) throws IOException {
+            send(ex, 200, new Json().field("accountId", u.getAccountId()).field("type", u.getAccountType().name().toLowerCase(Locale.ROOT))
+                .field("balance", u.getBalance()).end());
+        }
+
+        private void deposit(HttpExchange ex, User u) throws IOException {
+            bank.deposit(u, Money.parse(required(readJson(ex), "amount")));
+            balance(ex, u);
+        }
+
+        private void withdraw(HttpExchange ex, User u) throws IOException {
+            posted(ex, u, bank.submitWithdraw(u, Money.parse(required(readJson(ex), "amount"))), "Insufficient Funds");
+        }
+
+        private void transfer(HttpExchange ex, User u) throws IOException {
+            Map<String, String> body = readJson(ex);
+            posted(ex, u, bank.submitTransfer(u, required(body, "to"), Money.parse(required(body, "amount"))),
+                   "Transaction Failed (Check ID/Balance)");
+        }
+
+        private void payBill(HttpExchange ex, User u) throws IOException {
+            Map<String, String> body = readJson(ex);
+            posted(ex, u, bank.submitBill(u, required(body, "biller"), Money.parse(required(body, "amount"))), "Insufficient Funds");
+        }
+
+        // 200 with the new balance, 202 when a risk rule held the posting for review
+        private void posted(HttpExchange ex, User u, LedgerMetrics.Outcome outcome, String failure) throws IOException {
+            if (accepted(ex, outcome, failure)) balance(ex, u);
+        }
+
+        // True if the posting went through. Otherwise answers 202 for a posting held for review, or
+        // fails with 403 when a risk rule blocked it and 409 for anything else.
+        private static boolean accepted(HttpExchange ex, LedgerMetrics.Outcome outcome, String failure) throws IOException {
+            switch (outcome) {
+                case OK: return true;
+                case HELD_FOR_REVIEW: send(ex, 202, new Json().field("status", "review").end()); return false;
+                case RISK_BLOCKED: throw new ApiException(403, "Blocked by risk controls");
+                default: throw new ApiException(409, failure);
+            }
+        }
+
+        // Admin only: postings held by risk rules, oldest first
+        private void reviews(HttpExchange ex, User u) throws IOException {
+            requireAdmin(u);
+            StringBuilder items = new StringBuilder("[");
+            for (BankService.Review r : bank.pendingReviews()) {
+                if (items.length() > 1) items.append(',');
+                Json json = new Json().field("id", r.id).field("operation", r.operation.name()).field("account", r.accountId)
+                    .field("amount", r.amount).field("rule", r.rule).field("time", r.time);
+                if (r.target != null) json.field("target", r.target);
+                items.append(json.end());
+            }
+            items.append(']');
+            send(ex, 200, new Json().raw("items", items.toString()).end());
+        }
+
+        private void decideReview(HttpExchange ex, User u, boolean approve) throws IOException {
+            requireAdmin(u);
+            long id = Long.parseLong(required(readJson(ex), "id"));
+            if (!approve) {
+                if (!bank.declineReview(id)) throw new ApiException(404, "No such review");
+                send(ex, 200, new Json().field("outcome", "DECLINED").end());
+                return;
+            }
+            LedgerMetrics.Outcome outcome = bank.approveReview(id);
+            if (outcome == null) throw new ApiException(404, "No such review");
+            send(ex, 200, new Json().field("outcome", outcome.name()).end());
+        }
+
+        private static void requireAdmin(User u) {
+            if (!"admin".equalsIgnoreCase(u.getUsername())) throw new ApiException(403, "Admin only");
+        }
+
+        // Router-to-shard calls: POST with a JSON body, accounts named by id, amounts in integer paisa.
+        // No sessions (the router has already authenticated the customer), but every call must carry
+        // the coordinator's shared secret. Prepare answers 200 with an "outcome" either way; the
+        // single-shard postings answer like the public routes, 202 when held and 403 when blocked.
+        private void shardRoute(HttpExchange ex, String path) throws IOException {
+            String key = ex.getRequestHeaders().getFirst(ShardedLedger.SECRET_HEADER);
+            if (key == null || !MessageDigest.isEqual(shardSecret, key.getBytes(StandardCharsets.UTF_8))) {
+                throw new ApiException(401, "Shard routes need the coordinator secret");
+            }
+            Map<String, String> body = readJson(ex);
+            switch (path) {
+                case "/shard/account":
+                    account(ex, shardAccount(body, "account"));
+                    break;
+                case "/shard/deposit": {
+                    User u = shardAccount(body, "account");
+                    bank.deposit(u, paisa(body));
+                    account(ex, u);
+                    break;
+                }
+                case "/shard/withdraw": {
+                    User u = shardAccount(body, "account");
+                    if (accepted(ex, bank.submitWithdraw(u, paisa(body)), "Insufficient Funds")) account(ex, u);
+                    break;
+                }
+                case "/shard/bills": {
+                    User u = shardAccount(body, "account");
+                    if (accepted(ex, bank.submitBill(u, required(body, "biller"), paisa(body)), "Insufficient Funds")) {
+                        account(ex, u);
+                    }
+                    break;
+                }
+                case "/shard/transfer": {
+                    User u = shardAccount(body, "from");
+                    LedgerMetrics.Outcome outcome = bank.submitTransfer(u, required(body, "to"), paisa(body));
+                    if (accepted(ex, outcome, "Transaction Failed (Check ID/Balance)")) account(ex, u);
+                    break;
+                }
+                case "/shard/prepare": {
+                    String transfer = required(body, "transfer"), accountId = required(body, "account");
+                    String counterparty = required(body, "counterparty");
+                    long amount = paisa(body);
+                    LedgerMetrics.Outcome outcome = "debit".equals(required(body, "role"))
+                        ? bank.prepareDebit(transfer, accountId, counterparty, amount)
+                        : bank.prepareCredit(transfer, accountId, counterparty, amount);
+                    User u = bank.getAccount(accountId);
+                    send(ex, 200, new Json().field("outcome", outcome.name()).field("name", u == null ? null : u.getName()).end());
+                    break;
+                }
+                case "/shard/commit":
+                    bank.commitPrepared(required(body, "transfer"), required(body, "counterpartyName"));
+                    send(ex, 200, "{}");
+                    break;
+                case "/shard/abort":
+                    bank.abortPrepared(required(body, "transfer"));
+                    send(ex, 200, "{}");
+                    break;
+                default:
+                    send(ex, 404, error("Unknown endpoint"));
+            }
+        }
+
+        private static long paisa(Map<String, String> body) {
+            long amount = Long.parseLong(required(body, "amount"));
+            if (amount <= 0) throw new ApiException(400, "Amount must be positive");
+            return amount;
+        }
+
+        private User shardAccount(Map<String, String> body, String key) {
+            User u = bank.getAccount(required(body, key));
+            if (u == null) throw new ApiException(404, "Unknown account");
+            return u;
+        }
+
+        private void account(HttpExchange ex, User u) throws IOException {
+            send(ex, 200, new Json().field("accountId", u.getAccountId()).field("name", u.getName())
+                .field("balance", u.getBalance()).end());
+        }
+
+        // Admin only: the same text report the JMX bean and the admin view show
+        private void metrics(HttpExchange ex, User u) throws IOException {
+            if (!"admin".equalsIgnoreCase(u.getUsername())) throw new ApiException(403, "Admin only");
+            send(ex, 200, new Json().field("report", bank.getMetrics().report()).end());
+        }
+
+        // ?cursor=<from a previous page>&size=<1..500>, newest first
+        private void transactions(HttpExchange ex, User u) throws IOException {
+            Map<String, String> q = query(ex.getRequestURI());
+            long cursor = q.containsKey("cursor") ? Long.parseLong(q.get("cursor")) : TransactionHistory.NEWEST;
+            int size = Math.max(1, Math.min(500, q.containsKey("size") ? Integer.parseInt(q.get("size")) : 50));
+            TransactionHistory.Page page = q.containsKey("q")
+                ? u.getTransactions().search(HistoryQuery.parse(URLDecoder.decode(q.get("q"), "UTF-8")), cursor, size)
+                : u.getTransactions().page(cursor, size);
+            StringBuilder items = new StringBuilder("[");
+            for (Transaction t : page.getItems()) {
+                if (items.length() > 1) items.append(',');
+                items.append(new Json().field("id", t.getId()).field("type", t.getType()).field("amount", t.getAmount())
+                    .field("description", t.getDescription()).field("date", t.getDate().getTime()).end());
+            }
+            items.append(']');
+            Json json = new Json().raw("items", items.toString());
+            if (page.hasMore()) json.field("nextCursor", page.getNextCursor());
+            send(ex, 200, json.end());
+        }
+
+        // ?from=&to= (yyyy-MM-dd, both days included) &format=csv|ndjson. The body is streamed with
+        // chunked encoding as the export writes it, so a long statement is never held in memory.
+        private void statement(HttpExchange ex, User u) throws IOException {
+            Map<String, String> q = query(ex.getRequestURI());
+            StatementExport.Format format = StatementExport.Format.valueOf(q.getOrDefault("format", "csv").toUpperCase(Locale.ROOT));
+            long from = q.containsKey("from") ? HistoryQuery.startOfDay(LocalDate.parse(q.get("from"))) : Long.MIN_VALUE;
+            long to = q.containsKey("to") ? HistoryQuery.startOfDay(LocalDate.parse(q.get("to")).plusDays(1)) : Long.MAX_VALUE;
+            ex.getResponseHeaders().set("Content-Type",
+                format == StatementExport.Format.CSV ? "text/csv; charset=utf-8" : "application/x-ndjson");
+            ex.sendResponseHeaders(200, 0);
+            try (OutputStream out = ex.getResponseBody()) {
+                StatementExport.export(u, from, to, format, Channels.newChannel(out), (scanned, total) -> { });
+            }
+        }
+
+        // Server-sent events for the session's account: one "posted" or "balance" event per change,
+        // "overrun" when some were dropped (refetch /balance), and a comment every 15 s so dead
+        // clients are noticed. Each open stream holds a worker thread until the client goes away.
+        private void events(HttpExchange ex, User u) throws IOException {
+            String accountId = u.getAccountId();
+            EventStream stream = openStream(accountId);
+            BlockingQueue<LedgerEvent> pending = stream.pending;
+            AtomicBoolean overrun = stream.overrun;
+            ex.getResponseHeaders().set("Content-Type", "text/event-stream");
+            ex.getResponseHeaders().set("Cache-Control", "no-cache");
+            ex.sendResponseHeaders(200, 0);
+            try (OutputStream out = ex.getResponseBody()) {
+                while (true) {
+                    LedgerEvent e = pending.poll(15, TimeUnit.SECONDS);
+                    StringBuilder frame = new StringBuilder();
+                    if (overrun.getAndSet(false)) frame.append("event: overrun\ndata: {}\n\n");
+                    if (e == null) {
+                        frame.append(": keep-alive\n\n");
+                    } else {
+                        Json json = new Json().field("accountId", e.accountId).field("balance", e.balance);
+                        if (e.transaction != null) {
+                            json.field("id", e.transaction.getId()).field("type", e.transaction.getType())
+                                .field("amount", e.transaction.getAmount()).field("description", e.transaction.getDescription());
+                        }
+                        frame.append("event: ").append(e.kind == LedgerEvent.Kind.TRANSACTION_POSTED ? "posted" : "balance")
+                             .append("\ndata: ").append(json.end()).append("\n\n");
+                    }
+                    out.write(frame.toString().getBytes(StandardCharsets.UTF_8));
+                    out.flush();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                closeStream(accountId, stream);
+            }
+        }
+
+        private EventStream openStream(String accountId) {
+            EventStream stream = new EventStream();
+            synchronized (streams) {
+                streams.computeIfAbsent(accountId, k -> new CopyOnWriteArrayList<>()).add(stream);
+                if (fanOut == null) fanOut = bank.getEvents().subscribe("api", new LedgerEventBus.Subscriber() {
+                    @Override public void onEvent(LedgerEvent e) {
+                        List<EventStream> watching = streams.get(e.accountId);
+                        if (watching != null) for (EventStream s : watching) s.offer(e);
+                    }
+
+                    // The missed events may have been anyone's
+                    @Override public void onOverrun(long missed) {
+                        for (List<EventStream> watching : streams.values()) {
+                            for (EventStream s : watching) s.overrun.set(true);
+                        }
+                    }
+                });
+            }
+            return stream;
+        }
+
+        private void closeStream(String accountId, EventStream stream) {
+            synchronized (streams) {
+                List<EventStream> watching = streams.get(accountId);
+                if (watching != null && watching.remove(stream) && watching.isEmpty()) streams.remove(accountId);
+                if (streams.isEmpty() && fanOut != null) {
+                    fanOut.close();
+                    fanOut = null;
+                }
+            }
+        }
+
+        private User session(HttpExchange ex) {
+            String token = bearer(ex);
+            Session s = token == null ? null : sessions.get(token);
+            long now = System.nanoTime();
+            if (s != null && !live(s, now)) {
+                sessions.remove(token, s);
+                s = null;
+            }
+            if (s == null) throw new ApiException(401, "Not signed in");
+            s.expiresAt = now + sessionTtlNanos;
+            return s.user;
+        }
+
+        private static String bearer(HttpExchange ex) {
+            String auth = ex.getRequestHeaders().getFirst("Authorization");
+            return auth != null && auth.startsWith("Bearer ") ? auth.substring(7).trim() : null;
+        }
+
+        // --- JSON plumbing (flat objects only, which is all this API exchanges) ---
+
+        private static String required(Map<String, String> body, String key) {
+            String v = body.get(key);
+            if (v == null || v.isEmpty()) throw new ApiException(400, "Missing field: " + key);
+            return v;
+        }
+
+        private static Map<String, String> readJson(HttpExchange ex) throws IOException {
+            return readJson(ex.getRequestBody());
+        }
+
+        static Map<String, String> readJson(InputStream body) throws IOException {
+            try (InputStream in = body) {
+                ByteArrayOutputStream buf = new ByteArrayOutputStream();
+                byte[] chunk = new byte[4096];
+                for (int n; (n = in.read(chunk)) > 0; ) {
+                    buf.write(chunk, 0, n);
+                    if (buf.size() > 64 * 1024) throw new ApiException(413, "Request too large");
+                }
+                return parseObject(new String(buf.toByteArray(), StandardCharsets.UTF_8));
+            }
+        }
+
+        // Accepts {"key": "string" | number | true | false | null, ...}; values come back as strings
+        static Map<String, String> parseObject(String text) {
+            Map<String, String> out = new HashMap<>();
+            int[] pos = {skip(text, 0)};
+            expect(text, pos, '{');
+            if (peek(text, pos) == '}') { pos[0]++; return out; }
+            while (true) {
+                String key = parseString(text, pos);
+                expect(text, pos, ':');
+                char c = peek(text, pos);
+                String value;
+                if (c == '"') {
+                    value = parseString(text, pos);
+                } else {
+                    int start = pos[0];
+                    while (pos[0] < text.length() && ",} \t\r\n".indexOf(text.charAt(pos[0])) < 0) pos[0]++;
+                    value = text.substring(start, pos[0]);
+                    if (value.equals("null")) value = null;
+                }
+                out.put(key, value);
+                char sep = peek(text, pos);
+                pos[0]++;
+                if (sep == '}') return out;
+                if (sep != ',') throw new ApiException(400, "Malformed JSON");
+            }
+        }
+
+        private static String parseString(String text, int[] pos) {
+            expect(text, pos, '"');
+            StringBuilder sb = new StringBuilder();
+            while (true) {
+                if (pos[0] >= text.length()) throw new ApiException(400, "Malformed JSON");
+                char c = text.charAt(pos[0]++);
+                if (c == '"') return sb.toString();
+                if (c != '\\') { sb.append(c); continue; }
+                char e = text.charAt(pos[0]++);
+                switch (e) {
+                    case 'n': sb.append('\n'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'u': sb.append((char) Integer.parseInt(text.substring(pos[0], pos[0] + 4), 16)); pos[0] += 4; break;
+                    default: sb.append(e);
+                }
+            }
+        }
+
+        private static void expect(String text, int[] pos, char c) {
+            if (peek(text, pos) != c) throw new ApiException(400, "Malformed JSON");
+            pos[0]++;
+        }
+
+        private static char peek(String text, int[] pos) {
+            pos[0] = skip(text, pos[0]);
+            if (pos[0] >= text.length()) throw new ApiException(400, "Malformed JSON");
+            return text.charAt(pos[0]);
+        }
+
+        private static int skip(String text, int i) {
+            while (i < text.length() && Character.isWhitespace(text.charAt(i))) i++;
+            return i;
+        }
+
+        private static Map<String, String> query(URI uri) {
+            Map<String, String> out = new HashMap<>();
+            String q = uri.getRawQuery();
+            if (q == null) return out;
+            for (String pair : q.split("&")) {
+                int eq = pair.indexOf('=');
+                if (eq > 0) out.put(pair.substring(0, eq), pair.substring(eq + 1));
+            }
+            return out;
+        }
+
+        private static String error(String message) {
+            return new Json().field("error", message).end();
+        }
+
+        // Once a streamed response (statement, events) has sent its headers a second response
+        // can't be started; the body is closed where it stopped instead
+        private static void fail(HttpExchange ex, int status, String message) throws IOException {
+            if (ex.getResponseCode() == -1) send(ex, status, error(message));
+            else ex.getResponseBody().close();
+        }
+
+        private static void send(HttpExchange ex, int status, String json) throws IOException {
+            byte[] body = json.getBytes(StandardCharsets.UTF_8);
+            ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            ex.sendResponseHeaders(status, body.length);
+            try (OutputStream out = ex.getResponseBody()) {
+                out.write(body);
+            }
+        }
+
+        // Tiny JSON object writer
+        static final class Json {
+            private final StringBuilder sb = new StringBuilder("{");
+
+            Json field(String key, String value) {
+                key(key);
+                if (value == null) { sb.append("null"); return this; }
+                sb.append('"');
+                for (int i = 0; i < value.length(); i++) {
+                    char c = value.charAt(i);
+                    if (c == '"' || c == '\\') sb.append('\\').append(c);
+                    else if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+                }
+                sb.append('"');
+                return this;
+            }
+
+            Json field(String key, long value) {
+                key(key);
+                sb.append(value);
+                return this;
+            }
+
+            Json field(String key, double value) {
+                key(key);
+                sb.append(Double.isFinite(value) ? String.format(Locale.ROOT, "%.3f", value) : "null");
+                return this;
+            }
+
+            Json raw(String key, String json) {
+                key(key);
+                sb.append(json);
+                return this;
+            }
+
+            String end() { return sb.append('}').toString(); }
+
+            private void key(String key) {
+                if (sb.length() > 1) sb.append(',');
+                sb.append('"').append(key).append("\":");
+            }
+        }
+
+        static final class ApiException extends RuntimeException {
+            final int status;
+
+            ApiException(int status, String message) {
+                super(message);
+                this.status = status;
+            }
+        }
+    }
+
+    // ==========================================
+    //              SHARDING
+    // ==========================================
+
+    // Router over N shard processes, each started with "--shard --shard-index=I --shards=N" and
+    // owning the accounts whose number and username hash to I (see Partition). Single-shard calls
+    // go straight to the owning shard. A transfer between shards runs two-phase commit with this
+    // router as coordinator:
+    //   1. BEGIN is forced to the coordinator log
+    //   2. the receiving shard prepares its credit, then the sending shard holds the debit
+    //   3. the decision (COMMIT with both names, or ABORT) is forced to the log
+    //   4. the decision goes to both shards and END is logged once both acknowledge
+    // A transfer with no logged decision is presumed aborted. A background task, which also runs
+    // when the router restarts, resends the decision for every transfer the log still has open;
+    // the shards apply decisions idempotently, so resending is always safe.
+    static final class ShardedLedger implements Closeable {
+        static final String SECRET_ENV = "OSRYN_SHARD_SECRET", SECRET_HEADER = "X-Osryn-Shard-Key";
+
+        private final String[] shards;
+        private final String secret;
+        private final CoordinatorLog log;
+        // Keeps transfer ids from different routers (or router restarts) apart
+        private final String routerId = Long.toString(new SecureRandom().nextLong() >>> 1, 36);
+        private final ScheduledExecutorService retry;
+
+        // secret is the one every shard was started with (see SECRET_ENV)
+        ShardedLedger(List<String> shardUrls, Path coordinatorLog, String secret) throws IOException {
+            this.shards = shardUrls.toArray(new String[0]);
+            this.secret = secret;
+            this.log = CoordinatorLog.open(coordinatorLog);
+            this.retry = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "shard-coordinator");
+                t.setDaemon(true);
+                return t;
+            });
+            retry.scheduleWithFixedDelay(this::finishPending, 0, 2, TimeUnit.SECONDS);
+        }
+
+        int shardOf(String key) { return Partition.shardOf(key, shards.length); }
+
+        // Returns the new account number, or null if the username is taken
+        String createAccount(String name, String username, String password, String email, String phone) throws IOException {
+            Map<String, String> r = post(shardOf(username), "/accounts", "name", name, "username", username,
+                                         "password", password, "email", email, "phone", phone);
+            if (status(r) == 409) return null;
+            return ok(r).get("accountId");
+        }
+
+        // Returns the account number, or null for bad credentials
+        String authenticate(String username, String password) throws IOException {
+            Map<String, String> r = post(shardOf(username), "/login", "username", username, "password", password);
+            if (status(r) == 401) return null;
+            return ok(r).get("accountId");
+        }
+
+        long balance(String accountId) throws IOException {
+            return Long.parseLong(ok(post(shardOf(accountId), "/shard/account", "account", accountId)).get("balance"));
+        }
+
+        void deposit(String accountId, long paisa) throws IOException {
+            ok(post(shardOf(accountId), "/shard/deposit", "account", accountId, "amount", paisa));
+        }
+
+        // The single-shard postings are true only once posted: a posting a risk rule holds for review
+        // (202) or blocks (403) comes back false, like one refused for funds (409)
+        boolean withdraw(String accountId, long paisa) throws IOException {
+            return status(post(shardOf(accountId), "/shard/withdraw", "account", accountId, "amount", paisa)) == 200;
+        }
+
+        boolean payBill(String accountId, String biller, long paisa) throws IOException {
+            return status(post(shardOf(accountId), "/shard/bills", "account", accountId, "biller", biller, "amount", paisa)) == 200;
+        }
+
+        boolean transfer(String fromId, String toId, long paisa) throws IOException {
+            int from = shardOf(fromId), to = shardOf(toId);
+            if (from == to) return status(post(from, "/shard/transfer", "from", fromId, "to", toId, "amount", paisa)) == 200;
+
+            String id = routerId + "-" + IdService.encodeTransactionId(IdService.nextTransactionId());
+            CoordinatorLog.Entry e = log.begin(id, from, fromId, to, toId, paisa);
+            try {
+                Map<String, String> credit = null, debit = null;
+                try {
+                    credit = post(to, "/shard/prepare", "transfer", id, "role", "credit", "account", toId,
+                                  "counterparty", fromId, "amount", paisa);
+                    if (prepared(credit)) {
+                        debit = post(from, "/shard/prepare", "transfer", id, "role", "debit", "account", fromId,
+                                     "counterparty", toId, "amount", paisa);
+                    }
+                } catch (IOException unreachable) {
+                    // Treated like a "no" vote
+                }
+                boolean commit = prepared(credit) && prepared(debit);
+                if (commit) log.commit(e, debit.get("name"), credit.get("name"));
+                else log.abort(e);
+                finish(e);
+                return commit;
+            } finally {
+                e.active = false;
+            }
+        }
+
+        private static boolean prepared(Map<String, String> vote) {
+            return vote != null && "OK".equals(vote.get("outcome"));
+        }
+
+        // Sends the logged decision to both shards; the entry stays open until both acknowledge
+        private void finish(CoordinatorLog.Entry e) {
+            try {
+                if (e.committed()) {
+                    ok(post(e.toShard, "/shard/commit", "transfer", e.id, "counterpartyName", e.fromName));
+                    ok(post(e.fromShard, "/shard/commit", "transfer", e.id, "counterpartyName", e.toName));
+                } else {
+                    ok(post(e.toShard, "/shard/abort", "transfer", e.id));
+                    ok(post(e.fromShard, "/shard/abort", "transfer", e.id));
+                }
+                log.end(e);
+            } catch (IOException | RuntimeException retryLater) {
+                // Still open in the log; finishPending resends the decision
+            }
+        }
+
+        // Drives every open transfer no caller is working on to completion, deciding abort where
+        // nothing was decided yet
+        void finishPending() {
+            for (CoordinatorLog.Entry e : log.unfinished()) {
+                if (e.active) continue;
+                if (!e.decided()) log.abort(e);
+                finish(e);
+            }
+        }
+
+        @Override public void close() throws IOException {
+            retry.shutdownNow();
+            log.close();
+        }
+
+        private static int status(Map<String, String> reply) {
+            return Integer.parseInt(reply.get("status"));
+        }
+
+        private static Map<String, String> ok(Map<String, String> reply) throws IOException {
+            int status = status(reply);
+            if (status / 100 != 2) throw new IOException("Shard answered " + status + ": " + reply.get("error"));
+            return reply;
+        }
+
+        // POSTs {key: value, ...} (String or Long values) and returns the reply fields plus "status"
+        private Map<String, String> post(int shard, String path, Object... fields) throws IOException {
+            LedgerApiServer.Json json = new LedgerApiServer.Json();
+            for (int i = 0; i < fields.length; i += 2) {
+                if (fields[i + 1] instanceof Long) json.field((String) fields[i], (long) (Long) fields[i + 1]);
+                else json.field((String) fields[i], (String) fields[i + 1]);
+            }
+            byte[] body = json.end().getBytes(StandardCharsets.UTF_8);
+            HttpURLConnection c = (HttpURLConnection) new URL(shards[shard] + path).openConnection();
+            c.setConnectTimeout(2_000);
+            c.setReadTimeout(10_000);
+            c.setRequestMethod("POST");
+            c.setDoOutput(true);
+            c.setRequestProperty("Content-Type", "application/json");
+            c.setRequestProperty(SECRET_HEADER, secret);
+            c.setFixedLengthStreamingMode(body.length);
+            try (OutputStream out = c.getOutputStream()) {
+                out.write(body);
+            }
+            int status = c.getResponseCode();
+            InputStream in = status < 400 ? c.getInputStream() : c.getErrorStream();
+            Map<String, String> reply = in == null ? new HashMap<>() : LedgerApiServer.readJson(in);
+            reply.put("status", String.valueOf(status));
+            return reply;
+        }
+    }
+
+    // The coordinator's durable record of cross-shard transfers: [int length][int crc32][body]
+    // records, where the body is a tag (BEGIN, COMMIT, ABORT, END) and the transfer id. BEGIN and
+    // COMMIT are forced before any shard hears about them; ABORT and END are not, because a lost
+    // ABORT is presumed anyway and a lost END only means a harmless resend. Concurrent transfers
+    // share fsyncs: a force covers everything written before it. The file is truncated whenever
+    // nothing is open.
+    static final class CoordinatorLog implements Closeable {
+        private static final byte BEGIN = 1, COMMIT = 2, ABORT = 3, END = 4;
+        private static final long COMPACT_AT = 64L << 20;
+
+        // A transfer that has begun but not ended
+        static final class Entry {
+            final String id, fromId, toId;
+            final int fromShard, toShard;
+            final long amount;
+            volatile byte decision; // 0 until COMMIT or ABORT
+            volatile String fromName, toName;
+            volatile boolean active; // a caller is still driving it; recovery leaves it alone
+
+            Entry(String id, int fromShard, String fromId, int toShard, String toId, long amount) {
+                this.id = id;
+                this.fromShard = fromShard;
+                this.fromId = fromId;
+                this.toShard = toShard;
+                this.toId = toId;
+                this.amount = amount;
+            }
+
+            boolean decided() { return decision != 0; }
+            boolean committed() { return decision == COMMIT; }
+        }
+
+        private final FileChannel channel;
+        private final Map<String, Entry> open = new LinkedHashMap<>();
+        private final Object forceLock = new Object();
+        private final CRC32 crc = new CRC32();
+        private long written, forced;
+
+        private CoordinatorLog(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        // Rebuilds the open transfers from the file and cuts off a torn tail
+        static CoordinatorLog open(Path path) throws IOException {
+            CoordinatorLog log = new CoordinatorLog(FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE));
+            ByteBuffer head = ByteBuffer.allocate(8);
+            long pos = 0, size = log.channel.size();
+            while (pos + 8 <= size) {
+                head.clear();
+                log.channel.read(head, pos);
+                head.flip();
+                int len = head.getInt(), sum = head.getInt();
+                if (len <= 0 || pos + 8 + len > size) break;
+                ByteBuffer body = ByteBuffer.allocate(len);
+                while (body.hasRemaining() && log.channel.read(body, pos + 8 + body.position()) > 0) { }
+                log.crc.reset();
+                log.crc.update(body.array(), 0, len);
+                if ((int) log.crc.getValue() != sum) break;
+                body.flip();
+                log.replay(body);
+                pos += 8 + len;
+            }
+            log.channel.truncate(pos);
+            log.written = log.forced = pos;
+            return log;
+        }
+
+        private void replay(ByteBuffer b) {
+            byte tag = b.get();
+            String id = getString(b);
+            switch (tag) {
+                case BEGIN: {
+                    int fromShard = b.getInt();
+                    String fromId = getString(b);
+                    int toShard = b.getInt();
+                    String toId = getString(b);
+                    open.put(id, new Entry(id, fromShard, fromId, toShard, toId, b.getLong()));
+                    break;
+                }
+                case COMMIT: {
+                    Entry e = open.get(id);
+                    if (e != null) {
+                        e.fromName = getString(b);
+                        e.toName = getString(b);
+                        e.decision = COMMIT;
+                    }
+                    break;
+                }
+                case ABORT: {
+                    Entry e = open.get(id);
+                    if (e != null && !e.decided()) e.decision = ABORT;
+                    break;
+                }
+                case END:
+                    open.remove(id);
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown coordinator record tag " + tag);
+            }
+        }
+
+        Entry begin(String id, int fromShard, String fromId, int toShard, String toId, long amount) throws IOException {
+            Entry e = new Entry(id, fromShard, fromId, toShard, toId, amount);
+            e.active = true;
+            long at;
+            synchronized (this) {
+                at = append(BEGIN, id, fromShard, fromId, toShard, toId, amount);
+                open.put(id, e);
+            }
+            force(at);
+            return e;
+        }
+
+        void commit(Entry e, String fromName, String toName) throws IOException {
+            long at;
+            synchronized (this) {
+                e.fromName = fromName;
+                e.toName = toName;
+                e.decision = COMMIT;
+                at = append(COMMIT, e.id, fromName, toName);
+            }
+            force(at);
+        }
+
+        synchronized void abort(Entry e) {
+            if (e.decided()) return;
+            e.decision = ABORT;
+            append(ABORT, e.id);
+        }
+
+        synchronized void end(Entry e) {
+            if (open.remove(e.id) == null) return;
+            append(END, e.id);
+            if (open.isEmpty() && written > COMPACT_AT) {
+                try {
+                    channel.truncate(0);
+                    written = 0;
+                    synchronized (forceLock) { forced = 0; }
+                } catch (IOException ignored) {
+                    // Compaction is only housekeeping; the log stays valid as it is
+                }
+            }
+        }
+
+        synchronized List<Entry> unfinished() {
+            return new ArrayList<>(open.values());
+        }
+
+        // Fields are Strings, Integers or Longs; returns the file position the record ends at
+        private long append(byte tag, Object... fields) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+            out.write(tag);
+            for (Object f : fields) {
+                if (f instanceof String) {
+                    byte[] s = ((String) f).getBytes(StandardCharsets.UTF_8);
+                    out.write(ByteBuffer.allocate(4).putInt(s.length).array(), 0, 4);
+                    out.write(s, 0, s.length);
+                } else if (f instanceof Integer) {
+                    out.write(ByteBuffer.allocate(4).putInt((Integer) f).array(), 0, 4);
+                } else {
+                    out.write(ByteBuffer.allocate(8).putLong((Long) f).array(), 0, 8);
+                }
+            }
+            byte[] body = out.toByteArray();
+            crc.reset();
+            crc.update(body, 0, body.length);
+            ByteBuffer record = ByteBuffer.allocate(8 + body.length);
+            record.putInt(body.length).putInt((int) crc.getValue()).put(body).flip();
+            try {
+                while (record.hasRemaining()) written += channel.write(record, written);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return written;
+        }
+
+        private void force(long upTo) throws IOException {
+            synchronized (forceLock) {
+                if (forced >= upTo) return;
+                long target;
+                synchronized (this) { target = written; }
+                channel.force(false);
+                forced = target;
+            }
+        }
+
+        private static String getString(ByteBuffer b) {
+            byte[] s = new byte[b.getInt()];
+            b.get(s);
+            return new String(s, StandardCharsets.UTF_8);
+        }
+
+        @Override public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    // Spawns 1, 2, 4... shard JVMs on this machine and measures random transfers through a
+    // ShardedLedger, so the effect of adding shards (and of cross-shard 2PC) is visible:
+    //   java -cp . 'BankManagementSystem$ShardBenchmark' --shards=1,2,4 --accounts=2000 --threads=32 --time=10
+    // Shards keep their journals and logs in a temp directory that is deleted afterwards.
+    static final class ShardBenchmark {
+        public static void main(String[] args) throws Exception {
+            int[] shardCounts = LedgerBenchmark.ints(flag(args, "--shards=", "1,2,4"));
+            int accounts = Integer.parseInt(flag(args, "--accounts=", "2000"));
+            int threads = Integer.parseInt(flag(args, "--threads=", "32"));
+            long warmup = (long) (Double.parseDouble(flag(args, "--warmup=", "3")) * 1000);
+            long time = (long) (Double.parseDouble(flag(args, "--time=", "10")) * 1000);
+            int basePort = Integer.parseInt(flag(args, "--base-port=", "9100"));
+
+            String secret = Long.toString(new SecureRandom().nextLong() >>> 1, 36);
+            System.out.printf("%7s %9s %7s %14s %12s%n", "shards", "accounts", "threads", "transfers/s", "cross-shard");
+            for (int n : shardCounts) {
+                Path dir = Files.createTempDirectory("osryn-shards");
+                List<Process> processes = new ArrayList<>();
+                try {
+                    List<String> urls = new ArrayList<>();
+                    for (int i = 0; i < n; i++) {
+                        processes.add(startShard(dir, i, n, basePort + i, secret));
+                        urls.add("http://127.0.0.1:" + (basePort + i));
+                    }
+                    for (String url : urls) awaitShard(url);
+                    try (ShardedLedger ledger = new ShardedLedger(urls, dir.resolve("coordinator.log"), secret)) {
+                        String[] ids = new String[accounts];
+                        for (int i = 0; i < accounts; i++) {
+                            ids[i] = ledger.createAccount("Bench " + i, "bench" + i, "bench-password", "", "");
+                            ledger.deposit(ids[i], 1_000_000_000_00L);
+                        }
+                        long[] result = run(ledger, ids, threads, warmup, time);
+                        System.out.printf("%7d %9d %7d %14.0f %11.0f%%%n", n, accounts, threads,
+                                          result[0] * 1000.0 / time, result[0] == 0 ? 0 : 100.0 * result[1] / result[0]);
+                    }
+                } finally {
+                    for (Process p : processes) p.destroy();
+                    for (Process p : processes) p.waitFor();
+                    try (java.util.stream.Stream<Path> files = Files.walk(dir)) {
+                        files.sorted(Comparator.reverseOrder()).forEach(f -> f.toFile().delete());
+                    }
+                }
+            }
+        }
+
+        private static Process startShard(Path dir, int index, int count, int port, String secret) throws IOException {
+            String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+            ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                    "-Dosryn.journal=" + dir.resolve("shard-" + index + ".journal"),
+                    "-Dosryn.snapshot=" + dir.resolve("shard-" + index + ".snapshot"),
+                    "-Dosryn.pbkdf2Iterations=1000",
+                    BankManagementSystem.class.getName(), "--shard", "--shard-index=" + index,
+                    "--shards=" + count, "--port=" + port)
+                .redirectErrorStream(true)
+                .redirectOutput(dir.resolve("shard-" + index + ".log").toFile());
+            builder.environment().put(ShardedLedger.SECRET_ENV, secret);
+            return builder.start();
+        }
+
+        private static void awaitShard(String url) throws InterruptedException, IOException {
+            for (int attempt = 0; attempt < 300; attempt++) {
+                try {
+                    HttpURLConnection c = (HttpURLConnection) new URL(url + "/shard/account").openConnection();
+                    c.setRequestMethod("POST");
+                    c.setDoOutput(true);
+                    try (OutputStream out = c.getOutputStream()) {
+                        out.write("{\"account\":\"\"}".getBytes(StandardCharsets.UTF_8));
+                    }
+                    if (c.getResponseCode() > 0) return;
+                } catch (IOException notYet) {
+                    Thread.sleep(100);
+                }
+            }
+            throw new IOException("Shard at " + url + " did not start");
+        }
+
+        // Returns {transfers completed in the timed window, how many of them crossed shards}
+        private static long[] run(ShardedLedger ledger, String[] ids, int threads, long warmupMillis, long timeMillis)
+                throws InterruptedException {
+            AtomicInteger phase = new AtomicInteger();
+            LongAdder done = new LongAdder(), crossed = new LongAdder();
+            Thread[] workers = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                workers[t] = new Thread(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    while (phase.get() < 2) {
+                        String from = ids[random.nextInt(ids.length)], to = ids[random.nextInt(ids.length)];
+                        if (from.equals(to)) continue;
+                        try {
+                            boolean ok = ledger.transfer(from, to, 1);
+                            if (ok && phase.get() == 1) {
+                                done.increment();
+                                if (ledger.shardOf(from) != ledger.shardOf(to)) crossed.increment();
+                            }
+                        } catch (IOException e) {
+                            System.err.println("Transfer failed: " + e.getMessage());
+                        }
+                    }
+                }, "shard-bench-" + t);
+                workers[t].start();
+            }
+            Thread.sleep(warmupMillis);
+            phase.set(1);
+            Thread.sleep(timeMillis);
+            phase.set(2);
+            for (Thread w : workers) w.join();
+            return new long[] { done.sum(), crossed.sum() };
+        }
+    }
+
+    // ==========================================
+    //              BENCHMARKS
+    // ==========================================
+
+    // Throughput harness for the ledger hot paths:
+    //   java -cp . 'BankManagementSystem$LedgerBenchmark' --accounts=1000,100000 --threads=1,8 --json=bench.json
+    // Each account count gets one seeded in-memory BankService; every (case, threads) pair on it
+    // runs a warmup period and then a timed period. Results print as a table and, with --json, are
+    // written out so runs can be compared across releases. Other flags: --cases=a,b --warmup=<s>
+    // --time=<s> and --iterations=<n>, the PBKDF2 work factor (default 1, so seeding and login
+    // measure the ledger rather than the deliberately slow hash).
+    static final class LedgerBenchmark {
+        static final String[] CASES = { "authenticate", "createAccount", "deposit", "withdraw",
+            "transferUncontended", "transferContended", "payBill", "historyPage", "formatMoney" };
+        private static final String PASSWORD = "bench-password";
+        private static final int HISTORY = 10_000, PAGE = 50;
+
+        // Returns something derived from its work so the JIT can't drop the call
+        interface Operation {
+            long run(int thread, long iteration);
+        }
+
+        static final class Result {
+            final String name;
+            final int accounts, threads;
+            final long ops;
+            final double seconds;
+
+            Result(String name, int accounts, int threads, long ops, double seconds) {
+                this.name = name;
+                this.accounts = accounts;
+                this.threads = threads;
+                this.ops = ops;
+                this.seconds = seconds;
+            }
+
+            double opsPerSecond() { return ops / seconds; }
+            double nanosPerOp() { return ops == 0 ? Double.NaN : seconds * 1e9 * threads / ops; }
+        }
+
+        private static volatile long sink;
+
+        public static void main(String[] args) throws IOException {
+            int cores = Runtime.getRuntime().availableProcessors();
+            Map<String, String> opts = new HashMap<>();
+            for (String a : args) {
+                int eq = a.indexOf('=');
+                if (!a.startsWith("--") || eq < 0) throw new IllegalArgumentException("Expected --name=value, got " + a);
+                opts.put(a.substring(2, eq), a.substring(eq + 1));
+            }
+            int[] accounts = ints(opts.getOrDefault("accounts", "1000,100000"));
+            int[] threads = ints(opts.getOrDefault("threads", cores == 1 ? "1" : "1," + cores));
+            String[] cases = opts.containsKey("cases") ? opts.get("cases").split(",") : CASES;
+            long warmup = (long) (Double.parseDouble(opts.getOrDefault("warmup", "1")) * 1000);
+            long time = (long) (Double.parseDouble(opts.getOrDefault("time", "2")) * 1000);
+            PasswordHasher hasher = new PasswordHasher(Integer.parseInt(opts.getOrDefault("iterations", "1")),
+                                                       cores, 4096, 300);
+
+            List<Result> results = new ArrayList<>();
+            System.out.printf("%-20s %9s %7s %16s %12s%n", "case", "accounts", "threads", "ops/s", "ns/op");
+            for (int n : accounts) {
+                Fixture fixture = new Fixture(n, hasher);
+                for (int t : threads) {
+                    for (String c : cases) {
+                        Result r = run(c, fixture, n, t, warmup, time);
+                        results.add(r);
+                        System.out.printf("%-20s %9d %7d %16.0f %12.1f%n", c, n, t, r.opsPerSecond(), r.nanosPerOp());
+                    }
+                }
+            }
+            if (opts.containsKey("json")) {
+                Path out = Paths.get(opts.get("json"));
+                Files.write(out, toJson(results, hasher.getIterations()).getBytes(StandardCharsets.UTF_8));
+                System.out.println("Wrote " + out.toAbsolutePath());
+            }
+        }
+
+        // Accounts funded well beyond what a run can drain, plus one account with a long history for paging
+        static final class Fixture {
+            final BankService bank;
+            final User[] users;
+
+            Fixture(int accounts, PasswordHasher hasher) {
+                bank = new BankService(null, null, hasher);
+                users = new User[Math.max(2, accounts)];
+                for (int i = 0; i < users.length; i++) {
+                    users[i] = bank.createAccount("Bench " + i, "bench" + i, PASSWORD, "", "");
+                    bank.deposit(users[i], 1_000_000_000_00L);
+                }
+                for (int i = 0; i < HISTORY; i++) bank.deposit(users[0], 1);
+            }
+
+            // Each thread works its own slice of accounts, so only the contended cases share locks
+            User pick(int thread, int threads, long iteration) {
+                int slice = Math.max(1, users.length / threads);
+                return users[(int) ((thread * (long) slice + iteration % slice) % users.length)];
+            }
+        }
+
+        static Operation operation(String name, Fixture f, int threads) {
+            switch (name) {
+                case "authenticate":
+                    return (t, i) -> f.bank.authenticate(f.pick(t, threads, i).getUsername(), PASSWORD) == null ? 0 : 1;
+                case "createAccount": {
+                    AtomicLong next = new AtomicLong();
+                    return (t, i) -> f.bank.createAccount("New", "new" + next.incrementAndGet(), PASSWORD, "", "") == null ? 0 : 1;
+                }
+                case "deposit":
+                    return (t, i) -> {
+                        f.bank.deposit(f.pick(t, threads, i), 100);
+                        return 1;
+                    };
+                case "withdraw":
+                    return (t, i) -> f.bank.withdraw(f.pick(t, threads, i), 100) ? 1 : 0;
+                case "transferUncontended":
+                    return (t, i) -> f.bank.transfer(f.pick(t, threads, i), f.pick(t, threads, i + 1).getAccountId(), 100) ? 1 : 0;
+                case "transferContended":
+                    return (t, i) -> {
+                        User a = f.users[(int) (i & 1)], b = f.users[(int) (~i & 1)];
+                        return f.bank.transfer(a, b.getAccountId(), 100) ? 1 : 0;
+                    };
+                case "payBill":
+                    return (t, i) -> f.bank.payBill(f.pick(t, threads, i), "Electricity", 100) ? 1 : 0;
+                case "historyPage":
+                    return (t, i) -> {
+                        TransactionHistory history = f.users[0].getTransactions();
+                        TransactionHistory.Page first = history.page(TransactionHistory.NEWEST, PAGE);
+                        return history.page(first.getNextCursor(), PAGE).getItems().size();
+                    };
+                case "formatMoney":
+                    return (t, i) -> formatMoney(i * 1_237L).length();
+                default:
+                    throw new IllegalArgumentException("Unknown benchmark case: " + name);
+            }
+        }
+
+        static Result run(String name, Fixture fixture, int accounts, int threads, long warmupMillis, long timeMillis) {
+            Operation op = operation(name, fixture, threads);
+            long[] counts = new long[threads];
+            // 0 = warming up, 1 = measuring, 2 = stop
+            AtomicInteger phase = new AtomicInteger();
+            Thread[] workers = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                int id = t;
+                workers[t] = new Thread(() -> {
+                    long i = 0, measured = 0, acc = 0;
+                    for (;;) {
+                        int p = phase.get();
+                        if (p == 2) break;
+                        for (int k = 0; k < 64; k++) acc += op.run(id, i++);
+                        if (p == 1) measured += 64;
+                    }
+                    counts[id] = measured;
+                    sink += acc;
+                }, "bench-" + name + "-" + t);
+                workers[t].start();
+            }
+            long start, end;
+            try {
+                Thread.sleep(warmupMillis);
+                phase.set(1);
+                start = System.nanoTime();
+                Thread.sleep(timeMillis);
+                phase.set(2);
+                end = System.nanoTime();
+                for (Thread w : workers) w.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Benchmark interrupted", e);
+            }
+            long ops = 0;
+            for (long c : counts) ops += c;
+            return new Result(name, accounts, threads, ops, (end - start) / 1e9);
+        }
+
+        static String toJson(List<Result> results, int iterations) {
+            StringBuilder items = new StringBuilder("[");
+            for (Result r : results) {
+                if (items.length() > 1) items.append(',');
+                items.append(new LedgerApiServer.Json().field("case", r.name).field("accounts", r.accounts)
+                    .field("threads", r.threads).field("ops", r.ops).field("seconds", r.seconds)
+                    .field("opsPerSecond", r.opsPerSecond()).field("nanosPerOp", r.nanosPerOp()).end());
+            }
+            return new LedgerApiServer.Json()
+                .field("timestamp", Instant.now().toString())
+                .field("javaVersion", System.getProperty("java.version"))
+                .field("cores", Runtime.getRuntime().availableProcessors())
+                .field("pbkdf2Iterations", iterations)
+                .raw("results", items.append(']').toString())
+                .end();
+        }
+
+        private static int[] ints(String csv) {
+            String[] parts = csv.split(",");
+            int[] out = new int[parts.length];
+            for (int i = 0; i < parts.length; i++) out[i] = Integer.parseInt(parts[i].trim());
+            return out;
+        }
+    }
+
+    // Shows that login cost does not grow with the number of accounts. For each --accounts size a
+    // fresh ledger is seeded, then --logins authenticate calls are made for users picked at random
+    // from the whole population and their latency percentiles printed. Hashing is cut to one PBKDF2
+    // round with the verification cache off, so what is left is the username lookup the login path
+    // does. Every seeded account stays on the heap, so the 10,000,000 point needs a large -Xmx:
+    //   java -Xmx24g -cp . 'BankManagementSystem$LoginBenchmark' --accounts=1000,100000,1000000,10000000 --logins=100000
+    static final class LoginBenchmark {
+        private static final String PASSWORD = "login-password";
+
+        public static void main(String[] args) {
+            String[] sizes = flag(args, "--accounts=", "1000,100000,1000000").split(",");
+            int logins = Integer.parseInt(flag(args, "--logins=", "100000"));
+
+            System.out.printf("%10s %10s %10s %10s %10s%n", "accounts", "logins", "p50 us", "p99 us", "max us");
+            for (String size : sizes) {
+                int accounts = Integer.parseInt(size.trim());
+                BankService bank = new BankService(null, null, new PasswordHasher(1, 1, 64, 0));
+                for (int i = 0; i < accounts; i++) bank.createAccount("Login " + i, "login" + i, PASSWORD, "", "");
+                System.gc(); // so the previous size's ledger isn't collected inside the timed loop
+
+                Random random = new Random(accounts);
+                for (int i = 0; i < Math.min(logins, 10_000); i++) bank.authenticate("login" + random.nextInt(accounts), PASSWORD);
+                long[] nanos = new long[logins];
+                for (int i = 0; i < logins; i++) {
+                    String username = "login" + random.nextInt(accounts);
+                    long start = System.nanoTime();
+                    User u = bank.authenticate(username, PASSWORD);
+                    nanos[i] = System.nanoTime() - start;
+                    if (u == null) throw new IllegalStateException("Login failed for " + username);
+                }
+                Arrays.sort(nanos);
+                System.out.printf("%10d %10d %10.1f %10.1f %10.1f%n", accounts, logins, nanos[logins / 2] / 1e3,
+                                  nanos[(int) (logins * 0.99)] / 1e3, nanos[logins - 1] / 1e3);
+            }
+        }
+    }
+
+    // Contention check for the striped ledger: every thread moves money between a few shared
+    // accounts in both directions, as single transfers and as small batches. Afterwards the total
+    // must be unchanged, no balance may be negative, every balance must equal the sum of its
+    // history, and no worker may be stuck (a deadlock). Exits with status 1 otherwise.
+    //   java -cp . 'BankManagementSystem$TransferStress' --accounts=8 --threads=16 --time=10
+    static final class TransferStress {
+        public static void main(String[] args) throws Exception {
+            int accounts = Integer.parseInt(flag(args, "--accounts=", "8"));
+            int threads = Integer.parseInt(flag(args, "--threads=", "16"));
+            long time = (long) (Double.parseDouble(flag(args, "--time=", "10")) * 1000);
+            long opening = 1_000_00L;
+
+            BankService bank = new BankService(null, null, new PasswordHasher(1_000, 1, 64, 300));
+            User[] users = new User[Math.max(2, accounts)];
+            for (int i = 0; i < users.length; i++) {
+                users[i] = bank.createAccount("Stress " + i, "stress" + i, "stress-password", "", "");
+                bank.deposit(users[i], opening);
+            }
+            long total = opening * users.length;
+
+            AtomicBoolean stop = new AtomicBoolean();
+            LongAdder transfers = new LongAdder(), batches = new LongAdder(), refused = new LongAdder();
+            Thread[] workers = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                workers[t] = new Thread(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    while (!stop.get()) {
+                        User from = users[random.nextInt(users.length)], to = users[random.nextInt(users.length)];
+                        long amount = 1 + random.nextLong(opening / 4);
+                        if (random.nextInt(8) == 0) {
+                            // A batch through the same accounts, so its multi-stripe locking is contended too
+                            List<BankService.Posting> postings = new ArrayList<>();
+                            for (int k = 0; k < 4; k++) {
+                                postings.add(BankService.Posting.transfer(users[random.nextInt(users.length)].getAccountId(),
+                                                                          users[random.nextInt(users.length)].getAccountId(), amount / 4 + 1));
+                            }
+                            BankService.BatchMode mode = random.nextBoolean() ? BankService.BatchMode.PER_ITEM : BankService.BatchMode.ALL_OR_NOTHING;
+                            bank.postBatch(postings, mode);
+                            batches.increment();
+                        } else if (bank.transfer(from, to.getAccountId(), amount)) {
+                            transfers.increment();
+                        } else {
+                            refused.increment();
+                        }
+                    }
+                }, "stress-" + t);
+                workers[t].start();
+            }
+            Thread.sleep(time);
+            stop.set(true);
+            boolean stuck = false;
+            for (Thread w : workers) {
+                w.join(30_000);
+                if (w.isAlive()) {
+                    stuck = true;
+                    System.out.println("Worker still running 30 s after stop, likely deadlocked: " + w.getName());
+                    for (StackTraceElement frame : w.getStackTrace()) System.out.println("    at " + frame);
+                }
+            }
+
+            long sum = 0;
+            int negative = 0, unbalanced = 0;
+            for (User u : users) {
+                sum += u.getBalance();
+                if (u.getBalance() < 0) negative++;
+                long history = 0;
+                for (Transaction tx : u.getTransactions()) history += tx.getAmount();
+                if (history != u.getBalance()) unbalanced++;
+            }
+            System.out.printf("%d transfers, %d batches, %d refused for funds over %d accounts and %d threads%n",
+                              transfers.sum(), batches.sum(), refused.sum(), users.length, threads);
+            System.out.printf("total %d paisa (expected %d paisa), negative balances %d, balances not matching history %d%n",
+                              sum, total, negative, unbalanced);
+            boolean ok = !stuck && sum == total && negative == 0 && unbalanced == 0;
+            System.out.println(ok ? "PASS" : "FAIL");
+            System.exit(ok ? 0 : 1);
+        }
+    }
+
+    // Checks that a slow ledger never freezes the UI. Every BankService call the UI makes sleeps for
+    // --latency ms; after a short warm-up, --ops calls are started from the EDT through runBanking,
+    // spread over --time seconds, while a probe posts a task to the EDT every 5 ms and records how
+    // long each waited to run. Fails (status 1) if the p99 wait reaches a frame (16 ms). A few calls
+    // made directly on the EDT first show what the probe sees when it does freeze. On a display this
+    // drives a real, logged-in window; headless it takes the same AsyncBankService hop without one.
+    //   java -cp . 'BankManagementSystem$EdtLatencyCheck' --latency=200 --ops=2000 --time=10
+    static final class EdtLatencyCheck {
+        private static final String PASSWORD = "edt-password";
+        private static final long FRAME_NANOS = TimeUnit.MILLISECONDS.toNanos(16); // one frame at 60 Hz
+
+        static final class SlowBankService extends BankService {
+            private final long latencyMillis;
+
+            SlowBankService(long latencyMillis) {
+                super(null, null, new PasswordHasher(1_000, 1, 64, 300));
+                this.latencyMillis = latencyMillis;
+            }
+
+            private void stall() {
+                try {
+                    Thread.sleep(latencyMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            @Override public User authenticate(String user, String pass) { stall(); return super.authenticate(user, pass); }
+            @Override public void deposit(User u, long amt) { stall(); super.deposit(u, amt); }
+            @Override public LedgerMetrics.Outcome submitWithdraw(User u, long amt) { stall(); return super.submitWithdraw(u, amt); }
+            @Override public LedgerMetrics.Outcome submitBill(User u, String biller, long amt) { stall(); return super.submitBill(u, biller, amt); }
+            @Override public LedgerMetrics.Outcome submitTransfer(User sender, String targetId, long amount) {
+                stall();
+                return super.submitTransfer(sender, targetId, amount);
+            }
+        }
+
+        public static void main(String[] args) throws Exception {
+            long latency = Long.parseLong(flag(args, "--latency=", "200"));
+            int ops = Integer.parseInt(flag(args, "--ops=", "2000"));
+            int direct = Integer.parseInt(flag(args, "--direct=", "10"));
+            long time = (long) (Double.parseDouble(flag(args, "--time=", "10")) * 1000);
+
+            SlowBankService bank = new SlowBankService(latency);
+            User a = bank.createAccount("Edt A", "edt-a", PASSWORD, "", ""), b = bank.createAccount("Edt B", "edt-b", PASSWORD, "", "");
+            bank.deposit(a, 1_000_000_00L);
+            boolean onScreen = !GraphicsEnvironment.isHeadless();
+            BankManagementSystem[] frame = new BankManagementSystem[1];
+            if (onScreen) {
+                SwingUtilities.invokeAndWait(() -> {
+                    frame[0] = new BankManagementSystem(bank);
+                    frame[0].setVisible(true);
+                    frame[0].login("edt-a", PASSWORD);
+                });
+            }
+            AsyncBankService async = onScreen ? frame[0].asyncBank : new AsyncBankService(bank);
+            JButton control = new JButton("Submit");
+
+            System.out.printf("%-8s %7s %10s %10s %10s%n", "calls", "count", "p50 ms", "p99 ms", "max ms");
+            AtomicInteger directDone = new AtomicInteger();
+            for (int i = 0; i < direct; i++) {
+                SwingUtilities.invokeLater(() -> {
+                    bank.deposit(a, 1); // what the UI did before AsyncBankService
+                    directDone.incrementAndGet();
+                });
+            }
+            report("direct", direct, probe(() -> directDone.get() == direct));
+
+            // An unmeasured pass first, so thread start-up and JIT compilation don't count as stalls
+            drive(frame[0], async, a, b, control, Math.max(1, ops / 5), Math.max(10, time / 5));
+            long[] waits = drive(frame[0], async, a, b, control, ops, time);
+            report("async", ops, waits);
+
+            boolean ok = percentile(waits, 0.99) < FRAME_NANOS;
+            System.out.println(ok ? "PASS: the EDT stayed within a frame" : "FAIL: the EDT missed frames");
+            if (onScreen) SwingUtilities.invokeAndWait(() -> frame[0].dispose());
+            System.exit(ok ? 0 : 1);
+        }
+
+        // Starts ops calls from the EDT, spread over timeMillis, and probes the EDT until all complete
+        private static long[] drive(BankManagementSystem frame, AsyncBankService async, User a, User b,
+                                    JComponent control, int ops, long timeMillis) throws Exception {
+            AtomicInteger started = new AtomicInteger(), completed = new AtomicInteger();
+            Thread driver = new Thread(() -> {
+                long ticks = Math.max(1, timeMillis / 10);
+                for (long tick = 1; tick <= ticks; tick++) {
+                    int due = (int) (ops * tick / ticks);
+                    SwingUtilities.invokeLater(() -> {
+                        while (started.get() < due) {
+                            int i = started.getAndIncrement();
+                            switch (i % 5) {
+                                case 0: submit(frame, () -> async.deposit(a, 100), completed, control); break;
+                                case 1: submit(frame, () -> async.withdraw(a, 1), completed, control); break;
+                                case 2: submit(frame, () -> async.transfer(a, b.getAccountId(), 1), completed, control); break;
+                                case 3: submit(frame, () -> async.payBill(a, "Electricity", 1), completed, control); break;
+                                default: submit(frame, () -> async.authenticate("edt-b", PASSWORD), completed, control); break;
+                            }
+                        }
+                    });
+                    try {
+                        Thread.sleep(10);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }, "edt-check-driver");
+            driver.start();
+            return probe(() -> completed.get() == ops);
+        }
+
+        // Called on the EDT, like a button's action listener
+        private static <T> void submit(BankManagementSystem frame, Supplier<CompletableFuture<T>> call,
+                                       AtomicInteger completed, JComponent control) {
+            if (frame != null) {
+                frame.runBanking(call, result -> completed.incrementAndGet(), "Operation failed", control);
+                return;
+            }
+            control.setEnabled(false);
+            call.get().whenCompleteAsync((result, error) -> {
+                control.setEnabled(true);
+                if (error != null) error.printStackTrace();
+                completed.incrementAndGet();
+            }, SwingUtilities::invokeLater);
+        }
+
+        // Posts a task to the EDT every 5 ms until done; returns how long each waited to run, sorted
+        private static long[] probe(BooleanSupplier done) throws Exception {
+            List<Long> waits = new ArrayList<>(); // only touched on the EDT
+            while (!done.getAsBoolean()) {
+                long posted = System.nanoTime();
+                SwingUtilities.invokeLater(() -> waits.add(System.nanoTime() - posted));
+                Thread.sleep(5);
+            }
+            long[][] sorted = new long[1][];
+            // Queued behind the probes already posted, so it sees all of them
+            SwingUtilities.invokeAndWait(() -> sorted[0] = waits.stream().mapToLong(Long::longValue).sorted().toArray());
+            return sorted[0];
+        }
+
+        private static long percentile(long[] sorted, double q) {
+            return sorted.length == 0 ? 0 : sorted[Math.min(sorted.length - 1, (int) (sorted.length * q))];
+        }
+
+        private static void report(String calls, int count, long[] waits) {
+            System.out.printf("%-8s %7d %10.2f %10.2f %10.2f%n", calls, count, percentile(waits, 0.50) / 1e6,
+                              percentile(waits, 0.99) / 1e6, percentile(waits, 1) / 1e6);
+        }
+    }
+
+    // Times one payroll run of --postings transfers from a single employer to --payees accounts,
+    // posted once as one postBatch call and once as a loop of transfer calls, each on a fresh
+    // ledger. --journal=none keeps the ledger in memory; group and per-op journal to a temp file
+    // with that durability, where the batch's single record and fsync matter most:
+    //   java -cp . 'BankManagementSystem$BatchBenchmark' --postings=100000 --payees=1000 --journal=none,group
+    static final class BatchBenchmark {
+        public static void main(String[] args) throws Exception {
+            int postings = Integer.parseInt(flag(args, "--postings=", "100000"));
+            int payees = Integer.parseInt(flag(args, "--payees=", "1000"));
+            String[] journals = flag(args, "--journal=", "none,group").split(",");
+            int rounds = Integer.parseInt(flag(args, "--rounds=", "3"));
+
+            System.out.printf("%-7s %9s %12s %14s %8s%n", "journal", "postings", "loop ms", "batch ms", "speedup");
+            for (String journal : journals) {
+                long loop = Long.MAX_VALUE, batch = Long.MAX_VALUE;
+                for (int round = 0; round < rounds; round++) { // the first round warms up; report the best
+                    loop = Math.min(loop, run(journal.trim(), postings, payees, false));
+                    batch = Math.min(batch, run(journal.trim(), postings, payees, true));
+                }
+                System.out.printf("%-7s %9d %12.1f %14.1f %7.1fx%n", journal.trim(), postings,
+                                  loop / 1e6, batch / 1e6, (double) loop / batch);
+            }
+        }
+
+        // Returns the nanoseconds taken to post the run
+        private static long run(String journal, int postings, int payees, boolean asBatch) throws IOException {
+            Path dir = journal.equals("none") ? null : Files.createTempDirectory("osryn-batch");
+            LedgerJournal.Durability durability = journal.equals("per-op") ? LedgerJournal.Durability.PER_OPERATION
+                                                                           : LedgerJournal.Durability.GROUP_COMMIT;
+            LedgerJournal ledgerJournal = dir == null ? null : LedgerJournal.open(dir.resolve("ledger.journal"), durability);
+            BankService bank = new BankService(ledgerJournal, null, new PasswordHasher(1_000, 1, 64, 300));
+            try {
+                User employer = bank.createAccount("Employer", "employer", "batch-password", "", "");
+                bank.deposit(employer, (long) postings * 1_000_00L);
+                String[] ids = new String[payees];
+                for (int i = 0; i < payees; i++) ids[i] = bank.createAccount("Payee " + i, "payee" + i, "batch-password", "", "").getAccountId();
+                List<BankService.Posting> run = new ArrayList<>(postings);
+                for (int i = 0; i < postings; i++) run.add(BankService.Posting.transfer(employer.getAccountId(), ids[i % payees], 1_000_00L));
+
+                long start = System.nanoTime();
+                int applied = 0;
+                if (asBatch) {
+                    applied = bank.postBatch(run, BankService.BatchMode.ALL_OR_NOTHING).getApplied();
+                } else {
+                    for (BankService.Posting p : run) if (bank.transfer(employer, p.target, p.amount)) applied++;
+                }
+                long elapsed = System.nanoTime() - start;
+                if (applied != postings) throw new IllegalStateException(applied + " of " + postings + " postings applied");
+                return elapsed;
+            } finally {
+                if (ledgerJournal != null) ledgerJournal.close();
+                if (dir != null) {
+                    try (java.util.stream.Stream<Path> files = Files.walk(dir)) {
+                        files.sorted(Comparator.reverseOrder()).forEach(f -> f.toFile().delete());
+                    }
+                }
+            }
+        }
+    }
+
+    // Checks the id generators under parallel load. --threads threads open --accounts accounts
+    // between them; every account number must be distinct and still resolve to the account that
+    // drew it (a collision must redraw, never replace the holder). The same threads then draw
+    // --ids transaction ids; every id must be distinct, increase within its thread and survive
+    // encode/decode, and the draw rate must reach --target ids/s. Exits with status 1 otherwise.
+    //   java -cp . 'BankManagementSystem$IdCheck' --accounts=200000 --threads=8 --ids=10000000 --target=10000000
+    static final class IdCheck {
+        public static void main(String[] args) throws Exception {
+            int accounts = Integer.parseInt(flag(args, "--accounts=", "200000"));
+            int threads = Integer.parseInt(flag(args, "--threads=", "8"));
+            int ids = Integer.parseInt(flag(args, "--ids=", "10000000"));
+            double target = Double.parseDouble(flag(args, "--target=", "10000000"));
+
+            // Hashing isn't under test, so make it as cheap as the hasher allows
+            BankService bank = new BankService(null, null, new PasswordHasher(1, threads, threads * 2, 300));
+            User[] opened = new User[accounts];
+            long start = System.nanoTime();
+            runAll(threads, t -> {
+                for (int i = t; i < accounts; i += threads) opened[i] = bank.createAccount("Id " + i, "id" + i, "id-password", "", "");
+            });
+            double openSeconds = (System.nanoTime() - start) / 1e9;
+            Set<String> numbers = new HashSet<>(accounts * 2);
+            int duplicateNumbers = 0, replaced = 0, invalid = 0;
+            for (User u : opened) {
+                if (!numbers.add(u.getAccountId())) duplicateNumbers++;
+                if (bank.getAccount(u.getAccountId()) != u) replaced++;
+                if (!IdService.isValidAccountNumber(u.getAccountId())) invalid++;
+            }
+            System.out.printf("%d accounts opened by %d threads in %.2f s: %d duplicate numbers, %d replaced, %d failing the check digit%n",
+                              accounts, threads, openSeconds, duplicateNumbers, replaced, invalid);
+
+            long[][] drawn = new long[threads][];
+            for (int t = 0; t < threads; t++) drawn[t] = new long[ids / threads + (t < ids % threads ? 1 : 0)];
+            start = System.nanoTime();
+            runAll(threads, t -> {
+                long[] out = drawn[t];
+                for (int i = 0; i < out.length; i++) out[i] = IdService.nextTransactionId();
+            });
+            double rate = ids / ((System.nanoTime() - start) / 1e9);
+            long[] all = new long[ids];
+            int unordered = 0, garbled = 0;
+            for (int t = 0, at = 0; t < threads; t++) {
+                long[] out = drawn[t];
+                for (int i = 0; i < out.length; i++) {
+                    if (i > 0 && out[i] <= out[i - 1]) unordered++;
+                    if (i % 1024 == 0 && IdService.decodeTransactionId(IdService.encodeTransactionId(out[i])) != out[i]) garbled++;
+                }
+                System.arraycopy(out, 0, all, at, out.length);
+                at += out.length;
+            }
+            Arrays.sort(all);
+            int duplicateIds = 0;
+            for (int i = 1; i < all.length; i++) if (all[i] == all[i - 1]) duplicateIds++;
+            System.out.printf("%d transaction ids drawn by %d threads at %.1fM/s (target %.1fM/s): %d duplicates, %d out of order, %d not round-tripping%n",
+                              ids, threads, rate / 1e6, target / 1e6, duplicateIds, unordered, garbled);
+
+            boolean ok = duplicateNumbers == 0 && replaced == 0 && invalid == 0
+                      && duplicateIds == 0 && unordered == 0 && garbled == 0 && rate >= target;
+            System.out.println(ok ? "PASS" : "FAIL");
+            System.exit(ok ? 0 : 1);
+        }
+
+        private static void runAll(int threads, IntConsumer body) throws InterruptedException {
+            Thread[] workers = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                int index = t;
+                workers[t] = new Thread(() -> body.accept(index), "id-check-" + t);
+                workers[t].start();
+            }
+            for (Thread w : workers) w.join();
+        }
+    }
+
+    // Signs users in and out of a real frame N times and reports heap after GC plus the time from
+    // login to the dashboard's first complete paint. Needs a display (or Xvfb):
+    //   java -cp . 'BankManagementSystem$DashboardSoak' --cycles=10000 --users=4
+    // The first few cycles also open every view once, so the lazily built ones are part of the run.
+    static final class DashboardSoak {
+        public static void main(String[] args) throws Exception {
+            int cycles = Integer.parseInt(flag(args, "--cycles=", "10000"));
+            int userCount = Integer.parseInt(flag(args, "--users=", "4"));
+            int every = Math.max(1, cycles / 10);
+
+            BankService bank = new BankService(null, null, new PasswordHasher(1_000, 1, 64, 300));
+            List<User> users = new ArrayList<>();
+            for (int i = 0; i < userCount; i++) {
+                User u = bank.createAccount("Soak " + i, "soak" + i, "soak-password", "", "");
+                bank.deposit(u, 1_000_00L * (i + 1));
+                users.add(u);
+            }
+            users.add(bank.authenticate("admin", "admin"));
+
+            BankManagementSystem[] frame = new BankManagementSystem[1];
+            SwingUtilities.invokeAndWait(() -> {
+                frame[0] = new BankManagementSystem(bank);
+                frame[0].setVisible(true);
+            });
+            LatencyHistogram firstPaint = new LatencyHistogram();
+            MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+            System.out.printf("%8s %10s %12s %12s%n", "cycles", "heap MB", "p50 ms", "p99 ms");
+            for (int c = 1; c <= cycles; c++) {
+                User u = users.get(c % users.size());
+                boolean tour = c <= users.size();
+                SwingUtilities.invokeAndWait(() -> {
+                    long start = System.nanoTime();
+                    frame[0].showDashboard(u);
+                    JRootPane root = frame[0].getRootPane();
+                    root.validate();
+                    root.paintImmediately(0, 0, root.getWidth(), root.getHeight());
+                    firstPaint.record(System.nanoTime() - start);
+                    if (tour) frame[0].dashboardPanel.tour();
+                    frame[0].showLogin();
+                });
+                if (c % every == 0 || c == cycles) {
+                    System.gc();
+                    System.out.printf("%8d %10.1f %12.3f %12.3f%n", c, memory.getHeapMemoryUsage().getUsed() / 1048576.0,
+                                      firstPaint.percentile(0.50) / 1e6, firstPaint.percentile(0.99) / 1e6);
+                }
+            }
+            SwingUtilities.invokeAndWait(() -> frame[0].dispose());
+        }
+    }
+
+    // Times full-window repaints (1280x850 by default) of a login-style screen: the cyber grid with
+    // a card of CyberTextFields, ModernTextFields and both button kinds, painted once with
+    // RenderCache disabled and once with it on. On a display the panel is shown in a frame and
+    // repainted with paintImmediately; headless it is painted into an offscreen image.
+    //   java -cp . 'BankManagementSystem$RepaintBenchmark' --frames=2000 --width=1280 --height=850
+    static final class RepaintBenchmark {
+        public static void main(String[] args) throws Exception {
+            int frames = Integer.parseInt(flag(args, "--frames=", "2000"));
+            int w = Integer.parseInt(flag(args, "--width=", "1280")), h = Integer.parseInt(flag(args, "--height=", "850"));
+            boolean onScreen = !GraphicsEnvironment.isHeadless();
+            JPanel[] screen = new JPanel[1];
+            JFrame[] frame = new JFrame[1];
+            SwingUtilities.invokeAndWait(() -> {
+                screen[0] = loginScreen();
+                if (onScreen) {
+                    frame[0] = new JFrame("RepaintBenchmark");
+                    frame[0].setContentPane(screen[0]);
+                    frame[0].setSize(w, h);
+                    frame[0].setVisible(true);
+                } else {
+                    screen[0].setSize(w, h);
+                    layoutTree(screen[0]); // validate() is a no-op without a native peer
+                }
+            });
+            BufferedImage offscreen = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+            System.out.printf("%-10s %9s %12s %12s%n", "cache", "frames", "p50 us", "p99 us");
+            for (boolean cached : new boolean[] { false, true }) {
+                LatencyHistogram latency = new LatencyHistogram();
+                SwingUtilities.invokeAndWait(() -> {
+                    RenderCache.enabled = cached;
+                    for (int i = -frames / 4; i < frames; i++) { // the first quarter is warm-up
+                        long start = System.nanoTime();
+                        if (onScreen) {
+                            screen[0].paintImmediately(0, 0, screen[0].getWidth(), screen[0].getHeight());
+                        } else {
+                            Graphics2D g = offscreen.createGraphics();
+                            screen[0].paint(g);
+                            g.dispose();
+                        }
+                        if (i >= 0) latency.record(System.nanoTime() - start);
+                    }
+                });
+                System.out.printf("%-10s %9d %12.1f %12.1f%n", cached ? "on" : "off", frames,
+                                  latency.percentile(0.50) / 1e3, latency.percentile(0.99) / 1e3);
+            }
+            if (frame[0] != null) SwingUtilities.invokeAndWait(() -> frame[0].dispose());
+        }
+
+        private static void layoutTree(Container c) {
+            c.doLayout();
+            for (Component child : c.getComponents()) {
+                if (child instanceof Container) layoutTree((Container) child);
+            }
+        }
+
+        private static JPanel loginScreen() {
+            JPanel screen = new JPanel(new GridBagLayout()) {
+                @Override protected void paintComponent(Graphics g) {
+                    RenderCache.paintBackground(this, g, "cyber-grid", RenderCache::paintCyberGrid);
+                }
+            };
+            JPanel card = new JPanel();
+            card.setLayout(new BoxLayout(card, BoxLayout.Y_AXIS));
+            card.setBackground(CYBER_CARD);
+            card.setBorder(new EmptyBorder(50, 50, 50, 50));
+            Dimension d = new Dimension(350, 45);
+            JComponent[] parts = {
+                new CyberTextField("USERNAME"), new CyberTextField("EMAIL ADDRESS"), new CyberButton("INITIATE LOGIN"),
+                new ModernTextField("Enter Amount (BDT)"), new ModernButton("CONFIRM DEPOSIT", COLOR_SECONDARY),
+                new ModernButton("CANCEL", COLOR_DANGER, true)
+            };
+            for (JComponent part : parts) {
+                part.setMaximumSize(d);
+                card.add(part);
+                card.add(Box.createVerticalStrut(15));
+            }
+            screen.add(card);
+            return screen;
+        }
+    }
+
+    // Measures the ledger event bus: producers publish flat out into a ring read by several
+    // subscribers, then the cost a subscriber adds to a real deposit, then how many EDT refreshes
+    // a FrameCoalescer turns a 1,000-event burst into.
+    //   java -cp . 'BankManagementSystem$EventBusBenchmark' --producers=1,4 --subscribers=1,4 --capacity=16384 --time=5
+    static final class EventBusBenchmark {
+        public static void main(String[] args) throws Exception {
+            int[] producerCounts = LedgerBenchmark.ints(flag(args, "--producers=", "1,4"));
+            int[] subscriberCounts = LedgerBenchmark.ints(flag(args, "--subscribers=", "1,4"));
+            int capacity = Integer.parseInt(flag(args, "--capacity=", "16384"));
+            long time = (long) (Double.parseDouble(flag(args, "--time=", "5")) * 1000);
+            User account = new User("100000001", "bench", "Bench", "", "", "");
+            LedgerEvent event = LedgerEvent.balanceChanged(account);
+
+            System.out.printf("%9s %11s %14s %12s %12s %13s %10s%n",
+                              "producers", "subscribers", "publishes/s", "p50 ns", "p99 ns", "delivered", "missed");
+            for (int producers : producerCounts) {
+                for (int subscribers : subscriberCounts) {
+                    LedgerEventBus bus = new LedgerEventBus(capacity);
+                    List<LedgerEventBus.Subscription> subs = new ArrayList<>();
+                    LongAdder seen = new LongAdder();
+                    for (int s = 0; s < subscribers; s++) subs.add(bus.subscribe("bench-" + s, e -> seen.increment()));
+                    LatencyHistogram latency = new LatencyHistogram();
+                    AtomicInteger phase = new AtomicInteger();
+                    LongAdder published = new LongAdder();
+                    Thread[] workers = new Thread[producers];
+                    for (int p = 0; p < producers; p++) {
+                        workers[p] = new Thread(() -> {
+                            for (long i = 0; phase.get() < 2; i++) {
+                                if ((i & 63) == 0) { // timing every publish would cost more than publishing
+                                    long start = System.nanoTime();
+                                    bus.publish(event);
+                                    if (phase.get() == 1) latency.record(System.nanoTime() - start);
+                                } else {
+                                    bus.publish(event);
+                                }
+                                if (phase.get() == 1) published.increment();
+                            }
+                        }, "bus-bench-" + p);
+                        workers[p].start();
+                    }
+                    Thread.sleep(Math.min(time, 1000));
+                    phase.set(1);
+                    Thread.sleep(time);
+                    phase.set(2);
+                    for (Thread w : workers) w.join();
+                    Thread.sleep(100); // let subscribers drain before counting
+                    long delivered = 0, missed = 0;
+                    for (LedgerEventBus.Subscription s : subs) {
+                        delivered += s.delivered();
+                        missed += s.missed();
+                        s.close();
+                    }
+                    System.out.printf("%9d %11d %14.0f %12d %12d %13d %10d%n", producers, subscribers,
+                                      published.sum() * 1000.0 / time, latency.percentile(0.50), latency.percentile(0.99),
+                                      delivered, missed);
+                }
+            }
+
+            BankService bank = new BankService(null, null, new PasswordHasher(1_000, 1, 64, 300));
+            User u = bank.createAccount("Bench", "bench", "bench-password", "", "");
+            System.out.printf("%n%-22s %12s %12s%n", "deposit", "p50 ns", "p99 ns");
+            for (boolean subscribed : new boolean[] { false, true }) {
+                LedgerEventBus.Subscription s = subscribed ? bank.getEvents().subscribe("bench", e -> { }) : null;
+                LatencyHistogram latency = new LatencyHistogram();
+                for (int i = -100_000; i < 500_000; i++) { // the first 100k are warm-up
+                    long start = System.nanoTime();
+                    bank.deposit(u, 1);
+                    if (i >= 0) latency.record(System.nanoTime() - start);
+                }
+                System.out.printf("%-22s %12d %12d%n", subscribed ? "with a subscriber" : "no subscribers",
+                                  latency.percentile(0.50), latency.percentile(0.99));
+                if (s != null) s.close();
+            }
+
+            AtomicInteger refreshes = new AtomicInteger();
+            LedgerEventBus bus = new LedgerEventBus(capacity);
+            FrameCoalescer coalescer = new FrameCoalescer(refreshes::incrementAndGet);
+            coalescer.watch(account.getAccountId());
+            LedgerEventBus.Subscription s = bus.subscribe("coalescer", coalescer);
+            long start = System.nanoTime();
+            for (int i = 0; i < 1000; i++) bus.publish(event);
+            long burstNanos = System.nanoTime() - start;
+            Thread.sleep(250);
+            System.out.printf("%n1000-event burst published in %.1f us, %d delivered, %d EDT refresh(es)%n",
+                              burstNanos / 1e3, s.delivered(), refreshes.get());
+            s.close();
+            System.exit(0); // the Swing timer keeps the EDT alive
+        }
+    }
+
+    // Seeds savings accounts in an in-memory ledger and times daily interest runs over them, then a
+    // repeat of the last day (which must post nothing). The fork/join passes run on the ledger's
+    // accrual pool, so set its size with -Dosryn.interestThreads=N.
+    //   java -Xmx8g -cp . 'BankManagementSystem$InterestBenchmark' --accounts=1000000 --days=5
+    static final class InterestBenchmark {
+        public static void main(String[] args) {
+            int accounts = Integer.parseInt(flag(args, "--accounts=", "1000000"));
+            int days = Integer.parseInt(flag(args, "--days=", "5"));
+            BankService bank = new BankService(null, null, new PasswordHasher(1, 1, 64, 300));
+            long seedStart = System.nanoTime();
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < accounts; i++) {
+                User u = bank.createAccount("Saver " + i, "saver" + i, "bench-password", "", "", User.AccountType.SAVINGS);
+                bank.deposit(u, 1_000_00 + random.nextLong(10_000_000_00L));
+            }
+            System.out.printf("Seeded %d savings accounts in %.1f s, %d fork/join threads%n", accounts,
+                              (System.nanoTime() - seedStart) / 1e9, BankService.AccrualPool.INSTANCE.getParallelism());
+            System.out.printf("%-12s %10s %10s %16s %10s %14s%n", "day", "scanned", "accrued", "interest BDT", "ms", "accounts/s");
+            LocalDate day = LocalDate.now();
+            for (int d = 0; d <= days; d++) {
+                if (d < days) day = LocalDate.now().plusDays(d);
+                BankService.AccrualResult r = bank.accrueInterest(day); // the last pass repeats the last day
+                System.out.printf("%-12s %10d %10d %16s %10.1f %14.0f%n", d < days ? day.toString() : "(repeat)",
+                                  r.scanned, r.accrued, Money.toDecimal(r.interest).toPlainString(), r.nanos / 1e6,
+                                  r.scanned / (r.nanos / 1e9));
+            }
+        }
+    }
+
+    // Times RiskStage.screen under concurrent load: each thread screens postings from random
+    // accounts (holding that account's stripe lock, as BankService does) against the default rules
+    // with limits nobody reaches, so every check runs every rule. Also reports the bytes allocated
+    // per check and what the stage adds to an end-to-end withdraw.
+    //   java -cp . 'BankManagementSystem$RiskBenchmark' --threads=1,4,16 --accounts=10000 --time=5
+    static final class RiskBenchmark {
+        private static final String RULES = "count.1m>1000000000:block; amount>1000000000:review; "
+            + "newpayee.amount>1000000000:review; sum.24h>1000000000000:review; count.24h>1000000000:review";
+
+        public static void main(String[] args) throws Exception {
+            int[] threadCounts = LedgerBenchmark.ints(flag(args, "--threads=", "1,4,16"));
+            int accounts = Integer.parseInt(flag(args, "--accounts=", "10000"));
+            long time = (long) (Double.parseDouble(flag(args, "--time=", "5")) * 1000);
+            User[] users = new User[accounts];
+            for (int i = 0; i < accounts; i++) users[i] = new User(String.valueOf(100_000_000 + i), "risk" + i, "Risk " + i, "", "", "");
+            ReentrantLock[] locks = new ReentrantLock[256];
+            for (int i = 0; i < locks.length; i++) locks[i] = new ReentrantLock();
+
+            System.out.printf("%7s %14s %10s %10s %10s %14s%n", "threads", "checks/s", "p50 ns", "p99 ns", "p99.9 ns", "bytes/check");
+            for (int threads : threadCounts) {
+                VelocityRiskStage stage = new VelocityRiskStage(RiskRule.parse(RULES));
+                LatencyHistogram latency = new LatencyHistogram();
+                AtomicInteger phase = new AtomicInteger();
+                LongAdder checks = new LongAdder(), allocated = new LongAdder();
+                Thread[] workers = new Thread[threads];
+                for (int t = 0; t < threads; t++) {
+                    workers[t] = new Thread(() -> {
+                        ThreadLocalRandom random = ThreadLocalRandom.current();
+                        long n = 0, bytesBefore = 0;
+                        boolean timing = false;
+                        while (phase.get() < 2) {
+                            if (!timing && phase.get() == 1) {
+                                timing = true;
+                                bytesBefore = allocatedBytes();
+                            }
+                            User payer = users[random.nextInt(accounts)];
+                            String payee = random.nextInt(4) == 0 ? users[random.nextInt(accounts)].getAccountId() : null;
+                            ReentrantLock lock = locks[payer.getAccountId().hashCode() & 255];
+                            long start = System.nanoTime();
+                            lock.lock();
+                            try {
+                                stage.screen(payer, payee == null ? LedgerMetrics.Operation.WITHDRAW : LedgerMetrics.Operation.TRANSFER,
+                                             1 + random.nextInt(100_000), payee, System.currentTimeMillis());
+                            } finally {
+                                lock.unlock();
+                            }
+                            if (timing) {
+                                latency.record(System.nanoTime() - start);
+                                n++;
+                            }
+                        }
+                        checks.add(n);
+                        if (bytesBefore >= 0) allocated.add(allocatedBytes() - bytesBefore);
+                    }, "risk-bench-" + t);
+                    workers[t].start();
+                }
+                Thread.sleep(Math.min(time, 2000)); // warm-up: JIT, and every account's state created
+                phase.set(1);
+                Thread.sleep(time);
+                phase.set(2);
+                for (Thread w : workers) w.join();
+                System.out.printf("%7d %14.0f %10d %10d %10d %14.2f%n", threads, checks.sum() * 1000.0 / time,
+                                  latency.percentile(0.50), latency.percentile(0.99), latency.percentile(0.999),
+                                  allocated.sum() / (double) Math.max(1, checks.sum()));
+            }
+
+            System.out.printf("%n%-16s %10s %10s%n", "withdraw", "p50 ns", "p99 ns");
+            for (boolean screened : new boolean[] { false, true }) {
+                BankService bank = new BankService(null, null, new PasswordHasher(1_000, 1, 64, 300));
+                bank.setRiskStage(screened ? new VelocityRiskStage(RiskRule.parse(RULES)) : RiskStage.NONE);
+                User u = bank.createAccount("Bench", "bench", "bench-password", "", "");
+                bank.deposit(u, 1_000_000_000_00L);
+                LatencyHistogram latency = new LatencyHistogram();
+                for (int i = -200_000; i < 500_000; i++) { // the first 200k are warm-up
+                    long start = System.nanoTime();
+                    bank.withdraw(u, 1);
+                    if (i >= 0) latency.record(System.nanoTime() - start);
+                }
+                System.out.printf("%-16s %10d %10d%n", screened ? "with risk stage" : "no risk stage",
+                                  latency.percentile(0.50), latency.percentile(0.99));
+            }
+        }
+
+        // Bytes this thread has allocated so far, or -1 where the JVM can't tell
+        private static long allocatedBytes() {
+            java.lang.management.ThreadMXBean mx = java.lang.management.ManagementFactory.getThreadMXBean();
+            return mx instanceof com.sun.management.ThreadMXBean
+                ? ((com.sun.management.ThreadMXBean) mx).getThreadAllocatedBytes(Thread.currentThread().getId()) : -1;
+        }
+    }
+
+    // ==========================================
+    //            CUSTOM UI COMPONENTS
+    // ==========================================
+
+    // Shared paint resources for the custom components. Fonts and Colors are interned so views stop
+    // allocating them per construction, and anything costly to draw is rendered once into a Skin
+    // and blitted on later paints. -Dosryn.renderCache=false paints everything directly again.
+    static final class RenderCache {
+        static boolean enabled = Boolean.parseBoolean(System.getProperty("osryn.renderCache", "true"));
+
+        private static final Map<String, Font> FONTS = new ConcurrentHashMap<>();
+        private static final Map<Integer, Color> COLORS = new ConcurrentHashMap<>();
+        // Full-window backgrounds by painter and size; while a window is being resized only the
+        // latest few sizes are worth keeping. EDT only.
+        private static final Map<String, Skin> BACKGROUNDS = new LinkedHashMap<String, Skin>(8, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(Map.Entry<String, Skin> eldest) {
+                if (size() <= 4) return false;
+                eldest.getValue().flush();
+                return true;
+            }
+        };
+
+        static final Color CYBER_GRID = color(15, 23, 42);
+        static final Color CYBER_FIELD = color(20, 25, 40);
+        static final Color CYBER_ACCENT_HOVER = CYBER_ACCENT.brighter();
+
+        private RenderCache() {}
+
+        static Font font(String name, int style, int size) {
+            return FONTS.computeIfAbsent(name + '\0' + style + '\0' + size, k -> new Font(name, style, size));
         }
-    }
 
-    static class Transaction {
-        private String id, type, description;
-        private double amount;
-        private Date date;
+        static Color color(int r, int g, int b) {
+            return color(r, g, b, 255);
+        }
 
-        public Transaction(String type, double amount, String description) {
-            this.id = UUID.randomUUID().toString().substring(0, 8).toUpperCase();
-            this.type = type;
-            this.amount = amount;
-            this.description = description;
-            this.date = new Date();
+        static Color color(int r, int g, int b, int a) {
+            return COLORS.computeIfAbsent((a & 0xff) << 24 | (r & 0xff) << 16 | (g & 0xff) << 8 | (b & 0xff),
+                                          argb -> new Color(r, g, b, a));
         }
-        public String getId() { return id; }
-        public String getType() { return type; }
-        public double getAmount() { return amount; }
-        public String getDescription() { return description; }
-        public Date getDate() { return date; }
-    }
 
-    static class BankService {
-        private Map<String, User> users = new HashMap<>();
+        // Paints c's whole background from a skin shared by every component using the same key
+        static void paintBackground(JComponent c, Graphics g, String key, Skin.Painter painter) {
+            int w = c.getWidth(), h = c.getHeight();
+            if (w <= 0 || h <= 0) return;
+            BACKGROUNDS.computeIfAbsent(key + '\0' + w + 'x' + h, k -> new Skin(painter, false)).draw(c, g, w, h);
+        }
 
-        public BankService() {
-            User admin = createAccount("Admin User", "admin", "admin", "admin@osryn.bank", "000-0000");
-            if(admin != null) {
-                admin.updateBalance(12500.50);
-                admin.addTransaction(new Transaction("Deposit", 12500.50, "Initial Funding"));
-                admin.getBalanceHistory().clear();
-                admin.getBalanceHistory().addAll(Arrays.asList(5000.0, 5200.0, 4800.0, 6000.0, 8500.0, 7000.0, 12500.50));
-            }
+        // The login/signup backdrop: flat cyber blue with a 40px grid
+        static void paintCyberGrid(Graphics2D g, int w, int h) {
+            g.setColor(CYBER_BG);
+            g.fillRect(0, 0, w, h);
+            g.setColor(CYBER_GRID);
+            for (int i = 0; i < w; i += 40) g.drawLine(i, 0, i, h);
+            for (int i = 0; i < h; i += 40) g.drawLine(0, i, w, i);
         }
+    }
 
-        public User createAccount(String name, String username, String pass, String email, String phone) {
-            for (User u : users.values()) if (u.getUsername().equalsIgnoreCase(username)) return null;
-            String accId = String.format("%09d", new Random().nextInt(1000000000));
-            User u = new User(accId, username, name, pass, email, phone);
-            users.put(accId, u);
-            return u;
+    // One rendering of a component at one size, kept in a VolatileImage (video memory where the
+    // pipeline allows it) and redrawn only when the size or scale changes, invalidate() is called,
+    // or the image's contents are lost. Components without a screen (offscreen painting) get a
+    // BufferedImage instead. EDT only.
+    static final class Skin {
+        interface Painter {
+            void paint(Graphics2D g, int w, int h);
         }
 
-        public User authenticate(String user, String pass) {
-            return users.values().stream()
-                .filter(u -> u.getUsername().equalsIgnoreCase(user) && u.getPassword().equals(pass))
-                .findFirst().orElse(null);
+        private final Painter painter;
+        private final boolean translucent;
+        private VolatileImage image;
+        private BufferedImage fallback;
+        private int width, height;
+        private double scale;
+        private boolean dirty = true;
+
+        Skin(Painter painter, boolean translucent) {
+            this.painter = painter;
+            this.translucent = translucent;
         }
 
-        public boolean transfer(User sender, String targetId, double amount) {
-            User target = users.get(targetId);
-            if (target == null || sender.getBalance() < amount) return false;
-            
-            sender.updateBalance(sender.getBalance() - amount);
-            target.updateBalance(target.getBalance() + amount);
-            
-            sender.addTransaction(new Transaction("Transfer Out", -amount, "To: " + target.getName()));
-            target.addTransaction(new Transaction("Transfer In", amount, "From: " + sender.getName()));
-            return true;
+        void invalidate() { dirty = true; }
+
+        void draw(Component c, Graphics g, int w, int h) {
+            Graphics2D g2 = (Graphics2D) g;
+            if (!RenderCache.enabled) {
+                Graphics2D direct = (Graphics2D) g2.create();
+                try {
+                    hints(direct);
+                    painter.paint(direct, w, h);
+                } finally {
+                    direct.dispose();
+                }
+                return;
+            }
+            double s = g2.getTransform().getScaleX(); // render at device resolution on HiDPI screens
+            int iw = (int) Math.ceil(w * s), ih = (int) Math.ceil(h * s);
+            if (iw != width || ih != height || s != scale) {
+                flush();
+                width = iw;
+                height = ih;
+                scale = s;
+            }
+            GraphicsConfiguration gc = c.getGraphicsConfiguration();
+            if (gc == null) {
+                if (fallback == null) {
+                    fallback = new BufferedImage(iw, ih, translucent ? BufferedImage.TYPE_INT_ARGB_PRE : BufferedImage.TYPE_INT_RGB);
+                    dirty = true;
+                }
+                if (dirty) render(fallback.createGraphics(), w, h);
+                g2.drawImage(fallback, 0, 0, w, h, null);
+                return;
+            }
+            for (int attempt = 0; attempt < 3; attempt++) {
+                int state = image == null ? VolatileImage.IMAGE_INCOMPATIBLE : image.validate(gc);
+                if (state == VolatileImage.IMAGE_INCOMPATIBLE) {
+                    if (image != null) image.flush();
+                    image = gc.createCompatibleVolatileImage(iw, ih, translucent ? Transparency.TRANSLUCENT : Transparency.OPAQUE);
+                    dirty = true;
+                }
+                if (dirty || state == VolatileImage.IMAGE_RESTORED) render(image.createGraphics(), w, h);
+                g2.drawImage(image, 0, 0, w, h, null);
+                if (!image.contentsLost()) return;
+            }
         }
 
-        public void deposit(User u, double amt) {
-            u.updateBalance(u.getBalance() + amt);
-            u.addTransaction(new Transaction("Deposit", amt, "ATM / Cash"));
+        private void render(Graphics2D g, int w, int h) {
+            try {
+                if (translucent) {
+                    g.setComposite(AlphaComposite.Clear);
+                    g.fillRect(0, 0, width, height);
+                    g.setComposite(AlphaComposite.SrcOver);
+                }
+                g.scale(scale, scale);
+                hints(g);
+                painter.paint(g, w, h);
+                dirty = false;
+            } finally {
+                g.dispose();
+            }
         }
 
-        public boolean withdraw(User u, double amt) {
-            if (u.getBalance() < amt) return false;
-            u.updateBalance(u.getBalance() - amt);
-            u.addTransaction(new Transaction("Withdrawal", -amt, "ATM Withdrawal"));
-            return true;
+        private static void hints(Graphics2D g) {
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
         }
-        
-        public boolean payBill(User u, String biller, double amt) {
-            if (u.getBalance() < amt) return false;
-            u.updateBalance(u.getBalance() - amt);
-            u.addTransaction(new Transaction("Bill Payment", -amt, "To: " + biller));
-            return true;
+
+        void flush() {
+            if (image != null) image.flush();
+            image = null;
+            fallback = null;
+            dirty = true;
         }
     }
 
-    // ==========================================
-    //            CUSTOM UI COMPONENTS
-    // ==========================================
-
     // Cyber Button for Auth Pages
     static class CyberButton extends JButton {
         public CyberButton(String text) {
@@ -266,155 +6744,290 @@ public class BankManagementSystem extends JFrame {
             setBackground(CYBER_ACCENT);
             setFocusPainted(false);
             setBorderPainted(false);
-            setCursor(new Cursor(Cursor.HAND_CURSOR));
+            setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
             
             addMouseListener(new MouseAdapter() {
-                public void mouseEntered(MouseEvent e) { setBackground(CYBER_ACCENT.brighter()); }
+                public void mouseEntered(MouseEvent e) { setBackground(RenderCache.CYBER_ACCENT_HOVER); }
                 public void mouseExited(MouseEvent e) { setBackground(CYBER_ACCENT); }
             });
         }
         @Override protected void paintComponent(Graphics g) {
-            Graphics2D g2 = (Graphics2D) g;
-            g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-            g2.setColor(getBackground());
-            g2.fillRoundRect(0, 0, getWidth(), getHeight(), 0, 0); // Sharp corners for cyber look
+            g.setColor(getBackground());
+            g.fillRect(0, 0, getWidth(), getHeight()); // Sharp corners for cyber look
             super.paintComponent(g);
         }
     }
 
+    // Dark field; while empty and unfocused its background and placeholder come from one skin
     static class CyberTextField extends JTextField {
+        private static final Border BORDER = BorderFactory.createCompoundBorder(
+            new LineBorder(RenderCache.color(45, 55, 75), 1), new EmptyBorder(10, 15, 10, 15));
         private String placeholder;
+        private final Skin placeholderSkin = new Skin((g, w, h) -> {
+            g.setColor(RenderCache.CYBER_FIELD);
+            g.fillRect(0, 0, w, h);
+            g.setColor(COLOR_TEXT_MUTED);
+            g.setFont(getFont());
+            g.drawString(placeholder, getInsets().left, getFontMetrics(getFont()).getMaxAscent() + getInsets().top);
+        }, false);
+
         public CyberTextField(String placeholder) {
             this.placeholder = placeholder;
             setFont(FONT_BODY);
             setOpaque(false);
             setForeground(CYBER_TEXT);
             setCaretColor(CYBER_ACCENT);
-            setBorder(BorderFactory.createCompoundBorder(
-                new LineBorder(new Color(45, 55, 75), 1),
-                new EmptyBorder(10, 15, 10, 15)
-            ));
+            setBorder(BORDER);
         }
         @Override protected void paintComponent(Graphics g) {
-            Graphics2D g2 = (Graphics2D) g;
-            g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-            g2.setColor(new Color(20, 25, 40));
-            g2.fillRect(0, 0, getWidth(), getHeight());
-            super.paintComponent(g);
             if (getText().isEmpty() && !isFocusOwner()) {
-                g2.setColor(new Color(100, 116, 139));
-                g2.setFont(getFont());
-                g2.drawString(placeholder, getInsets().left, g.getFontMetrics().getMaxAscent() + getInsets().top);
+                placeholderSkin.draw(this, g, getWidth(), getHeight());
+            } else {
+                g.setColor(RenderCache.CYBER_FIELD);
+                g.fillRect(0, 0, getWidth(), getHeight());
             }
+            super.paintComponent(g);
         }
     }
 
+    // The rounded face (filled, or outlined when isOutline) is a skin per hover state; the label
+    // is still drawn by the button UI on top
     static class ModernButton extends JButton {
+        private static final BasicStroke OUTLINE = new BasicStroke(2);
         private Color normalColor, hoverColor;
         private boolean isOutline = false;
+        private boolean hover;
+        private final Skin normalSkin, hoverSkin;
+
         public ModernButton(String text, Color bg) { this(text, bg, false); }
         public ModernButton(String text, Color bg, boolean outline) {
             super(text);
             this.isOutline = outline;
             this.normalColor = bg;
             this.hoverColor = bg.brighter();
+            this.normalSkin = new Skin((g, w, h) -> paintFace(g, w, h, normalColor), true);
+            this.hoverSkin = new Skin((g, w, h) -> paintFace(g, w, h, hoverColor), true);
             setFont(FONT_BOLD);
             setForeground(outline ? bg : Color.WHITE);
             setFocusPainted(false);
             setBorderPainted(false);
             setContentAreaFilled(false);
-            setCursor(new Cursor(Cursor.HAND_CURSOR));
+            setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
             addMouseListener(new MouseAdapter() {
-                public void mouseEntered(MouseEvent e) { setBackground(hoverColor); repaint(); }
-                public void mouseExited(MouseEvent e) { setBackground(normalColor); repaint(); }
+                public void mouseEntered(MouseEvent e) { setHover(true); }
+                public void mouseExited(MouseEvent e) { setHover(false); }
             });
         }
-        @Override protected void paintComponent(Graphics g) {
-            Graphics2D g2 = (Graphics2D) g;
-            g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+
+        private void setHover(boolean on) {
+            hover = on;
+            if (isOutline) setForeground(on ? hoverColor : normalColor);
+            repaint();
+        }
+
+        private void paintFace(Graphics2D g2, int w, int h, Color c) {
+            g2.setColor(c);
             if (isOutline) {
-                g2.setColor(getBackground() == null ? normalColor : getBackground());
-                g2.setStroke(new BasicStroke(2));
-                g2.drawRoundRect(1, 1, getWidth()-2, getHeight()-2, 8, 8);
-                setForeground(getBackground() == null ? normalColor : getBackground());
+                g2.setStroke(OUTLINE);
+                g2.drawRoundRect(1, 1, w-2, h-2, 8, 8);
             } else {
-                g2.setColor(getBackground() == null ? normalColor : getBackground());
-                g2.fillRoundRect(0, 0, getWidth(), getHeight(), 8, 8);
-                setForeground(Color.WHITE);
+                g2.fillRoundRect(0, 0, w, h, 8, 8);
             }
+        }
+
+        @Override protected void paintComponent(Graphics g) {
+            (hover ? hoverSkin : normalSkin).draw(this, g, getWidth(), getHeight());
             super.paintComponent(g);
         }
     }
 
+    // Light rounded field; the rounded face, with or without the placeholder, is a skin
     static class ModernTextField extends JTextField {
         private String placeholder;
+        private final Skin faceSkin = new Skin((g, w, h) -> paintFace(g, w, h, false), true);
+        private final Skin placeholderSkin = new Skin((g, w, h) -> paintFace(g, w, h, true), true);
+
         public ModernTextField(String placeholder) {
             this.placeholder = placeholder;
             setFont(FONT_BODY);
             setOpaque(false);
             setBorder(BorderFactory.createCompoundBorder(
-                new LineBorder(new Color(203, 213, 225), 1, true),
+                new LineBorder(RenderCache.color(203, 213, 225), 1, true),
                 new EmptyBorder(10, 15, 10, 15)
             ));
         }
-        @Override protected void paintComponent(Graphics g) {
-            Graphics2D g2 = (Graphics2D) g;
-            g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+
+        private void paintFace(Graphics2D g2, int w, int h, boolean withPlaceholder) {
             g2.setColor(COLOR_SURFACE);
-            g2.fillRoundRect(0, 0, getWidth()-1, getHeight()-1, 8, 8);
-            super.paintComponent(g);
-            if (getText().isEmpty() && !isFocusOwner()) {
+            g2.fillRoundRect(0, 0, w-1, h-1, 8, 8);
+            if (withPlaceholder) {
                 g2.setColor(COLOR_TEXT_MUTED);
                 g2.setFont(getFont());
-                g2.drawString(placeholder, getInsets().left, g.getFontMetrics().getMaxAscent() + getInsets().top);
+                g2.drawString(placeholder, getInsets().left, getFontMetrics(getFont()).getMaxAscent() + getInsets().top);
             }
         }
+
+        @Override protected void paintComponent(Graphics g) {
+            boolean empty = getText().isEmpty() && !isFocusOwner();
+            (empty ? placeholderSkin : faceSkin).draw(this, g, getWidth(), getHeight());
+            super.paintComponent(g);
+        }
     }
     
     // ==========================================
     //            DASHBOARD GRAPH
     // ==========================================
     
+    // Plots the whole account lifetime: the raw per-posting points while they still cover it, otherwise
+    // the finest BalanceSeries level that does, thinned with LTTB to roughly one point per 3 pixels
     static class BalanceGraphPanel extends JPanel {
-        private List<Double> history;
-        public BalanceGraphPanel(List<Double> history) {
-            this.history = history;
+        private static final BasicStroke LINE_STROKE = new BasicStroke(3f);
+        private static final int MAX_DOTS = 30; // beyond this the markers just smear into the line
+        private static final int MAX_POINTS = Math.max(BalanceHistory.CAPACITY, maxBuckets());
+        private BalanceHistory history; // null while no account is shown
+        private BalanceSeries series;
+        // Reused across repaints; the rendered graph is cached until the data or size changes
+        private final long[] times = new long[MAX_POINTS], values = new long[MAX_POINTS];
+        private final double[] inX = new double[MAX_POINTS], inY = new double[MAX_POINTS];
+        private final double[] outX = new double[MAX_POINTS], outY = new double[MAX_POINTS];
+        private final Path2D.Double path = new Path2D.Double();
+        private BufferedImage cache;
+        private long cachedVersion = -1;
+        private double cachedScale;
+
+        public BalanceGraphPanel() {
             setOpaque(false);
             setPreferredSize(new Dimension(0, 180));
         }
+
+        void setUser(User user) {
+            history = user == null ? null : user.getBalanceHistory();
+            series = user == null ? null : user.getBalanceSeries();
+            cachedVersion = -1;
+            repaint();
+        }
+
+        private static int maxBuckets() {
+            int max = 0;
+            for (BalanceSeries.Resolution r : BalanceSeries.Resolution.values()) max = Math.max(max, r.maxBuckets);
+            return max;
+        }
+
         @Override protected void paintComponent(Graphics g) {
             super.paintComponent(g);
+            int w = getWidth(), h = getHeight();
+            if (w <= 0 || h <= 0 || history == null) return;
             Graphics2D g2 = (Graphics2D) g;
-            g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-            
-            if (history == null || history.size() < 2) return;
-            int w = getWidth(), h = getHeight(), pad = 30;
-            double min = Collections.min(history), max = Collections.max(history);
-            if(min == max) { max += 100; min -= 100; }
-            
-            Path2D path = new Path2D.Double();
-            double xStep = (double)(w - 2 * pad) / (history.size() - 1);
-            
-            for (int i = 0; i < history.size(); i++) {
-                double val = history.get(i);
-                double x = pad + i * xStep;
-                double y = h - pad - ((val - min) / (max - min)) * (h - 2 * pad);
-                if (i == 0) path.moveTo(x, y); else path.lineTo(x, y);
+            double scale = g2.getTransform().getScaleX(); // render at device resolution on HiDPI screens
+            int iw = (int) Math.ceil(w * scale), ih = (int) Math.ceil(h * scale);
+
+            long version = history.version() + series.version();
+            if (cache == null || cache.getWidth() != iw || cache.getHeight() != ih) {
+                cache = new BufferedImage(iw, ih, BufferedImage.TYPE_INT_ARGB_PRE);
+                cachedVersion = -1;
             }
-            
-            g2.setColor(COLOR_PRIMARY);
-            g2.setStroke(new BasicStroke(3f));
-            g2.draw(path);
-            
-            for (int i = 0; i < history.size(); i++) {
-                double val = history.get(i);
-                double x = pad + i * xStep;
-                double y = h - pad - ((val - min) / (max - min)) * (h - 2 * pad);
-                g2.setColor(COLOR_SURFACE);
-                g2.fillOval((int)x-5, (int)y-5, 10, 10);
+            if (version != cachedVersion || scale != cachedScale) {
+                render(w, h, scale);
+                cachedVersion = version;
+                cachedScale = scale;
+            }
+            g2.drawImage(cache, 0, 0, w, h, null);
+        }
+
+        // Fills times/values oldest first; raw points are spaced by index
+        private int load() {
+            if (!history.isComplete()) {
+                for (BalanceSeries.Resolution r : BalanceSeries.Resolution.values()) {
+                    if (!series.covers(r)) continue;
+                    if (series.size(r) < 2) break; // coarser levels are no better
+                    return series.copyCloses(r, times, values);
+                }
+                BalanceSeries.Resolution coarsest = BalanceSeries.Resolution.MONTH;
+                if (!series.covers(coarsest) && series.size(coarsest) >= 2) return series.copyCloses(coarsest, times, values);
+            }
+            int n = history.copyTo(values);
+            for (int i = 0; i < n; i++) times[i] = i;
+            return n;
+        }
+
+        private void render(int w, int h, double scale) {
+            Graphics2D g2 = cache.createGraphics();
+            try {
+                g2.setComposite(AlphaComposite.Clear);
+                g2.fillRect(0, 0, cache.getWidth(), cache.getHeight());
+                g2.setComposite(AlphaComposite.SrcOver);
+                g2.scale(scale, scale);
+                g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+
+                int n = load();
+                if (n < 2) return;
+                int pad = 30;
+                for (int i = 0; i < n; i++) { inX[i] = times[i]; inY[i] = values[i]; }
+                int target = Math.max(3, (w - 2 * pad) / 3);
+                n = n > target ? downsample(n, target) : copyInput(n);
+
+                double min = outY[0], max = outY[0]; // paisa
+                for (int i = 1; i < n; i++) { min = Math.min(min, outY[i]); max = Math.max(max, outY[i]); }
+                if(min == max) { max += 100; min -= 100; }
+                double x0 = outX[0], xSpan = outX[n - 1] - outX[0];
+
+                path.reset();
+                for (int i = 0; i < n; i++) {
+                    double x = pad + (outX[i] - x0) / xSpan * (w - 2 * pad);
+                    double y = h - pad - ((outY[i] - min) / (max - min)) * (h - 2 * pad);
+                    outX[i] = x;
+                    outY[i] = y;
+                    if (i == 0) path.moveTo(x, y); else path.lineTo(x, y);
+                }
+
                 g2.setColor(COLOR_PRIMARY);
-                g2.drawOval((int)x-5, (int)y-5, 10, 10);
+                g2.setStroke(LINE_STROKE);
+                g2.draw(path);
+
+                if (n > MAX_DOTS) return;
+                for (int i = 0; i < n; i++) {
+                    int x = (int) outX[i], y = (int) outY[i];
+                    g2.setColor(COLOR_SURFACE);
+                    g2.fillOval(x-5, y-5, 10, 10);
+                    g2.setColor(COLOR_PRIMARY);
+                    g2.drawOval(x-5, y-5, 10, 10);
+                }
+            } finally {
+                g2.dispose();
+            }
+        }
+
+        private int copyInput(int n) {
+            System.arraycopy(inX, 0, outX, 0, n);
+            System.arraycopy(inY, 0, outY, 0, n);
+            return n;
+        }
+
+        // Largest-Triangle-Three-Buckets: keeps the first and last point and, from each bucket in
+        // between, the point forming the largest triangle with its neighbours, which preserves peaks
+        private int downsample(int n, int threshold) {
+            double every = (double) (n - 2) / (threshold - 2);
+            int a = 0, out = 0;
+            outX[out] = inX[0]; outY[out++] = inY[0];
+            for (int i = 0; i < threshold - 2; i++) {
+                int avgStart = (int) ((i + 1) * every) + 1;
+                int avgEnd = Math.min((int) ((i + 2) * every) + 1, n);
+                double avgX = 0, avgY = 0;
+                for (int j = avgStart; j < avgEnd; j++) { avgX += inX[j]; avgY += inY[j]; }
+                avgX /= (avgEnd - avgStart);
+                avgY /= (avgEnd - avgStart);
+
+                int rangeEnd = (int) ((i + 1) * every) + 1, next = (int) (i * every) + 1;
+                double maxArea = -1;
+                for (int j = next; j < rangeEnd; j++) {
+                    double area = Math.abs((inX[a] - avgX) * (inY[j] - inY[a]) - (inX[a] - inX[j]) * (avgY - inY[a]));
+                    if (area > maxArea) { maxArea = area; next = j; }
+                }
+                outX[out] = inX[next]; outY[out++] = inY[next];
+                a = next;
             }
+            outX[out] = inX[n - 1]; outY[out++] = inY[n - 1];
+            return out;
         }
     }
 
@@ -433,52 +7046,52 @@ public class BankManagementSystem extends JFrame {
             card.setBorder(new EmptyBorder(60, 60, 60, 60));
             // Cyber Border
             card.setBorder(BorderFactory.createCompoundBorder(
-                BorderFactory.createMatteBorder(1, 1, 1, 1, new Color(40, 50, 70)),
+                BorderFactory.createMatteBorder(1, 1, 1, 1, RenderCache.color(40, 50, 70)),
                 new EmptyBorder(50, 50, 50, 50)
             ));
             
             JLabel brand = new JLabel("OSRYN // SYSTEMS");
-            brand.setFont(new Font("Consolas", Font.BOLD, 32));
+            brand.setFont(RenderCache.font("Consolas", Font.BOLD, 32));
             brand.setForeground(CYBER_ACCENT);
             brand.setAlignmentX(Component.CENTER_ALIGNMENT);
 
             JLabel sub = new JLabel("SECURE ACCESS TERMINAL");
-            sub.setFont(new Font("Consolas", Font.PLAIN, 14));
-            sub.setForeground(new Color(148, 163, 184));
+            sub.setFont(RenderCache.font("Consolas", Font.PLAIN, 14));
+            sub.setForeground(RenderCache.color(148, 163, 184));
             sub.setAlignmentX(Component.CENTER_ALIGNMENT);
 
             CyberTextField userField = new CyberTextField("USERNAME");
             JPasswordField passField = new JPasswordField();
-            passField.setBackground(new Color(20, 25, 40));
+            passField.setBackground(RenderCache.color(20, 25, 40));
             passField.setForeground(CYBER_TEXT);
             passField.setCaretColor(CYBER_ACCENT);
             passField.setBorder(BorderFactory.createCompoundBorder(
-                new LineBorder(new Color(45, 55, 75), 1), new EmptyBorder(10, 15, 10, 15)));
+                new LineBorder(RenderCache.color(45, 55, 75), 1), new EmptyBorder(10, 15, 10, 15)));
             
             CyberButton loginBtn = new CyberButton("INITIATE LOGIN");
             JButton signupBtn = new JButton("NEW USER REGISTRATION");
-            signupBtn.setFont(new Font("Consolas", Font.PLAIN, 12));
+            signupBtn.setFont(RenderCache.font("Consolas", Font.PLAIN, 12));
             signupBtn.setBorderPainted(false); 
             signupBtn.setContentAreaFilled(false);
             signupBtn.setForeground(CYBER_ACCENT);
-            signupBtn.setCursor(new Cursor(Cursor.HAND_CURSOR));
+            signupBtn.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
             signupBtn.setAlignmentX(Component.CENTER_ALIGNMENT);
 
             Dimension dim = new Dimension(350, 45);
             userField.setMaximumSize(dim); passField.setMaximumSize(dim); loginBtn.setMaximumSize(dim);
 
-            loginBtn.addActionListener(e -> frame.login(userField.getText(), new String(passField.getPassword())));
+            loginBtn.addActionListener(e -> frame.login(userField.getText(), new String(passField.getPassword()), loginBtn));
             signupBtn.addActionListener(e -> frame.showSignup());
 
             card.add(brand);
             card.add(Box.createVerticalStrut(5));
             card.add(sub);
             card.add(Box.createVerticalStrut(50));
-            card.add(new JLabel("ID_KEY") {{ setForeground(CYBER_TEXT); setFont(new Font("Consolas", Font.PLAIN, 12)); }});
+            card.add(new JLabel("ID_KEY") {{ setForeground(CYBER_TEXT); setFont(RenderCache.font("Consolas", Font.PLAIN, 12)); }});
             card.add(Box.createVerticalStrut(5));
             card.add(userField);
             card.add(Box.createVerticalStrut(20));
-            card.add(new JLabel("PASS_KEY") {{ setForeground(CYBER_TEXT); setFont(new Font("Consolas", Font.PLAIN, 12)); }});
+            card.add(new JLabel("PASS_KEY") {{ setForeground(CYBER_TEXT); setFont(RenderCache.font("Consolas", Font.PLAIN, 12)); }});
             card.add(Box.createVerticalStrut(5));
             card.add(passField);
             card.add(Box.createVerticalStrut(40));
@@ -491,10 +7104,7 @@ public class BankManagementSystem extends JFrame {
         
         // Cyber Grid Background
         @Override protected void paintComponent(Graphics g) {
-            super.paintComponent(g);
-            g.setColor(new Color(15, 23, 42));
-            for(int i=0; i<getWidth(); i+=40) g.drawLine(i, 0, i, getHeight());
-            for(int i=0; i<getHeight(); i+=40) g.drawLine(0, i, getWidth(), i);
+            RenderCache.paintBackground(this, g, "cyber-grid", RenderCache::paintCyberGrid);
         }
     }
 
@@ -507,12 +7117,12 @@ public class BankManagementSystem extends JFrame {
             card.setLayout(new BoxLayout(card, BoxLayout.Y_AXIS));
             card.setBackground(CYBER_CARD);
             card.setBorder(BorderFactory.createCompoundBorder(
-                BorderFactory.createMatteBorder(1, 1, 1, 1, new Color(40, 50, 70)),
+                BorderFactory.createMatteBorder(1, 1, 1, 1, RenderCache.color(40, 50, 70)),
                 new EmptyBorder(40, 60, 40, 60)
             ));
 
             JLabel title = new JLabel("NEW IDENTITY");
-            title.setFont(new Font("Consolas", Font.BOLD, 28));
+            title.setFont(RenderCache.font("Consolas", Font.BOLD, 28));
             title.setForeground(CYBER_ACCENT);
             title.setAlignmentX(Component.CENTER_ALIGNMENT);
 
@@ -521,29 +7131,35 @@ public class BankManagementSystem extends JFrame {
             CyberTextField emailF = new CyberTextField("EMAIL ADDRESS");
             CyberTextField phoneF = new CyberTextField("CONTACT REF");
             JPasswordField passF = new JPasswordField();
-            passF.setBackground(new Color(20, 25, 40));
+            passF.setBackground(RenderCache.color(20, 25, 40));
             passF.setForeground(CYBER_TEXT);
-            passF.setBorder(BorderFactory.createCompoundBorder(new LineBorder(new Color(45, 55, 75), 1), new EmptyBorder(10, 15, 10, 15)));
+            passF.setBorder(BorderFactory.createCompoundBorder(new LineBorder(RenderCache.color(45, 55, 75), 1), new EmptyBorder(10, 15, 10, 15)));
+
+            JComboBox<User.AccountType> typeBox = new JComboBox<>(User.AccountType.values());
+            typeBox.setBackground(RenderCache.color(20, 25, 40));
+            typeBox.setForeground(CYBER_TEXT);
+            typeBox.setFont(RenderCache.font("Consolas", Font.PLAIN, 14));
 
             Dimension d = new Dimension(350, 40);
             nameF.setMaximumSize(d); userF.setMaximumSize(d);
-            emailF.setMaximumSize(d); phoneF.setMaximumSize(d); passF.setMaximumSize(d);
+            emailF.setMaximumSize(d); phoneF.setMaximumSize(d); passF.setMaximumSize(d); typeBox.setMaximumSize(d);
 
             CyberButton regBtn = new CyberButton("CREATE IDENTITY");
             regBtn.setMaximumSize(new Dimension(350, 45));
             regBtn.setAlignmentX(Component.CENTER_ALIGNMENT);
 
             JButton backBtn = new JButton("ABORT / RETURN");
-            backBtn.setFont(new Font("Consolas", Font.PLAIN, 12));
+            backBtn.setFont(RenderCache.font("Consolas", Font.PLAIN, 12));
             backBtn.setContentAreaFilled(false); backBtn.setBorderPainted(false);
-            backBtn.setForeground(new Color(100, 116, 139));
+            backBtn.setForeground(RenderCache.color(100, 116, 139));
             backBtn.setAlignmentX(Component.CENTER_ALIGNMENT);
 
             regBtn.addActionListener(e -> {
                 if(userF.getText().isEmpty() || new String(passF.getPassword()).isEmpty()) {
                     frame.showToast("Data Incomplete", true); return;
                 }
-                frame.register(nameF.getText(), userF.getText(), new String(passF.getPassword()), emailF.getText(), phoneF.getText());
+                frame.register(nameF.getText(), userF.getText(), new String(passF.getPassword()), emailF.getText(), phoneF.getText(),
+                               (User.AccountType) typeBox.getSelectedItem(), regBtn);
             });
             backBtn.addActionListener(e -> frame.showLogin());
 
@@ -553,7 +7169,8 @@ public class BankManagementSystem extends JFrame {
             card.add(userF); card.add(Box.createVerticalStrut(10));
             card.add(emailF); card.add(Box.createVerticalStrut(10));
             card.add(phoneF); card.add(Box.createVerticalStrut(10));
-            card.add(passF); card.add(Box.createVerticalStrut(30));
+            card.add(passF); card.add(Box.createVerticalStrut(10));
+            card.add(typeBox); card.add(Box.createVerticalStrut(30));
             card.add(regBtn);
             card.add(Box.createVerticalStrut(10));
             card.add(backBtn);
@@ -561,24 +7178,25 @@ public class BankManagementSystem extends JFrame {
             add(card);
         }
         @Override protected void paintComponent(Graphics g) {
-            super.paintComponent(g);
-            g.setColor(new Color(15, 23, 42));
-            for(int i=0; i<getWidth(); i+=40) g.drawLine(i, 0, i, getHeight());
-            for(int i=0; i<getHeight(); i+=40) g.drawLine(0, i, getWidth(), i);
+            RenderCache.paintBackground(this, g, "cyber-grid", RenderCache::paintCyberGrid);
         }
     }
 
+    // Views are built the first time their nav item is used and kept afterwards. Account views are
+    // rebound to whoever signs in (see AccountView), so a login only swaps data into existing components.
     class DashboardPanel extends JPanel {
         private BankManagementSystem frame;
         private User user;
         private JPanel contentArea;
         private CardLayout contentLayout;
         private Map<String, JButton> navButtons = new HashMap<>();
+        private final Map<String, Supplier<JComponent>> viewFactories = new HashMap<>();
+        private final Map<String, JComponent> views = new HashMap<>();
+        private final JPanel adminSection;
         private String currentCard = "HOME";
 
-        public DashboardPanel(BankManagementSystem frame, User user) {
+        public DashboardPanel(BankManagementSystem frame) {
             this.frame = frame;
-            this.user = user;
             setLayout(new BorderLayout());
 
             // --- Sidebar ---
@@ -591,23 +7209,35 @@ public class BankManagementSystem extends JFrame {
             JPanel logoP = new JPanel(new FlowLayout(FlowLayout.LEFT, 30, 30));
             logoP.setOpaque(false);
             JLabel logo = new JLabel("OSRYN BANK");
-            logo.setFont(new Font("Segoe UI", Font.BOLD, 22));
+            logo.setFont(RenderCache.font("Segoe UI", Font.BOLD, 22));
             logo.setForeground(Color.WHITE);
             logoP.add(logo);
             sidebar.add(logoP);
             sidebar.add(Box.createVerticalStrut(10));
 
             // Expanded Nav Items - SEPARATE PAGES
-            addNav(sidebar, "Dashboard", "HOME");
+            addNav(sidebar, "Dashboard", "HOME", HomeView::new);
             sidebar.add(Box.createVerticalStrut(10));
             addLabel(sidebar, "OPERATIONS");
-            addNav(sidebar, "Deposit Funds", "DEPOSIT");
-            addNav(sidebar, "Withdraw Funds", "WITHDRAW");
-            addNav(sidebar, "Transfer Money", "TRANSFER");
-            addNav(sidebar, "Pay Bills", "BILLS");
+            addNav(sidebar, "Deposit Funds", "DEPOSIT", () -> new OperationView("DEPOSIT"));
+            addNav(sidebar, "Withdraw Funds", "WITHDRAW", () -> new OperationView("WITHDRAW"));
+            addNav(sidebar, "Transfer Money", "TRANSFER", TransferView::new);
+            addNav(sidebar, "Pay Bills", "BILLS", BillPayView::new);
             sidebar.add(Box.createVerticalStrut(10));
             addLabel(sidebar, "ACCOUNT");
-            addNav(sidebar, "Security Settings", "SETTINGS");
+            addNav(sidebar, "Security Settings", "SETTINGS", SettingsView::new);
+
+            // Only shown while the admin is signed in
+            adminSection = new JPanel();
+            adminSection.setLayout(new BoxLayout(adminSection, BoxLayout.Y_AXIS));
+            adminSection.setOpaque(false);
+            adminSection.setAlignmentX(Component.LEFT_ALIGNMENT);
+            adminSection.add(Box.createVerticalStrut(10));
+            addLabel(adminSection, "ADMIN");
+            addNav(adminSection, "Ledger Metrics", "METRICS", () -> new MetricsView(bankService.getMetrics()));
+            addNav(adminSection, "Risk Reviews", "REVIEWS", ReviewView::new);
+            adminSection.setVisible(false);
+            sidebar.add(adminSection);
 
             sidebar.add(Box.createVerticalGlue());
             
@@ -618,7 +7248,7 @@ public class BankManagementSystem extends JFrame {
             logout.setContentAreaFilled(false);
             logout.setFocusPainted(false);
             logout.setAlignmentX(Component.LEFT_ALIGNMENT);
-            logout.setCursor(new Cursor(Cursor.HAND_CURSOR));
+            logout.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
             logout.addActionListener(e -> frame.logout());
             sidebar.add(logout);
 
@@ -627,46 +7257,74 @@ public class BankManagementSystem extends JFrame {
             contentArea = new JPanel(contentLayout);
             contentArea.setBackground(COLOR_BACKGROUND);
 
-            // Init Views
-            contentArea.add(new HomeView(user, contentLayout, contentArea), "HOME");
-            contentArea.add(new OperationView(user, "DEPOSIT"), "DEPOSIT");
-            contentArea.add(new OperationView(user, "WITHDRAW"), "WITHDRAW");
-            contentArea.add(new TransferView(user), "TRANSFER");
-            contentArea.add(new BillPayView(user), "BILLS");
-            contentArea.add(new SettingsView(user), "SETTINGS");
-
             add(sidebar, BorderLayout.WEST);
             add(contentArea, BorderLayout.CENTER);
-            
-            highlightNav("HOME");
+        }
+
+        void bind(User u) {
+            this.user = u;
+            adminSection.setVisible("admin".equalsIgnoreCase(u.getUsername()));
+            for (JComponent v : views.values()) {
+                if (v instanceof AccountView) ((AccountView) v).bind(u);
+            }
+            show("HOME");
+        }
+
+        // On sign-out: back to HOME (which stops any polling view) and every view lets go of the
+        // user, so the last session's history and table models are no longer reachable from the UI
+        void release() {
+            if (user == null) return;
+            show("HOME");
+            for (JComponent v : views.values()) {
+                if (v instanceof AccountView) ((AccountView) v).bind(null);
+            }
+            user = null;
+        }
+
+        // Opens every view the current user can reach, for DashboardSoak
+        void tour() {
+            for (String card : viewFactories.keySet()) {
+                boolean adminOnly = "METRICS".equals(card) || "REVIEWS".equals(card);
+                if (!adminOnly || adminSection.isVisible()) show(card);
+            }
+            show("HOME");
+        }
+
+        private void show(String cardName) {
+            if (!views.containsKey(cardName)) {
+                JComponent view = viewFactories.get(cardName).get();
+                if (view instanceof AccountView) ((AccountView) view).bind(user);
+                views.put(cardName, view);
+                contentArea.add(view, cardName);
+            }
+            contentLayout.show(contentArea, cardName);
+            highlightNav(cardName);
         }
         
         private void addLabel(JPanel p, String text) {
             JLabel l = new JLabel(text);
-            l.setForeground(new Color(71, 85, 105));
-            l.setFont(new Font("Segoe UI", Font.BOLD, 11));
+            l.setForeground(RenderCache.color(71, 85, 105));
+            l.setFont(RenderCache.font("Segoe UI", Font.BOLD, 11));
             l.setBorder(new EmptyBorder(5, 30, 5, 0));
             l.setAlignmentX(Component.LEFT_ALIGNMENT);
             p.add(l);
         }
 
-        private void addNav(JPanel panel, String label, String cardName) {
+        private void addNav(JPanel panel, String label, String cardName, Supplier<JComponent> view) {
             JButton btn = new JButton("  " + label);
             btn.setMaximumSize(new Dimension(280, 50));
             btn.setAlignmentX(Component.LEFT_ALIGNMENT);
             btn.setFont(FONT_BODY);
-            btn.setForeground(new Color(148, 163, 184));
+            btn.setForeground(RenderCache.color(148, 163, 184));
             btn.setBackground(COLOR_SIDEBAR);
             btn.setBorder(new EmptyBorder(12, 30, 12, 0));
             btn.setFocusPainted(false);
             btn.setBorderPainted(false);
-            btn.setCursor(new Cursor(Cursor.HAND_CURSOR));
+            btn.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
             
-            btn.addActionListener(e -> {
-                contentLayout.show(contentArea, cardName);
-                highlightNav(cardName);
-            });
+            btn.addActionListener(e -> show(cardName));
             
+            viewFactories.put(cardName, view);
             navButtons.put(cardName, btn);
             panel.add(btn);
         }
@@ -675,7 +7333,7 @@ public class BankManagementSystem extends JFrame {
             if(navButtons.containsKey(currentCard)) {
                 JButton old = navButtons.get(currentCard);
                 old.setBackground(COLOR_SIDEBAR);
-                old.setForeground(new Color(148, 163, 184));
+                old.setForeground(RenderCache.color(148, 163, 184));
                 old.setOpaque(true);
             }
             currentCard = cardName;
@@ -690,17 +7348,32 @@ public class BankManagementSystem extends JFrame {
     
     // --- Dashboard Views ---
 
-    class HomeView extends JPanel {
-        private JLabel balanceLbl, idLbl, statusLbl;
+    // A view of one account at a time. bind swaps the account in place (null after sign-out), so
+    // the same components serve every session; listeners read the user field when they fire.
+    abstract class AccountView extends JPanel {
+        protected User user;
+
+        void bind(User u) {
+            this.user = u;
+        }
+    }
+
+    class HomeView extends AccountView {
+        private JLabel balanceLbl, idLbl, statusLbl, dateLbl;
         private BalanceGraphPanel graphPanel;
-        private User user;
-        private DefaultTableModel transModel;
+        private TransactionTableModel transModel;
+        private JLabel transTitle;
+        private ModernTextField searchF;
+        private final SimpleDateFormat dayFormat = new SimpleDateFormat("MMMM dd, yyyy"); // EDT only
+        // Postings to the bound account (a transfer received from someone else, say) refresh the
+        // view live, at most once a frame
+        private final FrameCoalescer liveUpdates = new FrameCoalescer(this::updateData);
 
-        public HomeView(User user, CardLayout cl, JPanel container) {
-            this.user = user;
+        public HomeView() {
             setLayout(new BorderLayout());
             setBackground(COLOR_BACKGROUND);
             setBorder(new EmptyBorder(40, 50, 40, 50));
+            bankService.getEvents().subscribe("home", liveUpdates);
             
             // Add listener to auto-refresh when shown
             this.addComponentListener(new ComponentAdapter() {
@@ -715,8 +7388,9 @@ public class BankManagementSystem extends JFrame {
             top.setOpaque(false);
             JLabel greet = new JLabel("Overview");
             greet.setFont(FONT_TITLE);
+            dateLbl = new JLabel();
             top.add(greet, BorderLayout.WEST);
-            top.add(new JLabel(new SimpleDateFormat("MMMM dd, yyyy").format(new Date())), BorderLayout.EAST);
+            top.add(dateLbl, BorderLayout.EAST);
 
             // Stats
             JPanel stats = new JPanel(new GridLayout(1, 3, 30, 0));
@@ -724,9 +7398,9 @@ public class BankManagementSystem extends JFrame {
             stats.setPreferredSize(new Dimension(0, 150));
             
             // Create Labels References
-            balanceLbl = new JLabel(); balanceLbl.setForeground(Color.WHITE); balanceLbl.setFont(new Font("Segoe UI", Font.BOLD, 26));
-            idLbl = new JLabel(); idLbl.setForeground(Color.WHITE); idLbl.setFont(new Font("Segoe UI", Font.BOLD, 26));
-            statusLbl = new JLabel("Active"); statusLbl.setForeground(Color.WHITE); statusLbl.setFont(new Font("Segoe UI", Font.BOLD, 26));
+            balanceLbl = new JLabel(); balanceLbl.setForeground(Color.WHITE); balanceLbl.setFont(RenderCache.font("Segoe UI", Font.BOLD, 26));
+            idLbl = new JLabel(); idLbl.setForeground(Color.WHITE); idLbl.setFont(RenderCache.font("Segoe UI", Font.BOLD, 26));
+            statusLbl = new JLabel("Active"); statusLbl.setForeground(Color.WHITE); statusLbl.setFont(RenderCache.font("Segoe UI", Font.BOLD, 26));
 
             stats.add(createCard("Available Balance", balanceLbl, COLOR_PRIMARY));
             stats.add(createCard("Account ID", idLbl, COLOR_SIDEBAR));
@@ -739,7 +7413,7 @@ public class BankManagementSystem extends JFrame {
             JLabel trendLbl = new JLabel("Financial Analytics");
             trendLbl.setFont(FONT_HEADER);
             
-            graphPanel = new BalanceGraphPanel(user.getBalanceHistory());
+            graphPanel = new BalanceGraphPanel();
             graphSection.add(trendLbl, BorderLayout.NORTH);
             graphSection.add(graphPanel, BorderLayout.CENTER);
 
@@ -748,16 +7422,47 @@ public class BankManagementSystem extends JFrame {
             transPanel.setBackground(COLOR_SURFACE);
             transPanel.setBorder(new EmptyBorder(20, 0, 0, 0));
             
-            String[] cols = {"Type", "Amount", "Description"};
-            transModel = new DefaultTableModel(cols, 0);
+            transModel = new TransactionTableModel();
             JTable table = new JTable(transModel);
             styleTable(table);
             
-            JLabel transTitle = new JLabel("Recent Activity");
+            transTitle = new JLabel("Recent Activity");
             transTitle.setFont(FONT_HEADER);
-            transTitle.setBorder(new EmptyBorder(0,0,10,0));
-            
-            transPanel.add(transTitle, BorderLayout.NORTH);
+
+            // Search bar: words, type:, min:/max: (BDT) and from:/to: (yyyy-MM-dd); empty shows everything
+            searchF = new ModernTextField("Search e.g. rahim type:transfer min:500 from:2026-01-01");
+            searchF.setPreferredSize(new Dimension(420, 40));
+            searchF.addActionListener(e -> {
+                String text = searchF.getText().trim();
+                if (text.isEmpty()) {
+                    transModel.showAll();
+                    transTitle.setText("Recent Activity");
+                    return;
+                }
+                try {
+                    transModel.showSearch(HistoryQuery.parse(text));
+                    transTitle.setText("Search Results");
+                } catch (IllegalArgumentException ex) {
+                    showToast(ex.getMessage() == null ? "Invalid search" : ex.getMessage(), true);
+                }
+            });
+
+            ModernButton exportBtn = new ModernButton("EXPORT", COLOR_PRIMARY);
+            exportBtn.setPreferredSize(new Dimension(120, 40));
+            exportBtn.addActionListener(e -> exportStatement(exportBtn));
+
+            JPanel tools = new JPanel(new FlowLayout(FlowLayout.RIGHT, 10, 0));
+            tools.setOpaque(false);
+            tools.add(searchF);
+            tools.add(exportBtn);
+
+            JPanel transHeader = new JPanel(new BorderLayout(20, 0));
+            transHeader.setOpaque(false);
+            transHeader.setBorder(new EmptyBorder(0,0,10,0));
+            transHeader.add(transTitle, BorderLayout.WEST);
+            transHeader.add(tools, BorderLayout.EAST);
+
+            transPanel.add(transHeader, BorderLayout.NORTH);
             transPanel.add(new JScrollPane(table), BorderLayout.CENTER);
 
             // Layout
@@ -772,21 +7477,113 @@ public class BankManagementSystem extends JFrame {
 
             add(top, BorderLayout.NORTH);
             add(new JScrollPane(center), BorderLayout.CENTER);
-            
-            // Initial data load
-            updateData();
+        }
+
+        @Override void bind(User u) {
+            super.bind(u);
+            searchF.setText("");
+            transTitle.setText("Recent Activity");
+            graphPanel.setUser(u);
+            transModel.setHistory(u == null ? null : u.getTransactions());
+            statusLbl.setText(u == null || u.getAccountType() == User.AccountType.CURRENT ? "Active"
+                              : "Active · " + u.getAccountType());
+            liveUpdates.watch(u == null ? null : u.getAccountId());
+            if (u != null) updateData();
         }
 
         private void updateData() {
+            if (user == null) return;
+            dateLbl.setText(dayFormat.format(new Date()));
             balanceLbl.setText(formatMoney(user.getBalance()));
             idLbl.setText(user.getAccountId());
             graphPanel.repaint();
             
-            // Reload Table
-            transModel.setRowCount(0);
-            for(Transaction t : user.getTransactions()) {
-                transModel.addRow(new Object[]{ t.getType(), formatMoney(t.getAmount()), t.getDescription() });
+            // Only the transactions posted since the last refresh are announced to the table
+            transModel.refresh();
+        }
+
+        // Asks for a date range, format and file, then exports on a background thread while a
+        // progress dialog (with Cancel) tracks it
+        private void exportStatement(JButton exportBtn) {
+            // The export runs on after a sign-out rebinds this view, so it keeps its own reference
+            User account = user;
+            ModernTextField fromF = new ModernTextField("From yyyy-MM-dd (optional)");
+            ModernTextField toF = new ModernTextField("To yyyy-MM-dd (optional)");
+            JComboBox<StatementExport.Format> formatBox = new JComboBox<>(StatementExport.Format.values());
+            JPanel form = new JPanel(new GridLayout(0, 1, 0, 8));
+            form.add(fromF);
+            form.add(toF);
+            form.add(formatBox);
+            if (JOptionPane.showConfirmDialog(BankManagementSystem.this, form, "Export Statement",
+                    JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE) != JOptionPane.OK_OPTION) return;
+
+            long from, to;
+            try {
+                from = fromF.getText().trim().isEmpty() ? Long.MIN_VALUE
+                    : HistoryQuery.startOfDay(LocalDate.parse(fromF.getText().trim()));
+                to = toF.getText().trim().isEmpty() ? Long.MAX_VALUE
+                    : HistoryQuery.startOfDay(LocalDate.parse(toF.getText().trim()).plusDays(1));
+            } catch (java.time.DateTimeException ex) {
+                showToast("Dates must look like 2026-01-31", true);
+                return;
             }
+            StatementExport.Format format = (StatementExport.Format) formatBox.getSelectedItem();
+            JFileChooser chooser = new JFileChooser();
+            chooser.setSelectedFile(new java.io.File("statement-" + account.getAccountId() + "." + format.extension));
+            if (chooser.showSaveDialog(BankManagementSystem.this) != JFileChooser.APPROVE_OPTION) return;
+            Path target = chooser.getSelectedFile().toPath();
+
+            JProgressBar bar = new JProgressBar(0, 1000);
+            bar.setStringPainted(true);
+            JButton cancel = new JButton("Cancel");
+            JDialog dialog = new JDialog(BankManagementSystem.this, "Exporting Statement", false);
+            JPanel body = new JPanel(new BorderLayout(0, 10));
+            body.setBorder(new EmptyBorder(20, 20, 20, 20));
+            body.add(bar, BorderLayout.CENTER);
+            body.add(cancel, BorderLayout.SOUTH);
+            dialog.setContentPane(body);
+            dialog.setSize(360, 140);
+            dialog.setLocationRelativeTo(BankManagementSystem.this);
+
+            AtomicInteger shown = new AtomicInteger(-1);
+            AtomicBoolean cancelled = new AtomicBoolean();
+            StatementExport.Progress progress = new StatementExport.Progress() {
+                @Override public void update(long scanned, long total) {
+                    int permille = total == 0 ? 1000 : (int) (scanned * 1000 / total);
+                    // Only hand the EDT a repaint when the bar would actually move
+                    if (shown.getAndSet(permille) != permille) SwingUtilities.invokeLater(() -> bar.setValue(permille));
+                }
+
+                @Override public boolean cancelled() { return cancelled.get(); }
+            };
+            cancel.addActionListener(e -> cancelled.set(true));
+            // Closing the window cancels too; the dialog stays up until the export has stopped
+            dialog.setDefaultCloseOperation(WindowConstants.DO_NOTHING_ON_CLOSE);
+            dialog.addWindowListener(new WindowAdapter() {
+                @Override public void windowClosing(WindowEvent e) { cancelled.set(true); }
+            });
+
+            exportBtn.setEnabled(false);
+            dialog.setVisible(true);
+            CompletableFuture.supplyAsync(() -> {
+                try {
+                    return StatementExport.export(account, from, to, format, target, progress);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, task -> {
+                Thread t = new Thread(task, "statement-export");
+                t.setDaemon(true);
+                t.start();
+            }).whenCompleteAsync((rows, error) -> {
+                dialog.dispose();
+                exportBtn.setEnabled(true);
+                Throwable cause = error == null ? null : error.getCause() instanceof UncheckedIOException
+                    ? error.getCause().getCause() : error.getCause();
+                if (error == null) showToast("Exported " + rows + " transactions to " + target.getFileName(), false);
+                else if (cause instanceof InterruptedIOException) showToast("Export cancelled", true);
+                else showToast("Export failed: " + cause.getMessage(), true);
+            }, SwingUtilities::invokeLater);
         }
 
         private JPanel createCard(String title, JLabel valLbl, Color c) {
@@ -795,33 +7592,103 @@ public class BankManagementSystem extends JFrame {
             p.setBorder(new EmptyBorder(25, 25, 25, 25));
             
             JLabel t = new JLabel(title);
-            t.setForeground(new Color(255,255,255,200));
+            t.setForeground(RenderCache.color(255,255,255,200));
             t.setFont(FONT_BODY);
             
             p.add(t, BorderLayout.NORTH);
             p.add(valLbl, BorderLayout.CENTER);
             return p;
         }
-        
-        private void styleTable(JTable table) {
-            table.setRowHeight(35);
-            table.setShowVerticalLines(false);
-            table.setFont(FONT_BODY);
-            table.setSelectionBackground(new Color(230, 240, 255));
-            table.setSelectionForeground(COLOR_TEXT_MAIN);
-            table.setGridColor(new Color(240,240,240));
-            
-            JTableHeader header = table.getTableHeader();
-            header.setBackground(COLOR_SURFACE);
-            header.setFont(FONT_BOLD);
-            header.setForeground(COLOR_TEXT_MUTED);
-            header.setBorder(BorderFactory.createMatteBorder(0, 0, 2, 0, new Color(226, 232, 240)));
+    }
+
+    // Newest-first view straight over an account's TransactionHistory. Nothing is copied: cells are
+    // formatted when the table asks for them, so only visible rows cost anything. In search mode it
+    // holds the result pages fetched so far and asks for the next one when the last row is shown.
+    class TransactionTableModel extends AbstractTableModel {
+        private static final int SEARCH_PAGE = 200;
+        private final String[] cols = {"Type", "Amount", "Description"};
+        private TransactionHistory history; // null while no one is signed in
+        private int rowCount;
+        private HistoryQuery query; // null outside search mode
+        private final List<Transaction> results = new ArrayList<>();
+        private long resultCursor;
+        private boolean loading;
+
+        // Points the table at another account (or none) and starts over in "show all" mode
+        void setHistory(TransactionHistory h) {
+            history = h;
+            query = null;
+            results.clear();
+            rowCount = 0;
+            fireTableDataChanged();
+            refresh();
+        }
+
+        void showSearch(HistoryQuery q) {
+            if (history == null) return;
+            query = q;
+            results.clear();
+            resultCursor = TransactionHistory.NEWEST;
+            loadMore();
+            fireTableDataChanged();
+        }
+
+        void showAll() {
+            setHistory(history);
+        }
+
+        private void loadMore() {
+            TransactionHistory.Page page = history.search(query, resultCursor, SEARCH_PAGE);
+            int first = results.size();
+            results.addAll(page.getItems());
+            resultCursor = page.hasMore() ? page.getNextCursor() : 0;
+            if (results.size() > first) fireTableRowsInserted(first, results.size() - 1);
+        }
+
+        // New postings are the newest rows, so they are inserted at the top
+        void refresh() {
+            if (query != null || history == null) return; // search results stay as searched until the next search
+            int latest = (int) Math.min(Integer.MAX_VALUE, history.size());
+            if (latest > rowCount) {
+                int added = latest - rowCount;
+                rowCount = latest;
+                fireTableRowsInserted(0, added - 1);
+            }
+        }
+
+        @Override public int getRowCount() { return query != null ? results.size() : rowCount; }
+        @Override public int getColumnCount() { return cols.length; }
+        @Override public String getColumnName(int col) { return cols[col]; }
+        @Override public boolean isCellEditable(int row, int col) { return false; }
+
+        @Override public Object getValueAt(int row, int col) {
+            Transaction t;
+            if (query != null) {
+                t = results.get(row);
+                if (row == results.size() - 1 && resultCursor > 0 && !loading) {
+                    // Fetch the next page once the table has finished painting this one
+                    loading = true;
+                    SwingUtilities.invokeLater(() -> {
+                        loading = false;
+                        if (query != null && resultCursor > 0) loadMore();
+                    });
+                }
+            } else {
+                t = history.get(rowCount - 1 - row);
+            }
+            switch (col) {
+                case 0: return t.getType();
+                case 1: return formatMoney(t.getAmount());
+                default: return t.getDescription();
+            }
         }
     }
 
     // Generic View for simple Deposit/Withdraw
-    class OperationView extends JPanel {
-        public OperationView(User user, String type) {
+    class OperationView extends AccountView {
+        private final ModernTextField amountF = new ModernTextField("Enter Amount (BDT)");
+
+        public OperationView(String type) {
             setLayout(new GridBagLayout());
             setBackground(COLOR_BACKGROUND);
             
@@ -839,7 +7706,6 @@ public class BankManagementSystem extends JFrame {
             desc.setForeground(COLOR_TEXT_MUTED);
             desc.setAlignmentX(Component.CENTER_ALIGNMENT);
             
-            ModernTextField amountF = new ModernTextField("Enter Amount (BDT)");
             amountF.setMaximumSize(new Dimension(400, 45));
             
             ModernButton btn = new ModernButton(type.equals("DEPOSIT") ? "CONFIRM DEPOSIT" : "CONFIRM WITHDRAWAL", 
@@ -848,17 +7714,20 @@ public class BankManagementSystem extends JFrame {
             btn.setAlignmentX(Component.CENTER_ALIGNMENT);
             
             btn.addActionListener(e -> {
-                try {
-                    double val = Double.parseDouble(amountF.getText());
-                    if(type.equals("DEPOSIT")) {
-                        bankService.deposit(user, val);
+                long val;
+                try { val = Money.parse(amountF.getText()); }
+                catch(Exception ex) { showToast("Invalid Amount", true); return; }
+                if(type.equals("DEPOSIT")) {
+                    runBanking(() -> asyncBank.deposit(user, val), done -> {
                         showToast("Successfully Deposited " + formatMoney(val), false);
-                    } else {
-                        if(bankService.withdraw(user, val)) showToast("Successfully Withdrew " + formatMoney(val), false);
-                        else showToast("Insufficient Funds", true);
-                    }
-                    amountF.setText("");
-                } catch(Exception ex) { showToast("Invalid Amount", true); }
+                        amountF.setText("");
+                    }, "Invalid Amount", btn, amountF);
+                } else {
+                    runBanking(() -> asyncBank.withdraw(user, val), outcome -> {
+                        showOutcome(outcome, "Successfully Withdrew " + formatMoney(val), "Insufficient Funds");
+                        amountF.setText("");
+                    }, "Invalid Amount", btn, amountF);
+                }
             });
             
             card.add(title);
@@ -873,10 +7742,18 @@ public class BankManagementSystem extends JFrame {
             
             add(card);
         }
+
+        @Override void bind(User u) {
+            super.bind(u);
+            amountF.setText("");
+        }
     }
 
-    class TransferView extends JPanel {
-        public TransferView(User user) {
+    class TransferView extends AccountView {
+        private final ModernTextField recF = new ModernTextField("Recipient Account ID");
+        private final ModernTextField amtF = new ModernTextField("Amount to Send (BDT)");
+
+        public TransferView() {
             setLayout(new GridBagLayout());
             setBackground(COLOR_BACKGROUND);
             
@@ -890,8 +7767,6 @@ public class BankManagementSystem extends JFrame {
             title.setFont(FONT_TITLE);
             title.setAlignmentX(Component.CENTER_ALIGNMENT);
             
-            ModernTextField recF = new ModernTextField("Recipient Account ID");
-            ModernTextField amtF = new ModernTextField("Amount to Send (BDT)");
             recF.setMaximumSize(new Dimension(400, 45));
             amtF.setMaximumSize(new Dimension(400, 45));
             
@@ -900,13 +7775,15 @@ public class BankManagementSystem extends JFrame {
             sendBtn.setAlignmentX(Component.CENTER_ALIGNMENT);
             
             sendBtn.addActionListener(e -> {
-                try {
-                    double amt = Double.parseDouble(amtF.getText());
-                    if(bankService.transfer(user, recF.getText(), amt)) {
-                        showToast("Transfer Complete", false);
+                long amt;
+                try { amt = Money.parse(amtF.getText()); }
+                catch(Exception ex) { showToast("Invalid Input", true); return; }
+                String target = recF.getText();
+                runBanking(() -> asyncBank.transfer(user, target, amt), outcome -> {
+                    if (showOutcome(outcome, "Transfer Complete", "Transaction Failed (Check ID/Balance)")) {
                         recF.setText(""); amtF.setText("");
-                    } else showToast("Transaction Failed (Check ID/Balance)", true);
-                } catch(Exception ex) { showToast("Invalid Input", true); }
+                    }
+                }, "Invalid Input", sendBtn, recF, amtF);
             });
 
             card.add(title);
@@ -923,10 +7800,17 @@ public class BankManagementSystem extends JFrame {
             
             add(card);
         }
+
+        @Override void bind(User u) {
+            super.bind(u);
+            recF.setText(""); amtF.setText("");
+        }
     }
 
-    class BillPayView extends JPanel {
-        public BillPayView(User user) {
+    class BillPayView extends AccountView {
+        private final List<JTextField> amountFields = new ArrayList<>();
+
+        public BillPayView() {
             setLayout(new BorderLayout());
             setBackground(COLOR_BACKGROUND);
             setBorder(new EmptyBorder(40, 50, 40, 50));
@@ -937,37 +7821,44 @@ public class BankManagementSystem extends JFrame {
             JPanel grid = new JPanel(new GridLayout(2, 2, 25, 25));
             grid.setOpaque(false);
             
-            grid.add(createBillerCard(user, "Electricity Corp", "Power", COLOR_SIDEBAR));
-            grid.add(createBillerCard(user, "Global Internet", "Internet", COLOR_PRIMARY));
-            grid.add(createBillerCard(user, "City Water Dept", "Water", new Color(14, 165, 233)));
-            grid.add(createBillerCard(user, "Mobile Services", "Phone", new Color(139, 92, 246)));
+            grid.add(createBillerCard("Electricity Corp", "Power", COLOR_SIDEBAR));
+            grid.add(createBillerCard("Global Internet", "Internet", COLOR_PRIMARY));
+            grid.add(createBillerCard("City Water Dept", "Water", RenderCache.color(14, 165, 233)));
+            grid.add(createBillerCard("Mobile Services", "Phone", RenderCache.color(139, 92, 246)));
 
             add(title, BorderLayout.NORTH);
             add(new JScrollPane(grid), BorderLayout.CENTER);
         }
+
+        @Override void bind(User u) {
+            super.bind(u);
+            for (JTextField f : amountFields) f.setText("");
+        }
         
-        private JPanel createBillerCard(User u, String name, String type, Color iconColor) {
+        private JPanel createBillerCard(String name, String type, Color iconColor) {
             JPanel p = new JPanel(new BorderLayout());
             p.setBackground(COLOR_SURFACE);
             p.setBorder(new EmptyBorder(25, 25, 25, 25));
             
             JPanel top = new JPanel(new BorderLayout()); top.setOpaque(false);
-            JLabel n = new JLabel(name); n.setFont(new Font("Segoe UI", Font.BOLD, 16));
+            JLabel n = new JLabel(name); n.setFont(RenderCache.font("Segoe UI", Font.BOLD, 16));
             JLabel ty = new JLabel(type); ty.setForeground(COLOR_TEXT_MUTED);
             top.add(n, BorderLayout.NORTH); top.add(ty, BorderLayout.CENTER);
             
             JPanel form = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 10)); form.setOpaque(false);
             ModernTextField amt = new ModernTextField("Amount due");
             amt.setPreferredSize(new Dimension(180, 40));
+            amountFields.add(amt);
             ModernButton pay = new ModernButton("PAY NOW", iconColor);
             pay.setPreferredSize(new Dimension(100, 40));
             
             pay.addActionListener(e -> {
-                try {
-                    double val = Double.parseDouble(amt.getText());
-                    if(bankService.payBill(u, name, val)) showToast("Payment to " + name + " Successful", false);
-                    else showToast("Insufficient Funds", true);
-                } catch(Exception ex) { showToast("Invalid Amount", true); }
+                long val;
+                try { val = Money.parse(amt.getText()); }
+                catch(Exception ex) { showToast("Invalid Amount", true); return; }
+                runBanking(() -> asyncBank.payBill(user, name, val),
+                           outcome -> showOutcome(outcome, "Payment to " + name + " Successful", "Insufficient Funds"),
+                           "Invalid Amount", pay, amt);
             });
             
             form.add(amt); form.add(Box.createHorizontalStrut(10)); form.add(pay);
@@ -978,8 +7869,11 @@ public class BankManagementSystem extends JFrame {
         }
     }
 
-    class SettingsView extends JPanel {
-        public SettingsView(User user) {
+    class SettingsView extends AccountView {
+        private final JPasswordField curr = new JPasswordField();
+        private final JPasswordField newP = new JPasswordField();
+
+        public SettingsView() {
             setLayout(new GridBagLayout()); // Center the content
             setBackground(COLOR_BACKGROUND);
 
@@ -993,9 +7887,7 @@ public class BankManagementSystem extends JFrame {
             t.setFont(FONT_TITLE);
             t.setAlignmentX(Component.CENTER_ALIGNMENT);
             
-            JPasswordField curr = new JPasswordField();
-            JPasswordField newP = new JPasswordField();
-            LineBorder b = new LineBorder(new Color(200,200,200));
+            LineBorder b = new LineBorder(RenderCache.color(200,200,200));
             curr.setBorder(BorderFactory.createCompoundBorder(b, new EmptyBorder(10,10,10,10)));
             newP.setBorder(BorderFactory.createCompoundBorder(b, new EmptyBorder(10,10,10,10)));
             Dimension d = new Dimension(400, 45);
@@ -1006,11 +7898,13 @@ public class BankManagementSystem extends JFrame {
             save.setAlignmentX(Component.CENTER_ALIGNMENT);
             
             save.addActionListener(e -> {
-                if(new String(curr.getPassword()).equals(user.getPassword())) {
-                    user.setPassword(new String(newP.getPassword()));
-                    showToast("Security Credentials Updated", false);
-                    curr.setText(""); newP.setText("");
-                } else showToast("Authentication Failed", true);
+                String current = new String(curr.getPassword()), next = new String(newP.getPassword());
+                runBanking(() -> asyncBank.changePassword(user, current, next), ok -> {
+                    if(ok) {
+                        showToast("Security Credentials Updated", false);
+                        curr.setText(""); newP.setText("");
+                    } else showToast("Authentication Failed", true);
+                }, "Authentication Failed", save, curr, newP);
             });
 
             panel.add(t);
@@ -1027,13 +7921,217 @@ public class BankManagementSystem extends JFrame {
             
             add(panel);
         }
+
+        @Override void bind(User u) {
+            super.bind(u);
+            curr.setText(""); newP.setText("");
+        }
+    }
+
+    // Live per-operation counts and latency percentiles for the admin account. Polls the metrics
+    // once a second, and only while the view is on screen.
+    class MetricsView extends JPanel {
+        private final LedgerMetrics metrics;
+        private final MetricsTableModel model;
+        private final javax.swing.Timer poll;
+
+        public MetricsView(LedgerMetrics metrics) {
+            this.metrics = metrics;
+            setLayout(new BorderLayout());
+            setBackground(COLOR_BACKGROUND);
+            setBorder(new EmptyBorder(40, 50, 40, 50));
+
+            JPanel top = new JPanel(new BorderLayout());
+            top.setOpaque(false);
+            top.setBorder(new EmptyBorder(0, 0, 25, 0));
+            JLabel title = new JLabel("Ledger Metrics");
+            title.setFont(FONT_TITLE);
+            ModernButton copy = new ModernButton("COPY REPORT", COLOR_SIDEBAR);
+            copy.setPreferredSize(new Dimension(180, 40));
+            copy.addActionListener(e -> {
+                Toolkit.getDefaultToolkit().getSystemClipboard().setContents(new StringSelection(metrics.report()), null);
+                showToast("Metrics Report Copied", false);
+            });
+            top.add(title, BorderLayout.WEST);
+            top.add(copy, BorderLayout.EAST);
+
+            model = new MetricsTableModel();
+            model.refresh();
+            JTable table = new JTable(model);
+            styleTable(table);
+            table.getColumnModel().getColumn(7).setPreferredWidth(320);
+
+            JPanel tablePanel = new JPanel(new BorderLayout());
+            tablePanel.setBackground(COLOR_SURFACE);
+            tablePanel.setBorder(new EmptyBorder(20, 20, 20, 20));
+            tablePanel.add(new JScrollPane(table), BorderLayout.CENTER);
+
+            add(top, BorderLayout.NORTH);
+            add(tablePanel, BorderLayout.CENTER);
+
+            poll = new javax.swing.Timer(1000, e -> model.refresh());
+            addComponentListener(new ComponentAdapter() {
+                @Override public void componentShown(ComponentEvent e) { model.refresh(); poll.start(); }
+                @Override public void componentHidden(ComponentEvent e) { poll.stop(); }
+            });
+        }
+
+        // One row per operation, recomputed from the histograms on each tick
+        private class MetricsTableModel extends AbstractTableModel {
+            private final String[] cols = {"Operation", "Count", "Failed", "p50 (ms)", "p99 (ms)", "p99.9 (ms)", "Max (ms)", "Failure Reasons"};
+            private final LedgerMetrics.Operation[] ops = LedgerMetrics.Operation.values();
+            private final Object[][] rows = new Object[ops.length][cols.length];
+
+            void refresh() {
+                for (int i = 0; i < ops.length; i++) {
+                    LedgerMetrics.Operation op = ops[i];
+                    LatencyHistogram h = metrics.latency(op);
+                    long total = metrics.count(op);
+                    rows[i][0] = op.name();
+                    rows[i][1] = total;
+                    rows[i][2] = total - metrics.count(op, LedgerMetrics.Outcome.OK);
+                    rows[i][3] = millis(h.percentile(0.50));
+                    rows[i][4] = millis(h.percentile(0.99));
+                    rows[i][5] = millis(h.percentile(0.999));
+                    rows[i][6] = millis(h.max());
+                    rows[i][7] = metrics.failureSummary(op);
+                }
+                fireTableDataChanged();
+            }
+
+            private String millis(long nanos) { return String.format("%.3f", nanos / 1e6); }
+
+            @Override public int getRowCount() { return rows.length; }
+            @Override public int getColumnCount() { return cols.length; }
+            @Override public String getColumnName(int col) { return cols[col]; }
+            @Override public boolean isCellEditable(int row, int col) { return false; }
+            @Override public Object getValueAt(int row, int col) { return rows[row][col]; }
+        }
+    }
+
+    // Admin queue of postings held by risk rules. Polls while shown; APPROVE applies the selected
+    // posting (the balance is checked again then), DECLINE drops it.
+    class ReviewView extends JPanel {
+        private final ReviewTableModel model = new ReviewTableModel();
+        private final JTable table = new JTable(model);
+        private final javax.swing.Timer poll;
+
+        public ReviewView() {
+            setLayout(new BorderLayout());
+            setBackground(COLOR_BACKGROUND);
+            setBorder(new EmptyBorder(40, 50, 40, 50));
+
+            JPanel top = new JPanel(new BorderLayout());
+            top.setOpaque(false);
+            top.setBorder(new EmptyBorder(0, 0, 25, 0));
+            JLabel title = new JLabel("Risk Reviews");
+            title.setFont(FONT_TITLE);
+            ModernButton approve = new ModernButton("APPROVE", COLOR_SECONDARY);
+            ModernButton decline = new ModernButton("DECLINE", COLOR_DANGER);
+            approve.setPreferredSize(new Dimension(140, 40));
+            decline.setPreferredSize(new Dimension(140, 40));
+            JPanel actions = new JPanel(new FlowLayout(FlowLayout.RIGHT, 10, 0));
+            actions.setOpaque(false);
+            actions.add(approve);
+            actions.add(decline);
+            top.add(title, BorderLayout.WEST);
+            top.add(actions, BorderLayout.EAST);
+
+            approve.addActionListener(e -> {
+                BankService.Review r = selected();
+                if (r == null) return;
+                runBanking(() -> asyncBank.approveReview(r.id), outcome -> {
+                    if (outcome == null) showToast("Already Decided", true);
+                    else if (outcome == LedgerMetrics.Outcome.OK) showToast("Posting Approved", false);
+                    else showToast("Approved, but the posting failed: " + outcome, true);
+                    model.refresh();
+                }, "Approval Failed", approve, decline);
+            });
+            decline.addActionListener(e -> {
+                BankService.Review r = selected();
+                if (r == null) return;
+                bankService.declineReview(r.id);
+                model.refresh();
+            });
+
+            styleTable(table);
+            table.getColumnModel().getColumn(6).setPreferredWidth(260);
+            JPanel tablePanel = new JPanel(new BorderLayout());
+            tablePanel.setBackground(COLOR_SURFACE);
+            tablePanel.setBorder(new EmptyBorder(20, 20, 20, 20));
+            tablePanel.add(new JScrollPane(table), BorderLayout.CENTER);
+
+            add(top, BorderLayout.NORTH);
+            add(tablePanel, BorderLayout.CENTER);
+
+            poll = new javax.swing.Timer(2000, e -> model.refresh());
+            addComponentListener(new ComponentAdapter() {
+                @Override public void componentShown(ComponentEvent e) { model.refresh(); poll.start(); }
+                @Override public void componentHidden(ComponentEvent e) { poll.stop(); }
+            });
+        }
+
+        private BankService.Review selected() {
+            int row = table.getSelectedRow();
+            if (row < 0) { showToast("Select a Posting First", true); return null; }
+            return model.reviews.get(table.convertRowIndexToModel(row));
+        }
+
+        private class ReviewTableModel extends AbstractTableModel {
+            private final String[] cols = {"ID", "Held At", "Operation", "Account", "Payee / Biller", "Amount", "Rule"};
+            private final SimpleDateFormat timeFormat = new SimpleDateFormat("MMM dd, HH:mm:ss"); // EDT only
+            private List<BankService.Review> reviews = Collections.emptyList();
+
+            // Keeps the selection on the same review when rows come and go
+            void refresh() {
+                int row = table.getSelectedRow();
+                long selectedId = row < 0 ? -1 : reviews.get(row).id;
+                reviews = bankService.pendingReviews();
+                fireTableDataChanged();
+                for (int i = 0; i < reviews.size(); i++) {
+                    if (reviews.get(i).id == selectedId) table.setRowSelectionInterval(i, i);
+                }
+            }
+
+            @Override public int getRowCount() { return reviews.size(); }
+            @Override public int getColumnCount() { return cols.length; }
+            @Override public String getColumnName(int col) { return cols[col]; }
+            @Override public boolean isCellEditable(int row, int col) { return false; }
+
+            @Override public Object getValueAt(int row, int col) {
+                BankService.Review r = reviews.get(row);
+                switch (col) {
+                    case 0: return r.id;
+                    case 1: return timeFormat.format(new Date(r.time));
+                    case 2: return r.operation.name();
+                    case 3: return r.accountId;
+                    case 4: return r.target == null ? "" : r.target;
+                    case 5: return formatMoney(r.amount);
+                    default: return r.rule;
+                }
+            }
+        }
     }
 
     // --- Helpers ---
+
+    private void styleTable(JTable table) {
+        table.setRowHeight(35);
+        table.setShowVerticalLines(false);
+        table.setFont(FONT_BODY);
+        table.setSelectionBackground(RenderCache.color(230, 240, 255));
+        table.setSelectionForeground(COLOR_TEXT_MAIN);
+        table.setGridColor(RenderCache.color(240,240,240));
+        
+        JTableHeader header = table.getTableHeader();
+        header.setBackground(COLOR_SURFACE);
+        header.setFont(FONT_BOLD);
+        header.setForeground(COLOR_TEXT_MUTED);
+        header.setBorder(BorderFactory.createMatteBorder(0, 0, 2, 0, RenderCache.color(226, 232, 240)));
+    }
     
-    private String formatMoney(double amt) {
+    static String formatMoney(long paisa) {
         // Manually format BDT for consistency across all systems
-        DecimalFormat df = new DecimalFormat("#,##0.00");
-        return "৳" + df.format(amt);
+        return MoneyFormat.BDT.format(paisa);
     }
 }